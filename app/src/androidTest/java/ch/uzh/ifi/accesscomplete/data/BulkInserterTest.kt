@@ -0,0 +1,140 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data
+
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteDatabase.CONFLICT_IGNORE
+import android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE
+import android.util.Log
+import androidx.core.content.contentValuesOf
+import ch.uzh.ifi.accesscomplete.ktx.query
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class BulkInserterTest : ApplicationDbTestCase() {
+    private lateinit var db: SQLiteDatabase
+
+    @Before fun createTable() {
+        db = dbHelper.writableDatabase
+        db.execSQL("""
+            CREATE TABLE $TABLE (
+                id int PRIMARY KEY,
+                name varchar(255),
+                latitude double NOT NULL,
+                longitude double NOT NULL,
+                data blob
+            );""")
+    }
+
+    @Test fun insert() {
+        db.bulkInsert(TABLE) { inserter ->
+            assertEquals(1L, inserter.insert(row(1, "a")))
+            assertEquals(2L, inserter.insert(row(2, null)))
+        }
+        assertEquals(listOf(1L to "a", 2L to null), getAll())
+    }
+
+    @Test fun insertIgnore() {
+        db.bulkInsert(TABLE, CONFLICT_IGNORE) { inserter ->
+            assertEquals(1L, inserter.insert(row(1, "a")))
+            assertEquals(-1L, inserter.insert(row(1, "b")))
+        }
+        assertEquals(listOf(1L to "a"), getAll())
+    }
+
+    @Test fun insertReplace() {
+        db.bulkInsert(TABLE, CONFLICT_REPLACE) { inserter ->
+            inserter.insert(row(1, "a"))
+            inserter.insert(row(1, "b"))
+        }
+        assertEquals(listOf(1L to "b"), getAll())
+    }
+
+    @Test fun insertDifferentColumns() {
+        db.bulkInsert(TABLE) { inserter ->
+            inserter.insert(row(1, "a"))
+            inserter.insert(contentValuesOf("id" to 2L, "latitude" to 1.0, "longitude" to 2.0))
+        }
+        assertEquals(listOf(1L to "a", 2L to null), getAll())
+    }
+
+    @Test fun insertNothingOnException() {
+        try {
+            db.bulkInsert(TABLE) { inserter ->
+                inserter.insert(row(1, "a"))
+                inserter.insert(row(1, "b"))
+            }
+            fail()
+        } catch (e: Exception) { }
+        assertEquals(emptyList<Pair<Long, String?>>(), getAll())
+    }
+
+    /* not a test of the functionality but a benchmark that compares the rows per second inserted
+     * with SQLiteDatabase.insert in one transaction to those inserted with the BulkInserter */
+    @Test fun benchmark() {
+        val rows = (1..ROW_COUNT).map { row(it.toLong(), "name $it") }
+
+        var time = System.nanoTime()
+        db.transaction {
+            for (row in rows) {
+                insertWithOnConflict(TABLE, null, row, CONFLICT_REPLACE)
+            }
+        }
+        val rowsPerSecondBefore = ROW_COUNT * 1e9 / (System.nanoTime() - time)
+
+        db.delete(TABLE, null, null)
+
+        time = System.nanoTime()
+        db.bulkInsert(TABLE, CONFLICT_REPLACE) { inserter ->
+            for (row in rows) {
+                inserter.insert(row)
+            }
+        }
+        val rowsPerSecondAfter = ROW_COUNT * 1e9 / (System.nanoTime() - time)
+
+        Log.i(TAG, "Inserted %.0f rows/s with SQLiteDatabase.insert, %.0f rows/s with BulkInserter"
+            .format(rowsPerSecondBefore, rowsPerSecondAfter))
+        assertEquals(ROW_COUNT, getAll().size)
+    }
+
+    private fun getAll(): List<Pair<Long, String?>> =
+        db.query(TABLE, arrayOf("id", "name"), null, null, null, null, "id") {
+            it.getLong(0) to it.getString(1)
+        }
+
+    private fun row(id: Long, name: String?) = contentValuesOf(
+        "id" to id,
+        "name" to name,
+        "latitude" to 1.0,
+        "longitude" to 2.0,
+        "data" to byteArrayOf(1, 2, 3)
+    )
+
+    companion object {
+        private const val TABLE = "bulk_insert_test"
+        private const val ROW_COUNT = 20000
+        private const val TAG = "BulkInserterTest"
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data
+
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementCodec
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.NodeDao
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.NodeMapping
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionary
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class WriteAheadLoggingTest : ApplicationDbTestCase() {
+    private lateinit var dao: NodeDao
+
+    @Before fun createDao() {
+        dao = NodeDao(dbHelper, NodeMapping(ElementCodec(TagDictionary(dbHelper))))
+    }
+
+    @Test fun isEnabled() {
+        assertTrue(dbHelper.writableDatabase.isWriteAheadLoggingEnabled)
+    }
+
+    @Test fun readingOnOtherThreadIsNotBlockedByTransaction() {
+        dao.put(OsmNode(1, 1, OsmLatLon(1.0, 2.0), null))
+
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            dbHelper.writableDatabase.transaction {
+                dao.put(OsmNode(2, 1, OsmLatLon(3.0, 4.0), null))
+
+                val nodes = executor.submit<List<Long?>> { listOf(dao.get(1)?.id, dao.get(2)?.id) }
+                // only the committed state is visible to the other thread
+                assertEquals(listOf(1L, null), nodes.get(5, TimeUnit.SECONDS))
+            }
+        } finally {
+            executor.shutdown()
+        }
+        assertNotNull(dao.get(2))
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.download.tiles
+
+import ch.uzh.ifi.accesscomplete.data.ApplicationDbTestCase
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.TilesRect
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class TileDensityDaoTest : ApplicationDbTestCase() {
+    private lateinit var dao: TileDensityDao
+
+    @Before fun createDao() {
+        dao = TileDensityDao(dbHelper)
+    }
+
+    @Test fun getNothing() {
+        assertTrue(dao.getAll(TilesRect(0, 0, 5, 5)).isEmpty())
+    }
+
+    @Test fun putGetAll() {
+        dao.putAll(mapOf(
+            Tile(1, 2) to TileDensity(100, 10),
+            Tile(2, 2) to TileDensity(0, 0)
+        ))
+        assertEquals(
+            mapOf(
+                Tile(1, 2) to TileDensity(100, 10),
+                Tile(2, 2) to TileDensity(0, 0)
+            ),
+            dao.getAll(TilesRect(0, 0, 5, 5))
+        )
+    }
+
+    @Test fun getOnlyWithinTilesRect() {
+        dao.putAll(mapOf(
+            Tile(1, 2) to TileDensity(100, 10),
+            Tile(3, 3) to TileDensity(5, 1)
+        ))
+        assertEquals(mapOf(Tile(3, 3) to TileDensity(5, 1)), dao.getAll(TilesRect(2, 2, 3, 3)))
+    }
+
+    @Test fun putReplaces() {
+        dao.putAll(mapOf(Tile(1, 2) to TileDensity(100, 10)))
+        dao.putAll(mapOf(Tile(1, 2) to TileDensity(50, 5)))
+        assertEquals(mapOf(Tile(1, 2) to TileDensity(50, 5)), dao.getAll(TilesRect(1, 2, 1, 2)))
+    }
+
+    @Test fun removeAll() {
+        dao.putAll(mapOf(Tile(1, 2) to TileDensity(100, 10)))
+        dao.removeAll()
+        assertTrue(dao.getAll(TilesRect(0, 0, 5, 5)).isEmpty())
+    }
+}
@@ -27,6 +27,7 @@ import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmElementQuestType
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuest
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestDao
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestMapping
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeIdDao
 import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeRegistry
 import de.westnordost.osmapi.map.data.Element
 import de.westnordost.osmapi.map.data.LatLon
@@ -42,7 +43,7 @@ class ElementGeometryDaoTest : ApplicationDbTestCase() {
     private lateinit var elementGeometryMapping: ElementGeometryMapping
 
     @Before fun createDao() {
-        elementGeometryMapping = ElementGeometryMapping(serializer)
+        elementGeometryMapping = ElementGeometryMapping()
         dao = ElementGeometryDao(dbHelper, elementGeometryMapping)
     }
 
@@ -110,12 +111,33 @@ class ElementGeometryDaoTest : ApplicationDbTestCase() {
 
         dao.put(ElementGeometryEntry(type, id, geometry))
         val questType = mock(OsmElementQuestType::class.java)
-        val osmQuestMapping = OsmQuestMapping(serializer, QuestTypeRegistry(listOf(questType)), elementGeometryMapping)
-        val questDao = OsmQuestDao(dbHelper, osmQuestMapping)
+        val questTypeIds = QuestTypeIdDao(dbHelper)
+        val osmQuestMapping = OsmQuestMapping(serializer, QuestTypeRegistry(listOf(questType)), elementGeometryMapping, questTypeIds)
+        val questDao = OsmQuestDao(dbHelper, osmQuestMapping, questTypeIds)
         questDao.add(OsmQuest(questType, type, id, geometry))
         assertEquals(0, dao.deleteUnreferenced())
     }
 
+    @Test fun deleteUnreferencedAfterReferencingQuestWasDeleted() {
+        val type = Element.Type.NODE
+        val id: Long = 1
+        val geometry = createSimpleGeometry()
+
+        dao.put(ElementGeometryEntry(type, id, geometry))
+        val questType = mock(OsmElementQuestType::class.java)
+        val questTypeIds = QuestTypeIdDao(dbHelper)
+        val osmQuestMapping = OsmQuestMapping(serializer, QuestTypeRegistry(listOf(questType)), elementGeometryMapping, questTypeIds)
+        val questDao = OsmQuestDao(dbHelper, osmQuestMapping, questTypeIds)
+        val quest = OsmQuest(questType, type, id, geometry)
+        questDao.add(quest)
+        assertEquals(0, dao.deleteUnreferenced())
+        assertNotNull(dao.get(type, id))
+
+        questDao.delete(quest.id!!)
+        assertEquals(1, dao.deleteUnreferenced())
+        assertNull(dao.get(type, id))
+    }
+
     private fun createSimpleGeometry() = ElementPointGeometry(OsmLatLon(50.0, 50.0))
 
     private fun createSomeLatLons(start: Double): List<LatLon> {
@@ -34,7 +34,7 @@ class NodeDaoTest : ApplicationDbTestCase() {
     private lateinit var dao: NodeDao
 
     @Before fun createDao() {
-        dao = NodeDao(dbHelper, NodeMapping(serializer))
+        dao = NodeDao(dbHelper, NodeMapping(ElementCodec(TagDictionary(dbHelper))))
     }
 
     @Test fun putGetNoTags() {
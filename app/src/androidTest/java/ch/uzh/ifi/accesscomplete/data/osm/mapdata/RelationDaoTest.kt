@@ -35,7 +35,7 @@ class RelationDaoTest : ApplicationDbTestCase() {
     private lateinit var dao: RelationDao
 
     @Before fun createDao() {
-        dao = RelationDao(dbHelper, RelationMapping(serializer))
+        dao = RelationDao(dbHelper, RelationMapping(ElementCodec(TagDictionary(dbHelper))))
     }
 
     @Test fun putGetNoTags() {
@@ -0,0 +1,91 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.data.ApplicationDbTestCase
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class TagDictionaryTest : ApplicationDbTestCase() {
+    private lateinit var dictionary: TagDictionary
+
+    @Before fun createDictionary() {
+        dictionary = TagDictionary(dbHelper)
+    }
+
+    @Test fun getIdAndString() {
+        val id = dictionary.getId("highway")
+        assertEquals(id, dictionary.getId("highway"))
+        assertNotEquals(id, dictionary.getId("footway"))
+        assertEquals("highway", dictionary.getString(id))
+    }
+
+    @Test fun persistsEntries() {
+        val id = dictionary.getId("highway")
+        dictionary.persist(listOf("highway", "footway"))
+
+        val otherDictionary = TagDictionary(dbHelper)
+        assertEquals("highway", otherDictionary.getString(id))
+        assertEquals(id, otherDictionary.getId("highway"))
+    }
+
+    @Test fun persistsEntriesAgainAfterRolledBackTransaction() {
+        try {
+            dbHelper.writableDatabase.transaction {
+                dictionary.persist(listOf("highway"))
+                throw IllegalStateException()
+            }
+        } catch (e: IllegalStateException) { }
+
+        dictionary.persist(listOf("highway"))
+        val otherDictionary = TagDictionary(dbHelper)
+        assertEquals("highway", otherDictionary.getString(dictionary.getId("highway")))
+    }
+
+    @Test fun doesNotDeadlockWithConcurrentTransaction() {
+        val isInTransaction = CountDownLatch(1)
+        val transactionThread = thread {
+            dbHelper.writableDatabase.transaction {
+                isInTransaction.countDown()
+                // give the other thread time to get stuck, if it does
+                Thread.sleep(200)
+                dictionary.persist(listOf("highway"))
+            }
+        }
+        val otherThread = thread {
+            isInTransaction.await()
+            dictionary.persist(listOf("footway"))
+        }
+        transactionThread.join(5000)
+        otherThread.join(5000)
+
+        assertFalse(transactionThread.isAlive)
+        assertFalse(otherThread.isAlive)
+        val otherDictionary = TagDictionary(dbHelper)
+        assertEquals("highway", otherDictionary.getString(dictionary.getId("highway")))
+        assertEquals("footway", otherDictionary.getString(dictionary.getId("footway")))
+    }
+}
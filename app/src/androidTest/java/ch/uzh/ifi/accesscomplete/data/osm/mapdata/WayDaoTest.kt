@@ -33,7 +33,7 @@ class WayDaoTest : ApplicationDbTestCase() {
     private lateinit var dao: WayDao
 
     @Before fun createDao() {
-        dao = WayDao(dbHelper, WayMapping(serializer))
+        dao = WayDao(dbHelper, WayMapping(ElementCodec(TagDictionary(dbHelper))))
     }
 
     @Test fun putGetNoTags() {
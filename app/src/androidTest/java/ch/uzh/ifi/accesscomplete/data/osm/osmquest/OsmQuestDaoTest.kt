@@ -31,6 +31,7 @@ import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.*
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementKey
 import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
 import ch.uzh.ifi.accesscomplete.data.quest.QuestType
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeIdDao
 import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeRegistry
 import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.Element
@@ -45,11 +46,12 @@ class OsmQuestDaoTest : ApplicationDbTestCase() {
     private lateinit var dao: OsmQuestDao
 
     @Before fun createDaos() {
-        val elementGeometryMapping = ElementGeometryMapping(serializer)
+        val elementGeometryMapping = ElementGeometryMapping()
         geometryDao = ElementGeometryDao(dbHelper, elementGeometryMapping)
         val list = listOf<QuestType<*>>(TEST_QUEST_TYPE, TEST_QUEST_TYPE2)
-        val mapping = OsmQuestMapping(serializer, QuestTypeRegistry(list), elementGeometryMapping)
-        dao = OsmQuestDao(dbHelper, mapping)
+        val questTypeIds = QuestTypeIdDao(dbHelper)
+        val mapping = OsmQuestMapping(serializer, QuestTypeRegistry(list), elementGeometryMapping, questTypeIds)
+        dao = OsmQuestDao(dbHelper, mapping, questTypeIds)
     }
 
     @Test fun addGetNoChanges() {
@@ -132,6 +134,21 @@ class OsmQuestDaoTest : ApplicationDbTestCase() {
         assertEquals(0, dao.getCount())
     }
 
+    @Test fun transactionIsRolledBackOnException() {
+        val quests = listOf(create(elementId = 1), create(elementId = 2))
+        try {
+            dao.transaction {
+                geometryDao.putAll(quests.map { it.geometryEntry })
+                dao.addAll(quests)
+                throw IllegalStateException()
+            }
+            fail()
+        } catch (e: IllegalStateException) { }
+
+        assertEquals(0, dao.getCount())
+        assertNull(geometryDao.get(Element.Type.NODE, 1))
+    }
+
     @Test fun getAllByBBox() {
         addToDaos(
                 create(elementId = 1, geometry = ElementPointGeometry(OsmLatLon(5.0, 5.0))),
@@ -142,6 +159,30 @@ class OsmQuestDaoTest : ApplicationDbTestCase() {
         assertEquals(2, dao.getAll().size)
     }
 
+    @Test fun getAllBySmallBBox() {
+        addToDaos(
+                create(elementId = 1, geometry = ElementPointGeometry(OsmLatLon(47.3700, 8.5400))),
+                create(elementId = 2, geometry = ElementPointGeometry(OsmLatLon(47.3800, 8.5500))),
+                create(elementId = 3, geometry = ElementPointGeometry(OsmLatLon(47.3750, 8.5450))),
+                create(elementId = 4, geometry = ElementPointGeometry(OsmLatLon(47.3900, 8.5450)))
+        )
+
+        val bbox = BoundingBox(47.3700, 8.5400, 47.3800, 8.5500)
+        assertEquals(listOf(1L, 2L, 3L), dao.getAll(bounds = bbox).map { it.elementId }.sorted())
+        assertEquals(3, dao.getCount(bounds = bbox))
+    }
+
+    @Test fun getAllEntries() {
+        val quest = create(elementType = Element.Type.WAY, elementId = 3)
+        addToDaos(quest)
+
+        assertEquals(
+            listOf(OsmQuestEntry(quest.id!!, TEST_QUEST_TYPE.javaClass.simpleName, Element.Type.WAY, 3, quest.center)),
+            dao.getAllEntries(questTypes = listOf(TEST_QUEST_TYPE.javaClass.simpleName))
+        )
+        assertTrue(dao.getAllEntries(questTypes = listOf(TEST_QUEST_TYPE2.javaClass.simpleName)).isEmpty())
+    }
+
     @Test fun getAllByStatus() {
         addToDaos(
                 create(elementId = 1, status = QuestStatus.HIDDEN),
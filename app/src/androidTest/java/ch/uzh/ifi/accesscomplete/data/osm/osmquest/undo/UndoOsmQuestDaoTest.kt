@@ -47,7 +47,7 @@ class UndoOsmQuestDaoTest : ApplicationDbTestCase() {
     private lateinit var dao: UndoOsmQuestDao
 
     @Before fun createDaos() {
-        val elementGeometryMapping = ElementGeometryMapping(serializer)
+        val elementGeometryMapping = ElementGeometryMapping()
         geometryDao = ElementGeometryDao(dbHelper, elementGeometryMapping)
         dao = UndoOsmQuestDao(dbHelper, UndoOsmQuestMapping(serializer, QuestTypeRegistry(listOf(questType)), elementGeometryMapping))
     }
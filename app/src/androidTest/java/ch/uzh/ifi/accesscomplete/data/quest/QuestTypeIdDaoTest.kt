@@ -0,0 +1,95 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.quest
+
+import ch.uzh.ifi.accesscomplete.data.ApplicationDbTestCase
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class QuestTypeIdDaoTest : ApplicationDbTestCase() {
+    private lateinit var dao: QuestTypeIdDao
+
+    @Before fun createDao() {
+        dao = QuestTypeIdDao(dbHelper)
+    }
+
+    @Test fun getNothing() {
+        assertNull(dao.getId("AddRoadName"))
+        assertNull(dao.getName(1))
+    }
+
+    @Test fun createAndGet() {
+        val id = dao.getOrCreateId("AddRoadName")
+        assertEquals(id, dao.getOrCreateId("AddRoadName"))
+        assertEquals(id, dao.getId("AddRoadName"))
+        assertEquals("AddRoadName", dao.getName(id))
+    }
+
+    @Test fun differentQuestTypesGetDifferentIds() {
+        assertNotEquals(dao.getOrCreateId("AddRoadName"), dao.getOrCreateId("AddKerbType"))
+    }
+
+    @Test fun persistsIds() {
+        val id = dao.getOrCreateId("AddRoadName")
+        val otherDao = QuestTypeIdDao(dbHelper)
+        assertEquals(id, otherDao.getId("AddRoadName"))
+        assertEquals("AddRoadName", otherDao.getName(id))
+    }
+
+    @Test fun doesNotRememberIdsOfRolledBackTransaction() {
+        try {
+            dbHelper.writableDatabase.transaction {
+                dao.getOrCreateId("AddRoadName")
+                throw IllegalStateException()
+            }
+        } catch (e: IllegalStateException) { }
+
+        assertNull(dao.getId("AddRoadName"))
+    }
+
+    @Test fun doesNotDeadlockWithConcurrentTransaction() {
+        val isInTransaction = CountDownLatch(1)
+        val transactionThread = thread {
+            dbHelper.writableDatabase.transaction {
+                isInTransaction.countDown()
+                // give the other thread time to get stuck, if it does
+                Thread.sleep(200)
+                dao.getOrCreateId("AddRoadName")
+            }
+        }
+        val otherThread = thread {
+            isInTransaction.await()
+            dao.getOrCreateId("AddKerbType")
+        }
+        transactionThread.join(5000)
+        otherThread.join(5000)
+
+        assertFalse(transactionThread.isAlive)
+        assertFalse(otherThread.isAlive)
+        assertNotNull(dao.getId("AddRoadName"))
+        assertNotNull(dao.getId("AddKerbType"))
+    }
+}
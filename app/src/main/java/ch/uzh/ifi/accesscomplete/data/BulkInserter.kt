@@ -0,0 +1,113 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteDatabase.CONFLICT_ABORT
+import android.database.sqlite.SQLiteDatabase.CONFLICT_FAIL
+import android.database.sqlite.SQLiteDatabase.CONFLICT_IGNORE
+import android.database.sqlite.SQLiteDatabase.CONFLICT_NONE
+import android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE
+import android.database.sqlite.SQLiteDatabase.CONFLICT_ROLLBACK
+import android.database.sqlite.SQLiteStatement
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import java.io.Closeable
+
+/** Inserts many rows into one table.
+ *
+ *  SQLiteDatabase.insert compiles the insert statement anew for every row. Instead, this compiles
+ *  the statement only once (per set of columns) and then only binds the values of each row to it.
+ *  Use it via [bulkInsert], so that it is closed and all rows are inserted in one transaction. */
+class BulkInserter(
+    private val db: SQLiteDatabase,
+    private val table: String,
+    private val conflictAlgorithm: Int = CONFLICT_NONE
+) : Closeable {
+
+    private val statements = HashMap<Set<String>, CompiledInsert>()
+
+    /** Inserts the given [values] as one row. Returns the row id of the inserted row or -1 if
+     *  no row was inserted, like SQLiteDatabase.insertWithOnConflict */
+    fun insert(values: ContentValues): Long {
+        val columns = values.keySet()
+        val insert = statements[columns] ?: compile(columns).also { statements[HashSet(columns)] = it }
+        val statement = insert.statement
+        statement.clearBindings()
+        for ((i, column) in insert.columns.withIndex()) {
+            statement.bind(i + 1, values.get(column))
+        }
+        return statement.executeInsert()
+    }
+
+    private fun compile(columns: Set<String>): CompiledInsert {
+        val columnList = columns.toList()
+        val sql = "INSERT" + conflictAlgorithm.toSql() + " INTO " + table +
+            columnList.joinToString(",", " (", ")") +
+            columnList.joinToString(",", " VALUES (", ")") { "?" }
+        return CompiledInsert(db.compileStatement(sql), columnList)
+    }
+
+    override fun close() {
+        for (insert in statements.values) {
+            insert.statement.close()
+        }
+        statements.clear()
+    }
+
+    private class CompiledInsert(val statement: SQLiteStatement, val columns: List<String>)
+}
+
+/** Calls [block] with a [BulkInserter] for the given [table] within one transaction */
+inline fun <T> SQLiteDatabase.bulkInsert(
+    table: String,
+    conflictAlgorithm: Int = CONFLICT_NONE,
+    block: (BulkInserter) -> T
+): T = transaction {
+    BulkInserter(this, table, conflictAlgorithm).use(block)
+}
+
+private fun SQLiteStatement.bind(index: Int, value: Any?) {
+    when (value) {
+        null -> bindNull(index)
+        is String -> bindString(index, value)
+        is Long -> bindLong(index, value)
+        is Int -> bindLong(index, value.toLong())
+        is Short -> bindLong(index, value.toLong())
+        is Byte -> bindLong(index, value.toLong())
+        is Boolean -> bindLong(index, if (value) 1 else 0)
+        is Double -> bindDouble(index, value)
+        is Float -> bindDouble(index, value.toDouble())
+        is ByteArray -> bindBlob(index, value)
+        else -> throw IllegalArgumentException("Cannot bind value of type ${value.javaClass.simpleName}")
+    }
+}
+
+private fun Int.toSql(): String = when (this) {
+    CONFLICT_ROLLBACK -> " OR ROLLBACK"
+    CONFLICT_ABORT -> " OR ABORT"
+    CONFLICT_FAIL -> " OR FAIL"
+    CONFLICT_IGNORE -> " OR IGNORE"
+    CONFLICT_REPLACE -> " OR REPLACE"
+    else -> ""
+}
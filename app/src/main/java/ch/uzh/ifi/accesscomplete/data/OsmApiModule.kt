@@ -27,14 +27,17 @@ import dagger.Module
 import dagger.Provides
 import de.westnordost.osmapi.OsmConnection
 import ch.uzh.ifi.accesscomplete.ApplicationConstants
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.OverpassMapDataSource
 import ch.uzh.ifi.accesscomplete.data.user.OAuthStore
 import oauth.signpost.OAuthConsumer
+import javax.inject.Named
 import javax.inject.Singleton
 
 @Module
 object OsmApiModule {
 
     private const val OSM_API_URL = "https://api.openstreetmap.org/api/0.6/"
+    private const val OVERPASS_API_URL = "https://overpass-api.de/api/"
 
     /** Returns the osm connection singleton used for all daos with the saved oauth consumer  */
     @Provides @Singleton fun osmConnection(oAuthStore: OAuthStore): OsmConnection {
@@ -46,6 +49,13 @@ object OsmApiModule {
         return OsmConnection(OSM_API_URL, ApplicationConstants.USER_AGENT, consumer)
     }
 
+    /** Returns a connection to the Overpass API. It is anonymous, the Overpass API is read-only.
+     *  It waits for a response a little longer than an Overpass query may take at most */
+    @Provides @Singleton @Named("Overpass") fun overpassConnection(): OsmConnection {
+        val timeout = (OverpassMapDataSource.QUERY_TIMEOUT_SECONDS + 15) * 1000
+        return OsmConnection(OVERPASS_API_URL, ApplicationConstants.USER_AGENT, null, timeout)
+    }
+
     @Provides fun userDao(osm: OsmConnection): UserApi = UserApi(osm)
 
     @Provides fun notesDao(osm: OsmConnection): NotesApi = NotesApi(osm)
@@ -23,40 +23,84 @@
 package ch.uzh.ifi.accesscomplete.data
 
 import android.content.Context
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
+import androidx.core.content.contentValuesOf
+import androidx.core.database.getBlobOrNull
 import ch.uzh.ifi.accesscomplete.data.download.tiles.DownloadedTilesTable
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable
 import ch.uzh.ifi.accesscomplete.data.notifications.NewUserAchievementsTable
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCodec
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.toGeometryTileKey
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementCodec
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementMapping
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.NodeMapping
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.NodeTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationMapping
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionary
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionaryTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.WayMapping
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.WayTable
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.code
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.undo.UndoOsmQuestTable
 import ch.uzh.ifi.accesscomplete.data.osm.splitway.OsmQuestSplitWayTable
 import ch.uzh.ifi.accesscomplete.data.osm.upload.changesets.OpenChangesetsTable
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NoteTable
 import ch.uzh.ifi.accesscomplete.data.osmnotes.createnotes.CreateNoteTable
 import ch.uzh.ifi.accesscomplete.data.osmnotes.notequests.OsmNoteQuestTable
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeTable
 import ch.uzh.ifi.accesscomplete.data.user.CountryStatisticsTable
 import ch.uzh.ifi.accesscomplete.data.user.QuestStatisticsTable
 import ch.uzh.ifi.accesscomplete.data.user.achievements.UserAchievementsTable
 import ch.uzh.ifi.accesscomplete.data.user.achievements.UserLinksTable
 import ch.uzh.ifi.accesscomplete.data.visiblequests.QuestVisibilityTable
+import ch.uzh.ifi.accesscomplete.ktx.getBlob
+import ch.uzh.ifi.accesscomplete.ktx.getDouble
+import ch.uzh.ifi.accesscomplete.ktx.getInt
+import ch.uzh.ifi.accesscomplete.ktx.getLong
+import ch.uzh.ifi.accesscomplete.ktx.query
+import ch.uzh.ifi.accesscomplete.ktx.toObject
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import ch.uzh.ifi.accesscomplete.util.KryoSerializer
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmRelationMember
+import de.westnordost.osmapi.map.data.OsmWay
+import de.westnordost.osmapi.map.data.RelationMember
 import javax.inject.Singleton
 
+/** The database runs in write-ahead-logging mode: While one thread writes (e.g. a download
+ *  persists its result in one long transaction), queries from other threads are executed on one of
+ *  the read-only connections of the connection pool and see the last committed state instead of
+ *  waiting for the transaction to finish. Queries within a transaction use the connection of that
+ *  transaction, as before. */
 @Singleton class StreetCompleteSQLiteOpenHelper(context: Context, dbName: String) :
     SQLiteOpenHelper(context, dbName, null, DB_VERSION) {
 
+    init {
+        setWriteAheadLoggingEnabled(true)
+    }
+
     override fun onCreate(db: SQLiteDatabase) {
         db.execSQL(ElementGeometryTable.CREATE)
+        db.execSQL(ElementGeometryTable.CREATE_TILE_INDEX)
+        db.execSQL(QuestTypeTable.CREATE)
         db.execSQL(OsmQuestTable.CREATE)
+        for (sql in OsmQuestTable.CREATE_INDICES) db.execSQL(sql)
 
         db.execSQL(UndoOsmQuestTable.CREATE)
 
         db.execSQL(NodeTable.CREATE)
         db.execSQL(WayTable.CREATE)
         db.execSQL(RelationTable.CREATE)
+        db.execSQL(TagDictionaryTable.CREATE)
 
         db.execSQL(NoteTable.CREATE)
         db.execSQL(OsmNoteQuestTable.CREATE)
@@ -69,6 +113,7 @@ import javax.inject.Singleton
         db.execSQL(NewUserAchievementsTable.CREATE)
 
         db.execSQL(DownloadedTilesTable.CREATE)
+        db.execSQL(TileDensityTable.CREATE)
 
         db.execSQL(OsmQuestTable.CREATE_VIEW)
         db.execSQL(UndoOsmQuestTable.MERGED_VIEW_CREATE)
@@ -79,12 +124,196 @@ import javax.inject.Singleton
         db.execSQL(QuestVisibilityTable.CREATE)
 
         db.execSQL(OsmQuestSplitWayTable.CREATE)
+
+        createUnreferencedCandidates(db)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         // for later changes to the DB
         // ...
+        if (oldVersion < 19 && newVersion >= 19) {
+            db.execSQL(TileDensityTable.CREATE)
+        }
+        if (oldVersion < 20 && newVersion >= 20) {
+            db.execSQL(ElementGeometryTable.ADD_TILE_COLUMN)
+            db.transaction {
+                val positions = query(
+                    ElementGeometryTable.NAME,
+                    arrayOf(ElementGeometryTable.Columns.ELEMENT_TYPE, ElementGeometryTable.Columns.ELEMENT_ID, ElementGeometryTable.Columns.LATITUDE, ElementGeometryTable.Columns.LONGITUDE)
+                ) { Triple(it.getString(0), it.getLong(1), OsmLatLon(it.getDouble(2), it.getDouble(3))) }
+                for ((type, id, position) in positions) {
+                    update(
+                        ElementGeometryTable.NAME,
+                        contentValuesOf(ElementGeometryTable.Columns.TILE to position.toGeometryTileKey()),
+                        "${ElementGeometryTable.Columns.ELEMENT_TYPE} = ? AND ${ElementGeometryTable.Columns.ELEMENT_ID} = ?",
+                        arrayOf(type, id.toString())
+                    )
+                }
+            }
+            db.execSQL(ElementGeometryTable.CREATE_TILE_INDEX)
+        }
+        if (oldVersion < 21 && newVersion >= 21) {
+            createUnreferencedCandidates(db)
+            // anything may be unreferenced already, the next clean up will find out
+            for (sql in UnreferencedCandidatesTable.ADD_ALL_EXISTING) db.execSQL(sql)
+        }
+        if (oldVersion < 22 && newVersion >= 22) {
+            db.transaction { migrateOsmQuestsToIntegerColumns(this) }
+        }
+        if (oldVersion < 23 && newVersion >= 23) {
+            db.transaction { migrateGeometriesToCompactFormat(this) }
+        }
+        if (oldVersion < 24 && newVersion >= 24) {
+            db.transaction { migrateElementsToCompactFormat(this) }
+        }
+    }
+
+    /** tags, way node ids and relation members are stored in the format of the ElementCodec instead
+     *  of Kryo-serialized collections since version 24 */
+    private fun migrateElementsToCompactFormat(db: SQLiteDatabase) {
+        db.execSQL(TagDictionaryTable.CREATE)
+        val serializer = KryoSerializer()
+        val codec = ElementCodec(TagDictionary { db })
+        fun Cursor.getTags(column: String) =
+            getBlobOrNull(getColumnIndexOrThrow(column))?.let { serializer.toObject<HashMap<String, String>>(it) }
+
+        reencodeElements(db, NodeTable.NAME, NodeMapping(codec)) {
+            OsmNode(
+                it.getLong(NodeTable.Columns.ID),
+                it.getInt(NodeTable.Columns.VERSION),
+                OsmLatLon(it.getDouble(NodeTable.Columns.LATITUDE), it.getDouble(NodeTable.Columns.LONGITUDE)),
+                it.getTags(NodeTable.Columns.TAGS)
+            )
+        }
+        reencodeElements(db, WayTable.NAME, WayMapping(codec)) {
+            OsmWay(
+                it.getLong(WayTable.Columns.ID),
+                it.getInt(WayTable.Columns.VERSION),
+                serializer.toObject<ArrayList<Long>>(it.getBlob(WayTable.Columns.NODE_IDS)),
+                it.getTags(WayTable.Columns.TAGS)
+            )
+        }
+        reencodeElements(db, RelationTable.NAME, RelationMapping(codec)) {
+            OsmRelation(
+                it.getLong(RelationTable.Columns.ID),
+                it.getInt(RelationTable.Columns.VERSION),
+                serializer.toObject<ArrayList<OsmRelationMember>>(it.getBlob(RelationTable.Columns.MEMBERS)) as List<RelationMember>,
+                it.getTags(RelationTable.Columns.TAGS)
+            )
+        }
+    }
+
+    private fun <T : Element> reencodeElements(
+        db: SQLiteDatabase,
+        table: String,
+        mapping: ElementMapping<T>,
+        readOldFormat: (Cursor) -> T
+    ) {
+        var lastRowId = 0L
+        // in batches, to not hold all elements in memory at once
+        while (true) {
+            val rows = db.query(table, arrayOf("rowid", "*"), "rowid > ?", arrayOf(lastRowId.toString()),
+                null, null, "rowid", "1000"
+            ).use { cursor ->
+                val result = ArrayList<Pair<Long, T>>(cursor.count)
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getLong(0) to readOldFormat(cursor))
+                }
+                result
+            }
+            if (rows.isEmpty()) break
+
+            mapping.codec.putDictionaryEntries(rows.map { it.second })
+            for ((rowId, element) in rows) {
+                db.update(table, mapping.toContentValues(element), "rowid = $rowId", null)
+            }
+            lastRowId = rows.last().first
+        }
+    }
+
+    /** polylines and polygons of the element geometries are stored in the format of the
+     *  ElementGeometryCodec instead of Kryo-serialized lists since version 23 */
+    private fun migrateGeometriesToCompactFormat(db: SQLiteDatabase) {
+        val serializer = KryoSerializer()
+        val polylinesColumn = ElementGeometryTable.Columns.GEOMETRY_POLYLINES
+        val polygonsColumn = ElementGeometryTable.Columns.GEOMETRY_POLYGONS
+        var lastRowId = 0L
+        // in batches, to not hold all geometries in memory at once
+        while (true) {
+            val rows = db.query(
+                ElementGeometryTable.NAME,
+                arrayOf("rowid", polylinesColumn, polygonsColumn),
+                "rowid > ? AND ($polylinesColumn IS NOT NULL OR $polygonsColumn IS NOT NULL)",
+                arrayOf(lastRowId.toString()),
+                null, null, "rowid", "1000"
+            ).use { cursor ->
+                val result = ArrayList<Triple<Long, ByteArray?, ByteArray?>>(cursor.count)
+                while (cursor.moveToNext()) {
+                    result.add(Triple(cursor.getLong(0), cursor.getBlobOrNull(1), cursor.getBlobOrNull(2)))
+                }
+                result
+            }
+            if (rows.isEmpty()) break
+
+            for ((rowId, polylines, polygons) in rows) {
+                db.update(
+                    ElementGeometryTable.NAME,
+                    contentValuesOf(
+                        polylinesColumn to polylines?.let { ElementGeometryCodec.encode(serializer.toObject<ArrayList<ArrayList<OsmLatLon>>>(it)) },
+                        polygonsColumn to polygons?.let { ElementGeometryCodec.encode(serializer.toObject<ArrayList<ArrayList<OsmLatLon>>>(it)) }
+                    ),
+                    "rowid = $rowId",
+                    null
+                )
+            }
+            lastRowId = rows.last().first
+        }
+    }
+
+    /** quest type and quest status of the osm quests are stored as integers since version 22 */
+    private fun migrateOsmQuestsToIntegerColumns(db: SQLiteDatabase) {
+        val oldName = OsmQuestTable.NAME + "_old"
+        val questType = OsmQuestTable.Columns.QUEST_TYPE
+        val questStatus = OsmQuestTable.Columns.QUEST_STATUS
+        val otherColumns = listOf(
+            OsmQuestTable.Columns.QUEST_ID,
+            OsmQuestTable.Columns.TAG_CHANGES,
+            OsmQuestTable.Columns.CHANGES_SOURCE,
+            OsmQuestTable.Columns.LAST_UPDATE,
+            OsmQuestTable.Columns.ELEMENT_ID,
+            OsmQuestTable.Columns.ELEMENT_TYPE
+        ).joinToString(", ")
+        val statusCodes = QuestStatus.values().joinToString(" ") { "WHEN '${it.name}' THEN ${it.code}" }
+
+        db.execSQL(QuestTypeTable.CREATE)
+        db.execSQL("""
+            INSERT INTO ${QuestTypeTable.NAME} (${QuestTypeTable.Columns.QUEST_TYPE})
+            SELECT DISTINCT $questType FROM ${OsmQuestTable.NAME};""")
+
+        db.execSQL(OsmQuestTable.DROP_VIEW)
+        db.execSQL("ALTER TABLE ${OsmQuestTable.NAME} RENAME TO $oldName;")
+        db.execSQL(OsmQuestTable.CREATE)
+        db.execSQL("""
+            INSERT INTO ${OsmQuestTable.NAME} ($questType, $questStatus, $otherColumns)
+            SELECT
+              (SELECT ${QuestTypeTable.Columns.QUEST_TYPE_ID} FROM ${QuestTypeTable.NAME} t WHERE t.${QuestTypeTable.Columns.QUEST_TYPE} = q.$questType),
+              CASE $questStatus $statusCodes END,
+              $otherColumns
+            FROM $oldName q;""")
+        db.execSQL("DROP TABLE $oldName;")
+
+        db.execSQL(OsmQuestTable.CREATE_VIEW)
+        for (sql in OsmQuestTable.CREATE_INDICES) db.execSQL(sql)
+        // indices and triggers on the old table were dropped with it
+        for (sql in UnreferencedCandidatesTable.CREATE_REFERENCE_INDICES) db.execSQL(sql)
+        for (sql in UnreferencedCandidatesTable.CREATE_TRIGGERS) db.execSQL(sql)
+    }
+
+    private fun createUnreferencedCandidates(db: SQLiteDatabase) {
+        db.execSQL(UnreferencedCandidatesTable.CREATE)
+        for (sql in UnreferencedCandidatesTable.CREATE_REFERENCE_INDICES) db.execSQL(sql)
+        for (sql in UnreferencedCandidatesTable.CREATE_TRIGGERS) db.execSQL(sql)
     }
 }
 
-private const val DB_VERSION = 18
+private const val DB_VERSION = 24
@@ -0,0 +1,155 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data
+
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.NodeTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationTable
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.WayTable
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.undo.UndoOsmQuestTable
+import ch.uzh.ifi.accesscomplete.data.osm.splitway.OsmQuestSplitWayTable
+import ch.uzh.ifi.accesscomplete.data.osmnotes.NoteTable
+import ch.uzh.ifi.accesscomplete.data.osmnotes.notequests.OsmNoteQuestTable
+
+/** Rows of the element, geometry and note tables that may have become unreferenced, i.e. that were
+ *  newly inserted or whose referencing quest (or split way) has been deleted. The entries are
+ *  maintained by triggers so that the deleteUnreferenced functions of the DAOs only need to look at
+ *  these candidates instead of scanning through the whole tables. */
+object UnreferencedCandidatesTable {
+    const val NAME = "unreferenced_candidates"
+
+    object Columns {
+        const val TARGET = "target"
+        const val ELEMENT_TYPE = "element_type"
+        const val ELEMENT_ID = "element_id"
+    }
+
+    /** Which kind of row a candidate refers to */
+    object Targets {
+        const val GEOMETRY = "geometry"
+        const val ELEMENT = "element"
+        const val NOTE = "note"
+    }
+
+    /** element type used for candidates of the [Targets.NOTE] target */
+    const val NOTE_TYPE = "NOTE"
+
+    const val CREATE = """
+        CREATE TABLE $NAME (
+            ${Columns.TARGET} varchar(255) NOT NULL,
+            ${Columns.ELEMENT_TYPE} varchar(255) NOT NULL,
+            ${Columns.ELEMENT_ID} int NOT NULL,
+            CONSTRAINT primary_key PRIMARY KEY (
+                ${Columns.TARGET},
+                ${Columns.ELEMENT_TYPE},
+                ${Columns.ELEMENT_ID}
+            )
+        );"""
+
+    /** Indices on the referencing tables, so that checking whether a candidate is still referenced
+     *  is a lookup rather than a scan */
+    val CREATE_REFERENCE_INDICES = listOf(
+        "CREATE INDEX IF NOT EXISTS osm_quests_element_index ON ${OsmQuestTable.NAME} (${OsmQuestTable.Columns.ELEMENT_ID}, ${OsmQuestTable.Columns.ELEMENT_TYPE});",
+        "CREATE INDEX IF NOT EXISTS osm_quests_undo_element_index ON ${UndoOsmQuestTable.NAME} (${UndoOsmQuestTable.Columns.ELEMENT_ID}, ${UndoOsmQuestTable.Columns.ELEMENT_TYPE});",
+        "CREATE INDEX IF NOT EXISTS osm_split_ways_way_index ON ${OsmQuestSplitWayTable.NAME} (${OsmQuestSplitWayTable.Columns.WAY_ID});"
+    )
+
+    val CREATE_TRIGGERS = listOf(
+        // newly inserted rows may not be referenced by anything
+        createTrigger("elements_geometry_inserted", "INSERT", ElementGeometryTable.NAME,
+            Targets.GEOMETRY, "NEW.${ElementGeometryTable.Columns.ELEMENT_TYPE}", "NEW.${ElementGeometryTable.Columns.ELEMENT_ID}"),
+        createTrigger("osm_nodes_inserted", "INSERT", NodeTable.NAME,
+            Targets.ELEMENT, "'NODE'", "NEW.${NodeTable.Columns.ID}"),
+        createTrigger("osm_ways_inserted", "INSERT", WayTable.NAME,
+            Targets.ELEMENT, "'WAY'", "NEW.${WayTable.Columns.ID}"),
+        createTrigger("osm_relations_inserted", "INSERT", RelationTable.NAME,
+            Targets.ELEMENT, "'RELATION'", "NEW.${RelationTable.Columns.ID}"),
+        createTrigger("osm_notes_inserted", "INSERT", NoteTable.NAME,
+            Targets.NOTE, "'$NOTE_TYPE'", "NEW.${NoteTable.Columns.ID}"),
+        // rows whose reference has been removed may not be referenced by anything anymore
+        createTrigger("osm_quests_deleted", "DELETE", OsmQuestTable.NAME,
+            Targets.GEOMETRY, "OLD.${OsmQuestTable.Columns.ELEMENT_TYPE}", "OLD.${OsmQuestTable.Columns.ELEMENT_ID}",
+            Targets.ELEMENT),
+        createTrigger("osm_quests_undo_deleted", "DELETE", UndoOsmQuestTable.NAME,
+            Targets.GEOMETRY, "OLD.${UndoOsmQuestTable.Columns.ELEMENT_TYPE}", "OLD.${UndoOsmQuestTable.Columns.ELEMENT_ID}",
+            Targets.ELEMENT),
+        createTrigger("osm_split_ways_deleted", "DELETE", OsmQuestSplitWayTable.NAME,
+            Targets.ELEMENT, "'WAY'", "OLD.${OsmQuestSplitWayTable.Columns.WAY_ID}"),
+        createTrigger("osm_notequests_deleted", "DELETE", OsmNoteQuestTable.NAME,
+            Targets.NOTE, "'$NOTE_TYPE'", "OLD.${OsmNoteQuestTable.Columns.NOTE_ID}")
+    )
+
+    /** Mark all rows that exist at this point as candidates. Used when introducing this table on
+     *  an existing database */
+    val ADD_ALL_EXISTING = listOf(
+        addAllExisting(Targets.GEOMETRY, ElementGeometryTable.Columns.ELEMENT_TYPE, ElementGeometryTable.Columns.ELEMENT_ID, ElementGeometryTable.NAME),
+        addAllExisting(Targets.ELEMENT, "'NODE'", NodeTable.Columns.ID, NodeTable.NAME),
+        addAllExisting(Targets.ELEMENT, "'WAY'", WayTable.Columns.ID, WayTable.NAME),
+        addAllExisting(Targets.ELEMENT, "'RELATION'", RelationTable.Columns.ID, RelationTable.NAME),
+        addAllExisting(Targets.NOTE, "'$NOTE_TYPE'", NoteTable.Columns.ID, NoteTable.NAME)
+    )
+
+    /** Condition that is true for the candidates of the given [target] (and element type) that are
+     *  referenced by none of the given [references] anymore. The candidate row must be aliased
+     *  as "c", see [isReferencedBy] */
+    fun isUnreferencedCandidate(target: String, elementType: String?, references: List<String>): String {
+        val conditions = mutableListOf("c.${Columns.TARGET} = '$target'")
+        if (elementType != null) conditions.add("c.${Columns.ELEMENT_TYPE} = '$elementType'")
+        conditions.addAll(references.map { "NOT $it" })
+        return conditions.joinToString(" AND ")
+    }
+
+    /** Condition that is true if the candidate "c" is referenced from the given [table] */
+    fun isReferencedBy(table: String, idColumn: String, typeColumn: String? = null): String {
+        val typeCondition = if (typeColumn != null) " AND r.$typeColumn = c.${Columns.ELEMENT_TYPE}" else ""
+        return "EXISTS (SELECT 1 FROM $table r WHERE r.$idColumn = c.${Columns.ELEMENT_ID}$typeCondition)"
+    }
+
+    /** Selection of all candidates of the given [target] (and element type), to remove them after
+     *  they have been processed */
+    fun whereCandidatesOf(target: String, elementType: String? = null): String =
+        "${Columns.TARGET} = '$target'" +
+        if (elementType != null) " AND ${Columns.ELEMENT_TYPE} = '$elementType'" else ""
+
+    private fun createTrigger(
+        name: String,
+        event: String,
+        table: String,
+        target: String,
+        elementType: String,
+        elementId: String,
+        vararg moreTargets: String
+    ) = """
+        CREATE TRIGGER IF NOT EXISTS $name AFTER $event ON $table
+        BEGIN
+            ${(listOf(target) + moreTargets).joinToString("\n") { insertCandidate(it, elementType, elementId) }}
+        END;"""
+
+    private fun insertCandidate(target: String, elementType: String, elementId: String) = """
+        INSERT OR IGNORE INTO $NAME (${Columns.TARGET}, ${Columns.ELEMENT_TYPE}, ${Columns.ELEMENT_ID})
+        VALUES ('$target', $elementType, $elementId);"""
+
+    private fun addAllExisting(target: String, elementType: String, elementId: String, table: String) = """
+        INSERT OR IGNORE INTO $NAME (${Columns.TARGET}, ${Columns.ELEMENT_TYPE}, ${Columns.ELEMENT_ID})
+        SELECT '$target', $elementType, $elementId FROM $table;"""
+}
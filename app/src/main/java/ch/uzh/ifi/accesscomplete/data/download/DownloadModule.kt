@@ -22,12 +22,55 @@
 
 package ch.uzh.ifi.accesscomplete.data.download
 
+import ch.uzh.ifi.accesscomplete.ApplicationConstants
+import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityDao
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.DensityAdaptiveDownloadPlanner
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.MapDataSource
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.OverpassMapDataSource
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ParallelMapDataDownloader
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.CachingMapDataWithGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.RelationGeometriesCreator
+import ch.uzh.ifi.osmapi.map.LightweightOsmMapDataFactory
+import ch.uzh.ifi.osmapi.map.PackedMapData
 import dagger.Module
 import dagger.Provides
+import de.westnordost.osmapi.OsmConnection
+import javax.inject.Named
 
 @Module
 object DownloadModule {
     @Provides
     fun downloadProgressSource(downloadController: QuestDownloadController): DownloadProgressSource =
         downloadController
+
+    /** The map data of a quest download. It is backed by a PackedMapData because the data of a
+     *  whole area would otherwise take up a lot of memory. Use a MutableMapData here instead to
+     *  keep every element as an object */
+    @Provides
+    fun mapDataWithGeometry(elementGeometryCreator: ElementGeometryCreator): CachingMapDataWithGeometry =
+        CachingMapDataWithGeometry(elementGeometryCreator, PackedMapData())
+
+    /** The map data of an area is requested in tiles of a size that depends on how much data there
+     *  was in the area the last time, a few at a time. Use a TileGridDownloadPlanner here instead
+     *  to always request tiles of the same size */
+    @Provides
+    fun parallelMapDataDownloader(mapDataApi: MapDataApi, tileDensityDao: TileDensityDao): ParallelMapDataDownloader =
+        ParallelMapDataDownloader(mapDataApi, DensityAdaptiveDownloadPlanner(tileDensityDao, ApplicationConstants.QUEST_TILE_ZOOM), 4)
+
+    /** Only the elements relevant for the quests are queried from the Overpass API if possible,
+     *  otherwise all map data is downloaded from the OSM API. Use the ParallelMapDataDownloader
+     *  here instead to always download all map data from the OSM API */
+    @Provides
+    fun mapDataSource(
+        @Named("Overpass") overpass: OsmConnection,
+        parallelMapDataDownloader: ParallelMapDataDownloader
+    ): MapDataSource =
+        OverpassMapDataSource(overpass, LightweightOsmMapDataFactory(), parallelMapDataDownloader)
+
+    /** Incomplete relations are downloaded completely a few at a time */
+    @Provides
+    fun relationGeometriesCreator(mapDataApi: MapDataApi, elementGeometryCreator: ElementGeometryCreator): RelationGeometriesCreator =
+        RelationGeometriesCreator(mapDataApi, elementGeometryCreator, 4)
 }
@@ -0,0 +1,82 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.download.tiles
+
+import android.database.sqlite.SQLiteOpenHelper
+import androidx.core.content.contentValuesOf
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.Columns.DATE
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.Columns.NODE_COUNT
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.Columns.WAY_COUNT
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.Columns.X
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.Columns.Y
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityTable.NAME
+import ch.uzh.ifi.accesscomplete.ktx.query
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.TilesRect
+import javax.inject.Inject
+
+/** Keeps info how much map data there was in each tile of a tile grid when it was last downloaded */
+class TileDensityDao @Inject constructor(private val dbHelper: SQLiteOpenHelper) {
+
+    private val db get() = dbHelper.writableDatabase
+
+    /** Persist the amount of map data found in each of the given tiles */
+    fun putAll(densities: Map<Tile, TileDensity>) {
+        val time = System.currentTimeMillis()
+        db.transaction {
+            for ((tile, density) in densities) {
+                val values = contentValuesOf(
+                    X to tile.x,
+                    Y to tile.y,
+                    NODE_COUNT to density.nodeCount,
+                    WAY_COUNT to density.wayCount,
+                    DATE to time
+                )
+                db.replaceOrThrow(NAME, null, values)
+            }
+        }
+    }
+
+    /** @return the amount of map data of each tile in the given tile range of which it is known */
+    fun getAll(tilesRect: TilesRect): Map<Tile, TileDensity> {
+        return db.query(NAME,
+            columns = arrayOf(X, Y, NODE_COUNT, WAY_COUNT),
+            selection = "$X BETWEEN ? AND ? AND $Y BETWEEN ? AND ?",
+            selectionArgs = arrayOf(
+                tilesRect.left.toString(),
+                tilesRect.right.toString(),
+                tilesRect.top.toString(),
+                tilesRect.bottom.toString()
+            )
+        ) { Tile(it.getInt(0), it.getInt(1)) to TileDensity(it.getInt(2), it.getInt(3)) }.toMap()
+    }
+
+    fun removeAll() {
+        db.execSQL("DELETE FROM $NAME")
+    }
+}
+
+data class TileDensity(val nodeCount: Int, val wayCount: Int) {
+    val elementCount: Int get() = nodeCount + wayCount
+}
@@ -0,0 +1,174 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.elementfilter
+
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CombineFilters
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareDateTagValue
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareElementAge
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareTagAge
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareTagValue
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.ElementFilter
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasKey
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasTag
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasTagValueLike
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.NotHasKey
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.NotHasTag
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.NotHasTagValueLike
+import de.westnordost.osmapi.map.data.Element
+
+/** Compiles this expression tree into a matcher that matches exactly the same elements but is
+ *  faster to evaluate:
+ *
+ *  - nested chains of the same operator are flattened into one array
+ *  - regexes that are just an alternation of literal values, like "footway|path", are replaced by
+ *    a lookup in a hash set
+ *  - the children of a chain are ordered by their estimated cost, so that i.e. whether a tag
+ *    exists is checked before regexes and dates are. Since no filter has side effects, this does
+ *    not change the result
+ *  - tag filters do not look up the tags of the element again and again
+ *  */
+internal fun BooleanExpression<ElementFilter, Element>.compile(): CompiledMatcher = when (this) {
+    is Leaf -> value.compile()
+    is AllOf -> compileAllOf(flattenedChildren().map { it.compile() })
+    is AnyOf -> compileAnyOf(flattenedChildren().map { it.compile() })
+    else -> ExpressionMatcher(this)
+}
+
+private fun Chain<ElementFilter, Element>.flattenedChildren(): List<BooleanExpression<ElementFilter, Element>> =
+    children.flatMap { child ->
+        if (child is Chain && child::class == this::class) child.flattenedChildren() else listOf(child)
+    }
+
+private fun ElementFilter.compile(): CompiledMatcher = when (this) {
+    is HasTag -> HasTagMatcher(key, value)
+    is NotHasTag -> NotHasTagMatcher(key, value)
+    is HasKey -> HasKeyMatcher(key)
+    is NotHasKey -> NotHasKeyMatcher(key)
+    is HasTagValueLike -> value.pattern.toAlternativeValues()?.let { TagValueInMatcher(key, it) }
+        ?: FilterMatcher(this, REGEX_COST)
+    is NotHasTagValueLike -> value.pattern.toAlternativeValues()?.let { TagValueNotInMatcher(key, it) }
+        ?: FilterMatcher(this, REGEX_COST)
+    is CombineFilters -> compileAllOf(filters.map { it.compile() })
+    is CompareTagValue -> FilterMatcher(this, NUMBER_COST)
+    is CompareDateTagValue, is CompareTagAge, is CompareElementAge -> FilterMatcher(this, DATE_COST)
+    else -> FilterMatcher(this, REGEX_COST)
+}
+
+private fun compileAllOf(matchers: List<CompiledMatcher>): CompiledMatcher =
+    matchers.singleOrNull() ?: AllOfMatcher(matchers.sortedBy { it.cost }.toTypedArray())
+
+private fun compileAnyOf(matchers: List<CompiledMatcher>): CompiledMatcher =
+    matchers.singleOrNull() ?: AnyOfMatcher(matchers.sortedBy { it.cost }.toTypedArray())
+
+/** Returns the alternative values if this regex pattern is only an alternation of literal values,
+ *  i.e. "a|b|c", otherwise null */
+private fun String.toAlternativeValues(): Set<String>? =
+    if (LITERAL_ALTERNATION.matches(this)) split('|').toHashSet() else null
+
+private val LITERAL_ALTERNATION = Regex("[\\w:\\- ]+(\\|[\\w:\\- ]+)*")
+
+// estimated cost of evaluating the filters, checks for tags that are likely not there come first
+private const val TAG_COST = 1
+private const val KEY_COST = 2
+private const val VALUE_IN_COST = 3
+private const val NEGATED_TAG_COST = 4
+private const val NUMBER_COST = 10
+private const val REGEX_COST = 20
+private const val DATE_COST = 50
+private const val UNKNOWN_COST = 100
+
+/** Matcher produced by [compile]. The tags of the element are passed separately so that they
+ *  are looked up only once */
+internal abstract class CompiledMatcher {
+    abstract val cost: Int
+    abstract fun matches(element: Element, tags: Map<String, String>?): Boolean
+
+    fun matches(element: Element): Boolean = matches(element, element.tags)
+}
+
+// the tag matchers behave exactly like the filters they replace, also for elements without tags
+
+private class HasTagMatcher(private val key: String, private val value: String) : CompiledMatcher() {
+    override val cost get() = TAG_COST
+    override fun matches(element: Element, tags: Map<String, String>?) = tags?.get(key) == value
+}
+
+private class NotHasTagMatcher(private val key: String, private val value: String) : CompiledMatcher() {
+    override val cost get() = NEGATED_TAG_COST
+    override fun matches(element: Element, tags: Map<String, String>?) = tags?.get(key) != value
+}
+
+private class HasKeyMatcher(private val key: String) : CompiledMatcher() {
+    override val cost get() = KEY_COST
+    override fun matches(element: Element, tags: Map<String, String>?) = tags?.containsKey(key) ?: false
+}
+
+private class NotHasKeyMatcher(private val key: String) : CompiledMatcher() {
+    override val cost get() = NEGATED_TAG_COST
+    override fun matches(element: Element, tags: Map<String, String>?) = !(tags?.containsKey(key) ?: true)
+}
+
+private class TagValueInMatcher(private val key: String, private val values: Set<String>) : CompiledMatcher() {
+    override val cost get() = VALUE_IN_COST
+    override fun matches(element: Element, tags: Map<String, String>?): Boolean {
+        val value = tags?.get(key) ?: return false
+        return values.contains(value)
+    }
+}
+
+private class TagValueNotInMatcher(private val key: String, private val values: Set<String>) : CompiledMatcher() {
+    override val cost get() = NEGATED_TAG_COST
+    override fun matches(element: Element, tags: Map<String, String>?): Boolean {
+        val value = tags?.get(key) ?: return true
+        return !values.contains(value)
+    }
+}
+
+private class FilterMatcher(private val filter: ElementFilter, override val cost: Int) : CompiledMatcher() {
+    override fun matches(element: Element, tags: Map<String, String>?) = filter.matches(element)
+}
+
+private class ExpressionMatcher(private val expression: BooleanExpression<ElementFilter, Element>) : CompiledMatcher() {
+    override val cost get() = UNKNOWN_COST
+    override fun matches(element: Element, tags: Map<String, String>?) = expression.matches(element)
+}
+
+private class AllOfMatcher(private val matchers: Array<CompiledMatcher>) : CompiledMatcher() {
+    override val cost = matchers.sumBy { it.cost }
+    override fun matches(element: Element, tags: Map<String, String>?): Boolean {
+        for (matcher in matchers) {
+            if (!matcher.matches(element, tags)) return false
+        }
+        return true
+    }
+}
+
+private class AnyOfMatcher(private val matchers: Array<CompiledMatcher>) : CompiledMatcher() {
+    override val cost = matchers.sumBy { it.cost }
+    override fun matches(element: Element, tags: Map<String, String>?): Boolean {
+        for (matcher in matchers) {
+            if (matcher.matches(element, tags)) return true
+        }
+        return false
+    }
+}
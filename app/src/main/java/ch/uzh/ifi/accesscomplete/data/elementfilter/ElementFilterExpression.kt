@@ -22,11 +22,21 @@
 
 package ch.uzh.ifi.accesscomplete.data.elementfilter
 
+import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
 import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
 import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementsTypeFilter.NODES
 import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementsTypeFilter.WAYS
 import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementsTypeFilter.RELATIONS
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CombineFilters
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareDateTagValue
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.CompareTagValue
 import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.ElementFilter
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasKey
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasTag
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.HasTagValueLike
 import java.util.*
 
 /** Represents a parse result of a string in filter syntax, i.e.
@@ -35,9 +45,13 @@ class ElementFilterExpression(
     private val elementsTypes: EnumSet<ElementsTypeFilter>,
     private val elementExprRoot: BooleanExpression<ElementFilter, Element>?
 ) {
+    /* the expression tree is kept as parsed for the conversion to Overpass QL but for matching,
+     * it is compiled into an equivalent but faster form */
+    private val compiledExprRoot = elementExprRoot?.compile()
+
     /** returns whether the given element is found through (=matches) this expression */
     fun matches(element: Element): Boolean =
-        includesElementType(element.type) && (elementExprRoot?.matches(element) ?: true)
+        includesElementType(element.type) && (compiledExprRoot?.matches(element) ?: true)
 
     fun includesElementType(elementType: Element.Type): Boolean = when (elementType) {
         Element.Type.NODE -> elementsTypes.contains(NODES)
@@ -48,6 +62,93 @@ class ElementFilterExpression(
 
     /** returns this expression as a Overpass query string */
     fun toOverpassQLString(): String = OverpassQueryCreator(elementsTypes, elementExprRoot).create()
+
+    /** the keys an element must have (all of them) to possibly match this expression, in the
+     *  order in which they appear in the expression */
+    val requiredKeys: Set<String> by lazy { elementExprRoot?.getRequiredKeys() ?: emptySet() }
+
+    /** the tags an element must have (all of them) to possibly match this expression */
+    val requiredTags: Map<String, String> by lazy { elementExprRoot?.getRequiredTags() ?: emptyMap() }
+
+    /** returns the nodes in the given [mapData] that match this expression */
+    fun getMatchingNodes(mapData: MapDataWithGeometry): List<Node> =
+        getMatching(mapData, Element.Type.NODE, mapData.nodes)
+
+    /** returns the ways in the given [mapData] that match this expression */
+    fun getMatchingWays(mapData: MapDataWithGeometry): List<Way> =
+        getMatching(mapData, Element.Type.WAY, mapData.ways)
+
+    /** returns the relations in the given [mapData] that match this expression */
+    fun getMatchingRelations(mapData: MapDataWithGeometry): List<Relation> =
+        getMatching(mapData, Element.Type.RELATION, mapData.relations)
+
+    /** returns the elements in the given [mapData] that match this expression */
+    fun getMatchingElements(mapData: MapDataWithGeometry): List<Element> =
+        getMatchingNodes(mapData) + getMatchingWays(mapData) + getMatchingRelations(mapData)
+
+    /* If the map data has a tag index, only those elements need to be checked that have the
+     * required tag or key with the fewest elements */
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Element> getMatching(
+        mapData: MapDataWithGeometry,
+        elementType: Element.Type,
+        elements: Collection<T>
+    ): List<T> {
+        if (!includesElementType(elementType)) return emptyList()
+        val index = mapData.tagIndex ?: return elements.filter { matches(it) }
+        var candidates: Collection<Element> = elements
+        for ((key, value) in requiredTags) {
+            val elementsWithTag = index.getElements(elementType, key, value)
+            if (elementsWithTag.size < candidates.size) candidates = elementsWithTag
+        }
+        for (key in requiredKeys) {
+            val elementsWithKey = index.getElements(elementType, key)
+            if (elementsWithKey.size < candidates.size) candidates = elementsWithKey
+        }
+        return (candidates as Collection<T>).filter { matches(it) }
+    }
+}
+
+private fun BooleanExpression<ElementFilter, Element>.getRequiredKeys(): Set<String> = when (this) {
+    is Leaf -> value.getRequiredKeys()
+    // an element must fulfill every child, so it must have the keys required by any of them...
+    is AllOf -> children.flatMapTo(LinkedHashSet()) { it.getRequiredKeys() }
+    // ...but it must fulfill just one child, so it must only have the keys required by all of them
+    is AnyOf -> {
+        val childrenRequiredKeys = children.map { it.getRequiredKeys() }
+        if (childrenRequiredKeys.isEmpty()) emptySet()
+        else childrenRequiredKeys.reduce { acc, keys -> acc.filterTo(LinkedHashSet()) { it in keys } }
+    }
+    else -> emptySet()
+}
+
+private fun BooleanExpression<ElementFilter, Element>.getRequiredTags(): Map<String, String> = when (this) {
+    is Leaf -> value.getRequiredTags()
+    is AllOf -> children.fold(LinkedHashMap<String, String>()) { acc, child -> acc.apply { putAll(child.getRequiredTags()) } }
+    is AnyOf -> {
+        val childrenRequiredTags = children.map { it.getRequiredTags() }
+        if (childrenRequiredTags.isEmpty()) emptyMap()
+        else childrenRequiredTags.reduce { acc, tags -> acc.filterTo(LinkedHashMap<String, String>()) { (k, v) -> tags[k] == v } }
+    }
+    else -> emptyMap()
+}
+
+/** the tags an element must have to match this filter */
+private fun ElementFilter.getRequiredTags(): Map<String, String> = when (this) {
+    is HasTag -> mapOf(key to value)
+    is CombineFilters -> filters.fold(LinkedHashMap<String, String>()) { acc, filter -> acc.apply { putAll(filter.getRequiredTags()) } }
+    else -> emptyMap()
+}
+
+/** the keys an element must have to match this filter */
+private fun ElementFilter.getRequiredKeys(): Set<String> = when (this) {
+    is HasKey -> setOf(key)
+    is HasTag -> setOf(key)
+    is HasTagValueLike -> setOf(key)
+    is CompareTagValue -> setOf(key)
+    is CompareDateTagValue -> setOf(key)
+    is CombineFilters -> filters.flatMapTo(LinkedHashSet()) { it.getRequiredKeys() }
+    else -> emptySet()
 }
 
 /** Enum that specifies which type(s) of elements to retrieve  */
@@ -22,9 +22,21 @@
 
 package ch.uzh.ifi.accesscomplete.data.elementfilter
 
+import de.westnordost.osmapi.map.data.BoundingBox
+import java.util.Locale
+
 private val QUOTES_NOT_REQUIRED = Regex("[a-zA-Z_][a-zA-Z0-9_]*|-?[0-9]+")
 
 fun String.quoteIfNecessary() =
     if (QUOTES_NOT_REQUIRED.matches(this)) this else quote()
 
 fun String.quote() = "'${this.replace("'", "\'")}'"
+
+/** the global bounding box setting for an overpass query, f.e. [bbox:47.1,8.2,47.3,8.4]; */
+fun BoundingBox.toGlobalOverpassBBox() = "[bbox:${toOverpassBboxFilter()}];"
+
+private fun BoundingBox.toOverpassBboxFilter() =
+    listOf(minLatitude, minLongitude, maxLatitude, maxLongitude).joinToString(",") {
+        // no scientific notation
+        String.format(Locale.US, "%.7f", it)
+    }
@@ -25,7 +25,6 @@ package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
 import de.westnordost.osmapi.map.data.Element
 import ch.uzh.ifi.accesscomplete.data.elementfilter.quote
 import ch.uzh.ifi.accesscomplete.data.elementfilter.quoteIfNecessary
-import ch.uzh.ifi.accesscomplete.data.meta.toCheckDate
 import ch.uzh.ifi.accesscomplete.data.meta.toCheckDateString
 import java.util.*
 
@@ -40,10 +39,11 @@ abstract class CompareDateTagValue(val key: String, val dateFilter: DateFilter):
     override fun toString() = toOverpassQLString()
 
     override fun matches(obj: Element?): Boolean {
-        val tagValue = obj?.tags?.get(key)?.toCheckDate() ?: return false
-        return compareTo(tagValue)
+        val tagValue = obj?.tags?.get(key)?.let { DateFilterContext.parseCheckDate(it) } ?: return false
+        return compareTo(tagValue, dateFilter.time)
     }
 
-    abstract fun compareTo(tagValue: Date): Boolean
+    /** whether the given [tagValue] compares to the [date], both in epoch milliseconds */
+    abstract fun compareTo(tagValue: Long, date: Long): Boolean
     abstract val operator: String
 }
@@ -36,9 +36,10 @@ abstract class CompareElementAge(private val dateFilter: DateFilter) : ElementFi
 
     override fun matches(obj: Element?): Boolean {
         val dateElementEdited = obj?.dateEdited ?: return false
-        return compareTo(dateElementEdited)
+        return compareTo(dateElementEdited.time, dateFilter.time)
     }
 
-    abstract fun compareTo(tagValue: Date): Boolean
+    /** whether the given [tagValue] compares to the [date], both in epoch milliseconds */
+    abstract fun compareTo(tagValue: Long, date: Long): Boolean
     abstract val operator: String
 }
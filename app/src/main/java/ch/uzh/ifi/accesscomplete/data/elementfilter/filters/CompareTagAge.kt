@@ -24,7 +24,6 @@ package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
 
 import de.westnordost.osmapi.map.data.Element
 import ch.uzh.ifi.accesscomplete.data.meta.getLastCheckDateKeys
-import ch.uzh.ifi.accesscomplete.data.meta.toCheckDate
 import ch.uzh.ifi.accesscomplete.data.meta.toCheckDateString
 import java.util.*
 
@@ -40,16 +39,24 @@ abstract class CompareTagAge(val key: String, val dateFilter: DateFilter) : Elem
 
     override fun toString() = toOverpassQLString()
 
+    private val lastCheckDateKeys = getLastCheckDateKeys(key).toList()
+
     override fun matches(obj: Element?): Boolean {
         val dateElementEdited = obj?.dateEdited ?: return false
+        val date = dateFilter.time
 
-        if (compareTo(dateElementEdited)) return true
+        if (compareTo(dateElementEdited.time, date)) return true
 
-        return getLastCheckDateKeys(key)
-            .mapNotNull { obj.tags[it]?.toCheckDate() }
-            .any { compareTo(it) }
+        val tags = obj.tags ?: return false
+        for (lastCheckDateKey in lastCheckDateKeys) {
+            val value = tags[lastCheckDateKey] ?: continue
+            val checkDate = DateFilterContext.parseCheckDate(value) ?: continue
+            if (compareTo(checkDate, date)) return true
+        }
+        return false
     }
 
-    abstract fun compareTo(tagValue: Date): Boolean
+    /** whether the given [tagValue] compares to the [date], both in epoch milliseconds */
+    abstract fun compareTo(tagValue: Long, date: Long): Boolean
     abstract val operator: String
 }
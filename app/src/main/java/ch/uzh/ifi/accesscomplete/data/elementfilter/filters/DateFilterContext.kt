@@ -0,0 +1,83 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
+
+import ch.uzh.ifi.accesscomplete.data.meta.toCheckDate
+import kotlinx.coroutines.asContextElement
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+
+/** Context in which date filters are evaluated.
+ *
+ *  Usually, "now" is the current time for each evaluation of a relative date. During
+ *  [frozen], i.e. while the data of a whole download is analyzed, "now" is fixed instead, so that
+ *  all elements are evaluated against the same dates, and the check dates parsed from tag values
+ *  are memoized, because the same few check dates occur on many elements.
+ *
+ *  The context is confined to the thread that froze it. Work that is handed over to other threads
+ *  must take it along, via [asContextElement] for coroutines or via [current] otherwise. */
+object DateFilterContext {
+
+    private val frozenContext = ThreadLocal<Frozen?>()
+
+    /** the current time in epoch milliseconds, or the time at which it was frozen */
+    val now: Long get() = frozenContext.get()?.now ?: System.currentTimeMillis()
+
+    /** the frozen context of the calling thread or null if it is not frozen */
+    val current: Frozen? get() = frozenContext.get()
+
+    /** Executes the given [block] with "now" frozen on the calling thread. Can be nested, "now" is
+     *  frozen until the outermost block is finished */
+    fun <T> frozen(block: () -> T): T =
+        frozen(frozenContext.get() ?: Frozen(System.currentTimeMillis()), block)
+
+    /** Executes the given [block] in the given frozen [context] on the calling thread, i.e. to
+     *  continue the [current] context of another thread */
+    fun <T> frozen(context: Frozen, block: () -> T): T {
+        val previous = frozenContext.get()
+        frozenContext.set(context)
+        try {
+            return block()
+        } finally {
+            frozenContext.set(previous)
+        }
+    }
+
+    /** Returns a coroutine context element that carries the context of the calling thread over to
+     *  whichever threads the coroutines run on */
+    fun asContextElement(): CoroutineContext.Element = frozenContext.asContextElement()
+
+    /** Returns the check date of the given tag value in epoch milliseconds or null if it is
+     *  not a check date */
+    fun parseCheckDate(value: String): Long? {
+        val checkDates = frozenContext.get()?.checkDatesByValue ?: return value.toCheckDate()?.time
+        val time = checkDates.getOrPut(value) { value.toCheckDate()?.time ?: NO_CHECK_DATE }
+        return if (time != NO_CHECK_DATE) time else null
+    }
+
+    private const val NO_CHECK_DATE = Long.MIN_VALUE
+
+    class Frozen internal constructor(internal val now: Long) {
+        internal val checkDatesByValue = ConcurrentHashMap<String, Long>()
+    }
+}
@@ -22,10 +22,8 @@
 
 package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
 
-import java.util.*
-
 /** newer 2002-11-11 / newer today - 1 year */
 class ElementNewerThan(dateFilter: DateFilter) : CompareElementAge(dateFilter) {
-    override fun compareTo(tagValue: Date) = tagValue > date
+    override fun compareTo(tagValue: Long, date: Long) = tagValue > date
     override val operator = ">"
 }
@@ -22,10 +22,8 @@
 
 package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
 
-import java.util.*
-
 /** key < date */
 class HasDateTagLessThan(key: String, dateFilter: DateFilter): CompareDateTagValue(key, dateFilter) {
     override val operator = "<"
-    override fun compareTo(tagValue: Date) = tagValue < date
+    override fun compareTo(tagValue: Long, date: Long) = tagValue < date
 }
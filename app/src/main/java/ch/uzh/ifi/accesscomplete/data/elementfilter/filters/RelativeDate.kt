@@ -26,15 +26,16 @@ import java.util.*
 
 interface DateFilter {
     val date: Date
+    /** [date] in epoch milliseconds */
+    val time: Long get() = date.time
 }
 
 /** A date relative to (start of) today (positive: future, negative: past) */
 class RelativeDate(val deltaDays: Float): DateFilter {
-    override val date: Date get() {
-        val cal: Calendar = Calendar.getInstance()
-        cal.add(Calendar.SECOND, (deltaDays * 24 * 60 * 60 * MULTIPLIER).toInt())
-        return cal.time
-    }
+    override val date: Date get() = Date(time)
+
+    override val time: Long get() =
+        DateFilterContext.now + (deltaDays * 24 * 60 * 60 * MULTIPLIER).toInt() * 1000L
 
     companion object {
         var MULTIPLIER: Float = 1f
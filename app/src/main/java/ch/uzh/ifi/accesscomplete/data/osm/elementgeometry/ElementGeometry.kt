@@ -35,14 +35,14 @@ sealed class ElementGeometry : Serializable {
     abstract fun getBounds(): BoundingBox
 }
 
-data class ElementPolylinesGeometry(val polylines: List<List<LatLon>>, override val center: LatLon) : ElementGeometry() {
-    @delegate:Transient private val bbox by lazy { polylines.flatten().enclosingBoundingBox() }
-    override fun getBounds(): BoundingBox = bbox
+data class ElementPolylinesGeometry(val polylines: PackedPolylines, override val center: LatLon) : ElementGeometry() {
+    constructor(polylines: List<List<LatLon>>, center: LatLon) : this(PackedPolylines.of(polylines), center)
+    override fun getBounds(): BoundingBox = polylines.getBounds()
 }
 
-data class ElementPolygonsGeometry(val polygons: List<List<LatLon>>, override val center: LatLon) : ElementGeometry() {
-    @delegate:Transient private val bbox by lazy { polygons.flatten().enclosingBoundingBox() }
-    override fun getBounds(): BoundingBox = bbox
+data class ElementPolygonsGeometry(val polygons: PackedPolylines, override val center: LatLon) : ElementGeometry() {
+    constructor(polygons: List<List<LatLon>>, center: LatLon) : this(PackedPolylines.of(polygons), center)
+    override fun getBounds(): BoundingBox = polygons.getBounds()
 }
 
 data class ElementPointGeometry(override val center: LatLon) : ElementGeometry() {
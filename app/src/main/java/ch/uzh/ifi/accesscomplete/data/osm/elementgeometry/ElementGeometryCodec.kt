@@ -0,0 +1,124 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.util.VarIntReader
+import ch.uzh.ifi.accesscomplete.util.VarIntWriter
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import kotlin.math.roundToInt
+
+/** Compact binary format for the polylines or polygons of an element geometry. A blob consists of
+ *
+ *  - the format version
+ *  - the bounding box: min latitude, min longitude, max latitude, max longitude. Like any bounding
+ *    box, it may cross the 180th meridian, i.e. the min longitude is then greater than the max
+ *    longitude
+ *  - the number of parts (polylines or rings), followed by the number of points of each part
+ *  - the points, each as the difference in latitude and longitude to the previous point. The
+ *    first point is relative to the minimum of the bounding box
+ *
+ *  Coordinates are stored as fixed-point numbers with 7 decimal places, which is the precision of
+ *  OSM data. All numbers are written as (zigzag-encoded) varints, so the small differences between
+ *  consecutive points usually only take one or two bytes each.
+ *
+ *  Decoding allocates one array for all the coordinates instead of one object per point, see
+ *  [PackedPolylines], and takes over the bounding box from the header. */
+object ElementGeometryCodec {
+    const val VERSION = 1
+
+    fun encode(parts: List<List<LatLon>>): ByteArray {
+        // geometries are usually packed already, so this does not need to look at all points again
+        val polylines = PackedPolylines.of(parts)
+        val pointCount = polylines.indices.sumBy { polylines.getPointCount(it) }
+        val bounds = if (pointCount > 0) polylines.getBounds() else null
+        val minLat = bounds?.minLatitude?.toFixed1E7() ?: 0
+        val minLon = bounds?.minLongitude?.toFixed1E7() ?: 0
+
+        val writer = VarIntWriter(8 + parts.size + 4 * pointCount)
+        writer.writeUnsigned(VERSION.toLong())
+        writer.writeSigned(minLat.toLong())
+        writer.writeSigned(minLon.toLong())
+        writer.writeSigned((bounds?.maxLatitude?.toFixed1E7() ?: 0).toLong())
+        writer.writeSigned((bounds?.maxLongitude?.toFixed1E7() ?: 0).toLong())
+        writer.writeUnsigned(polylines.size.toLong())
+        for (part in polylines.indices) {
+            writer.writeUnsigned(polylines.getPointCount(part).toLong())
+        }
+        var lastLat = minLat.toLong()
+        var lastLon = minLon.toLong()
+        for (part in polylines.indices) {
+            for (i in 0 until polylines.getPointCount(part)) {
+                val lat = polylines.getLatitude(part, i).toFixed1E7().toLong()
+                val lon = polylines.getLongitude(part, i).toFixed1E7().toLong()
+                writer.writeSigned(lat - lastLat)
+                writer.writeSigned(lon - lastLon)
+                lastLat = lat
+                lastLon = lon
+            }
+        }
+        return writer.toByteArray()
+    }
+
+    fun decode(bytes: ByteArray): PackedPolylines {
+        val reader = VarIntReader(bytes)
+        reader.readVersion()
+        val bounds = reader.readBounds()
+        var lat = bounds.minLatitude.toFixed1E7().toLong()
+        var lon = bounds.minLongitude.toFixed1E7().toLong()
+
+        val partCount = reader.readUnsigned().toInt()
+        val partSizes = IntArray(partCount) { reader.readUnsigned().toInt() }
+        val coordinates = DoubleArray(2 * partSizes.sum())
+        var i = 0
+        while (i < coordinates.size) {
+            lat += reader.readSigned()
+            lon += reader.readSigned()
+            coordinates[i++] = lat.toInt().fromFixed1E7()
+            coordinates[i++] = lon.toInt().fromFixed1E7()
+        }
+        return PackedPolylines.of(coordinates, partSizes, bounds)
+    }
+
+    /** Returns the bounding box of the given blob, without decoding the points */
+    fun decodeBounds(bytes: ByteArray): BoundingBox {
+        val reader = VarIntReader(bytes)
+        reader.readVersion()
+        return reader.readBounds()
+    }
+
+    private fun VarIntReader.readBounds(): BoundingBox {
+        val minLat = readSigned().toInt()
+        val minLon = readSigned().toInt()
+        val maxLat = readSigned().toInt()
+        val maxLon = readSigned().toInt()
+        return BoundingBox(minLat.fromFixed1E7(), minLon.fromFixed1E7(), maxLat.fromFixed1E7(), maxLon.fromFixed1E7())
+    }
+
+    private fun VarIntReader.readVersion() {
+        val version = readUnsigned().toInt()
+        require(version == VERSION) { "Unsupported geometry format version $version" }
+    }
+}
+
+private fun Double.toFixed1E7(): Int = (this * 1e7).roundToInt()
+private fun Int.fromFixed1E7(): Double = this / 1e7
@@ -203,13 +203,11 @@ private fun List<List<LatLon>>.joined(): ConnectedWays {
     while (nodeWayMap.hasNextNode()) {
         val node: LatLon = if (currentWay.isEmpty()) nodeWayMap.getNextNode() else currentWay.last()
 
-        val waysAtNode = nodeWayMap.getWaysAtNode(node)
-        if (waysAtNode == null) {
+        val way = nodeWayMap.getFirstWayAtNode(node)
+        if (way == null) {
             ways.add(currentWay)
             currentWay = ArrayList()
         } else {
-            val way = waysAtNode.first()
-
             currentWay.join(way)
             nodeWayMap.removeWay(way)
 
@@ -227,7 +225,8 @@ private fun List<List<LatLon>>.joined(): ConnectedWays {
     return ConnectedWays(rings, ways)
 }
 
-/** Join the given adjacent polyline into this polyline */
+/** Join the given polyline that is adjacent to the end of this polyline into this polyline.
+ *  (Polylines are only ever continued at their end, so nothing needs to be inserted at the start) */
 private fun MutableList<LatLon>.join(way: List<LatLon>) {
     if (isEmpty()) {
         addAll(way)
@@ -235,8 +234,6 @@ private fun MutableList<LatLon>.join(way: List<LatLon>) {
         when {
             last() == way.last() -> addAll(way.asReversed().subList(1, way.size))
             last() == way.first() -> addAll(way.subList(1, way.size))
-            first() == way.last() -> addAll(0, way.subList(0, way.size - 1))
-            first() == way.first() -> addAll(0, way.asReversed().subList(0, way.size - 1))
             else -> throw IllegalArgumentException("The ways are not adjacent")
         }
     }
@@ -257,8 +254,7 @@ private fun MutableList<LatLon>.eliminateDuplicates() {
 
 private fun MapData.getNodePositions(way: Way): List<LatLon>? {
     return way.nodeIds.map { nodeId ->
-        val node = getNode(nodeId) ?: return null
-        node.position
+        getNodePosition(nodeId) ?: return null
     }
 }
 
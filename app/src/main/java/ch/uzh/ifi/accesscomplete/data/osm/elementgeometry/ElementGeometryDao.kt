@@ -23,26 +23,37 @@
 package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
 
 import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE
 import android.database.sqlite.SQLiteOpenHelper
 import androidx.core.content.contentValuesOf
 
 
 import javax.inject.Inject
 
-import ch.uzh.ifi.accesscomplete.util.Serializer
 import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.LatLon
 import de.westnordost.osmapi.map.data.OsmLatLon
 import ch.uzh.ifi.accesscomplete.data.ObjectRelationalMapping
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.Targets.GEOMETRY
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isReferencedBy
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isUnreferencedCandidate
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.whereCandidatesOf
+import ch.uzh.ifi.accesscomplete.data.bulkInsert
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.ELEMENT_ID
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.ELEMENT_TYPE
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.GEOMETRY_POLYGONS
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.GEOMETRY_POLYLINES
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LATITUDE
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LONGITUDE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.TILE
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.NAME
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.undo.UndoOsmQuestTable
 import ch.uzh.ifi.accesscomplete.ktx.*
+import ch.uzh.ifi.accesscomplete.util.LazyValue
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.Columns.ELEMENT_ID as CANDIDATE_ELEMENT_ID
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.Columns.ELEMENT_TYPE as CANDIDATE_ELEMENT_TYPE
 
 /** Stores the geometry of elements */
 class ElementGeometryDao @Inject constructor(
@@ -52,20 +63,15 @@ class ElementGeometryDao @Inject constructor(
     private val db get() = dbHelper.writableDatabase
 
     fun putAll(entries: Collection<ElementGeometryEntry>) {
-        db.transaction {
+        db.bulkInsert(NAME, CONFLICT_REPLACE) { inserter ->
             for (entry in entries) {
-                put(entry)
+                inserter.insert(toContentValues(entry))
             }
         }
     }
 
     fun put(entry: ElementGeometryEntry) {
-        val values = contentValuesOf(
-            ELEMENT_TYPE to entry.elementType.name,
-            ELEMENT_ID to entry.elementId
-        ) + mapping.toContentValues(entry.geometry)
-
-        db.replaceOrThrow(NAME, null, values)
+        db.replaceOrThrow(NAME, null, toContentValues(entry))
     }
 
     fun get(type: Element.Type, id: Long): ElementGeometry? {
@@ -82,19 +88,28 @@ class ElementGeometryDao @Inject constructor(
         db.delete(NAME, where, args)
     }
 
-    /** Cleans up element geometry entries that belong to elements that are not referenced by any
-     * quest anymore.  */
-    fun deleteUnreferenced(): Int {
-        /* SQLite does not allow selecting multiple columns in a DELETE subquery. Using a workaround
-         * as described here:
-         * http://blog.programmingsolution.net/sql-server-2008/tsql/delete-rows-of-a-table-matching-multiple-columns-of-another-table/
-         */
-        val where = "(" + ELEMENT_TYPE + LUMP + ELEMENT_ID + ") NOT IN (" +
-            "SELECT " + OsmQuestTable.Columns.ELEMENT_TYPE + LUMP + OsmQuestTable.Columns.ELEMENT_ID + " FROM " + OsmQuestTable.NAME + " " +
-            "UNION SELECT " + UndoOsmQuestTable.Columns.ELEMENT_TYPE + LUMP + UndoOsmQuestTable.Columns.ELEMENT_ID + " FROM " + UndoOsmQuestTable.NAME +
-            ")"
-
-        return db.delete(NAME, where, null)
+    private fun toContentValues(entry: ElementGeometryEntry) = contentValuesOf(
+        ELEMENT_TYPE to entry.elementType.name,
+        ELEMENT_ID to entry.elementId
+    ) + mapping.toContentValues(entry.geometry)
+
+    /** Cleans up geometry entries that are not referenced by any quest anymore. Only the entries
+     *  that have been inserted or lost a referencing quest since the last clean up are looked at */
+    fun deleteUnreferenced(): Int = db.transaction {
+        val where = """
+            rowid IN (
+                SELECT g.rowid FROM $NAME g
+                INNER JOIN ${UnreferencedCandidatesTable.NAME} c
+                ON g.$ELEMENT_TYPE = c.$CANDIDATE_ELEMENT_TYPE AND g.$ELEMENT_ID = c.$CANDIDATE_ELEMENT_ID
+                WHERE ${isUnreferencedCandidate(GEOMETRY, null, listOf(
+                    isReferencedBy(OsmQuestTable.NAME, OsmQuestTable.Columns.ELEMENT_ID, OsmQuestTable.Columns.ELEMENT_TYPE),
+                    isReferencedBy(UndoOsmQuestTable.NAME, UndoOsmQuestTable.Columns.ELEMENT_ID, UndoOsmQuestTable.Columns.ELEMENT_TYPE)
+                ))}
+            )""".trimIndent()
+
+        val result = delete(NAME, where, null)
+        delete(UnreferencedCandidatesTable.NAME, whereCandidatesOf(GEOMETRY), null)
+        result
     }
 }
 
@@ -104,29 +119,30 @@ data class ElementGeometryEntry(
     val geometry: ElementGeometry
 )
 
-private const val LUMP = "+'#'+"
-private typealias PolyLines = ArrayList<ArrayList<OsmLatLon>>
-
-class ElementGeometryMapping @Inject constructor(
-    private val serializer: Serializer)
-    : ObjectRelationalMapping<ElementGeometry> {
+class ElementGeometryMapping @Inject constructor() : ObjectRelationalMapping<ElementGeometry> {
 
     override fun toContentValues(obj: ElementGeometry) = contentValuesOf(
         LATITUDE to obj.center.latitude,
         LONGITUDE to obj.center.longitude,
-        GEOMETRY_POLYGONS to (obj as? ElementPolygonsGeometry)?.let { serializer.toBytes(obj.polygons) },
-        GEOMETRY_POLYLINES to (obj as? ElementPolylinesGeometry)?.let { serializer.toBytes(obj.polylines) }
+        TILE to obj.center.toGeometryTileKey(),
+        GEOMETRY_POLYGONS to (obj as? ElementPolygonsGeometry)?.let { ElementGeometryCodec.encode(obj.polygons) },
+        GEOMETRY_POLYLINES to (obj as? ElementPolylinesGeometry)?.let { ElementGeometryCodec.encode(obj.polylines) }
     )
 
-    override fun toObject(cursor: Cursor): ElementGeometry {
-        val polylines = cursor.getBlobOrNull(GEOMETRY_POLYLINES)?.let { serializer.toObject<PolyLines>(it) }
-        val polygons = cursor.getBlobOrNull(GEOMETRY_POLYGONS)?.let { serializer.toObject<PolyLines>(it) }
-        val center = OsmLatLon(cursor.getDouble(LATITUDE), cursor.getDouble(LONGITUDE))
+    override fun toObject(cursor: Cursor): ElementGeometry = toLazyObject(cursor).value
+
+    /** Like [toObject], only that the polylines or polygons are deserialized on first access */
+    fun toLazyObject(cursor: Cursor): LazyValue<ElementGeometry> {
+        val polylinesBytes = cursor.getBlobOrNull(GEOMETRY_POLYLINES)
+        val polygonsBytes = cursor.getBlobOrNull(GEOMETRY_POLYGONS)
+        val center = toCenter(cursor)
 
         return when {
-            polygons != null -> ElementPolygonsGeometry(polygons, center)
-            polylines != null -> ElementPolylinesGeometry(polylines, center)
-            else -> ElementPointGeometry(center)
+            polygonsBytes != null -> LazyValue { ElementPolygonsGeometry(ElementGeometryCodec.decode(polygonsBytes), center) }
+            polylinesBytes != null -> LazyValue { ElementPolylinesGeometry(ElementGeometryCodec.decode(polylinesBytes), center) }
+            else -> LazyValue.of(ElementPointGeometry(center))
         }
     }
+
+    fun toCenter(cursor: Cursor): LatLon = OsmLatLon(cursor.getDouble(LATITUDE), cursor.getDouble(LONGITUDE))
 }
@@ -34,8 +34,12 @@ object ElementGeometryTable {
         const val GEOMETRY_POLYLINES = "geometry_polylines"
         const val LATITUDE = "latitude"
         const val LONGITUDE = "longitude"
+        const val TILE = "tile"
     }
 
+    /** zoom level of the tiles the geometries are sorted into for spatial queries */
+    const val TILE_ZOOM = 16
+
     const val CREATE = """
         CREATE TABLE $NAME (
             ${Columns.ELEMENT_TYPE} varchar(255) NOT NULL,
@@ -44,9 +48,14 @@ object ElementGeometryTable {
             ${Columns.GEOMETRY_POLYGONS} blob,
             ${Columns.LATITUDE} double NOT NULL,
             ${Columns.LONGITUDE} double NOT NULL,
+            ${Columns.TILE} int NOT NULL,
             CONSTRAINT primary_key PRIMARY KEY (
                 ${Columns.ELEMENT_TYPE},
                 ${Columns.ELEMENT_ID}
             )
         );"""
+
+    const val ADD_TILE_COLUMN = "ALTER TABLE $NAME ADD COLUMN ${Columns.TILE} int NOT NULL DEFAULT 0;"
+
+    const val CREATE_TILE_INDEX = "CREATE INDEX elements_geometry_tile_index ON $NAME (${Columns.TILE});"
 }
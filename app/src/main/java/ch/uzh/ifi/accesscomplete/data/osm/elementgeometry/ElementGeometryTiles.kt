@@ -0,0 +1,88 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.data.WhereSelectionBuilder
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LATITUDE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LONGITUDE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.TILE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.TILE_ZOOM
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.enclosingTile
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.OsmLatLon
+
+/* The element geometries are sorted into tiles for spatial queries: The (indexed) tile column
+ * contains a key of the tile the center of the geometry is in. The key is made up of first the
+ * y, then the x of the tile, so all the tiles in one row of tiles have consecutive keys. So, all
+ * the geometries within a bounding box can be found with one index range lookup per row of tiles
+ * the bounding box spans. */
+
+/** Returns the key of the tile the given position is in, as stored in the tile column */
+fun LatLon.toGeometryTileKey(): Long = enclosingGeometryTile().toKey()
+
+/** Adds the condition that the center of the geometry is within the given [bounds] */
+fun WhereSelectionBuilder.addGeometryWithin(bounds: BoundingBox) {
+    val tileRanges = bounds.toGeometryTileRanges()
+    if (tileRanges != null) {
+        add(
+            tileRanges.joinToString(" OR ", "(", ")") { "$TILE BETWEEN ? AND ?" },
+            *tileRanges.flatMap { listOf(it.first.toString(), it.last.toString()) }.toTypedArray()
+        )
+    }
+    add(
+        "($LATITUDE BETWEEN ? AND ?)",
+        bounds.minLatitude.toString(),
+        bounds.maxLatitude.toString()
+    )
+    add(
+        "($LONGITUDE BETWEEN ? AND ?)",
+        bounds.minLongitude.toString(),
+        bounds.maxLongitude.toString()
+    )
+}
+
+/** Returns the ranges of tile keys that cover the given bounding box or null if the bounding box
+ *  is so large that looking up each row of tiles is not worth it */
+private fun BoundingBox.toGeometryTileRanges(): List<LongRange>? {
+    if (crosses180thMeridian()) return null
+    val minTile = OsmLatLon(minLatitude, minLongitude).enclosingGeometryTile()
+    val maxTile = OsmLatLon(maxLatitude, maxLongitude).enclosingGeometryTile()
+    // the y of the tiles increases from north to south
+    val top = maxTile.y
+    val bottom = minTile.y
+    if (minTile.x > maxTile.x || top > bottom) return null
+    if (bottom - top + 1 > MAX_TILE_ROWS) return null
+    return (top..bottom).map { y -> Tile(minTile.x, y).toKey()..Tile(maxTile.x, y).toKey() }
+}
+
+private fun LatLon.enclosingGeometryTile(): Tile {
+    val tile = enclosingTile(TILE_ZOOM)
+    val max = (1 shl TILE_ZOOM) - 1
+    return Tile(tile.x.coerceIn(0, max), tile.y.coerceIn(0, max))
+}
+
+private fun Tile.toKey(): Long = (y.toLong() shl TILE_ZOOM) or x.toLong()
+
+private const val MAX_TILE_ROWS = 64
@@ -22,42 +22,71 @@
 
 package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
 
+import java.util.Collections
+import java.util.IdentityHashMap
 
-/** Knows which vertices connect which ways. T is the identifier of a vertex  */
+/** Knows which vertices connect which ways. T is the identifier of a vertex.
+ *
+ *  Removed ways are only marked as removed and skipped when they are encountered later, so that
+ *  removing a way takes constant time and joining n ways with it takes linear time. */
 class NodeWayMap<T>(ways: List<List<T>>) {
-    private val wayEndpoints = LinkedHashMap<T, MutableList<List<T>>>()
+    /** endpoints in the order in which they were first encountered */
+    private val nodes = ArrayList<T>()
+    private val waysAtNodes = HashMap<T, WaysAtNode<T>>()
+    private val removedWays: MutableSet<List<T>> = Collections.newSetFromMap(IdentityHashMap())
+    /** all nodes before this index have no ways left */
+    private var nextNodeIndex = 0
 
     init {
         for (way in ways) {
-            val firstNode = way.first()
-            val lastNode = way.last()
+            addWayAtNode(way.first(), way)
+            addWayAtNode(way.last(), way)
+        }
+    }
 
-            wayEndpoints.getOrPut(firstNode, { ArrayList() }).add(way)
-            wayEndpoints.getOrPut(lastNode, { ArrayList() }).add(way)
+    private fun addWayAtNode(node: T, way: List<T>) {
+        waysAtNodes.getOrPut(node) {
+            nodes.add(node)
+            WaysAtNode()
+        }.ways.add(way)
+    }
+
+    fun hasNextNode(): Boolean {
+        while (nextNodeIndex < nodes.size && getFirstWayAtNode(nodes[nextNodeIndex]) == null) {
+            nextNodeIndex++
         }
+        return nextNodeIndex < nodes.size
     }
 
-    fun hasNextNode(): Boolean = wayEndpoints.isNotEmpty()
+    fun getNextNode(): T {
+        if (!hasNextNode()) throw NoSuchElementException()
+        return nodes[nextNodeIndex]
+    }
 
-    fun getNextNode(): T = wayEndpoints.keys.iterator().next()
+    fun getWaysAtNode(node: T): List<List<T>>? {
+        val waysAtNode = waysAtNodes[node] ?: return null
+        val ways = waysAtNode.ways.subList(waysAtNode.start, waysAtNode.ways.size).filter { it !in removedWays }
+        return if (ways.isNotEmpty()) ways else null
+    }
 
-    fun getWaysAtNode(node: T): List<List<T>>? = wayEndpoints[node]
+    /** Returns the first of the ways (in the order they were given) at the given node that has
+     *  not been removed yet, or null if there is none */
+    fun getFirstWayAtNode(node: T): List<T>? {
+        val waysAtNode = waysAtNodes[node] ?: return null
+        val ways = waysAtNode.ways
+        while (waysAtNode.start < ways.size && ways[waysAtNode.start] in removedWays) {
+            waysAtNode.start++
+        }
+        return if (waysAtNode.start < ways.size) ways[waysAtNode.start] else null
+    }
 
     fun removeWay(way: List<T>) {
-        val it = wayEndpoints.values.iterator()
-        while (it.hasNext()) {
-            val waysPerNode = it.next()
-
-            val waysIt = waysPerNode.iterator()
-            while (waysIt.hasNext()) {
-                if (waysIt.next() === way) {
-                    waysIt.remove()
-                }
-            }
-
-            if (waysPerNode.isEmpty()) {
-                it.remove()
-            }
-        }
+        removedWays.add(way)
+    }
+
+    private class WaysAtNode<T> {
+        val ways = ArrayList<List<T>>(2)
+        /** all ways before this index have been removed */
+        var start = 0
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.util.EARTH_RADIUS
+import ch.uzh.ifi.accesscomplete.util.distance
+import ch.uzh.ifi.accesscomplete.util.normalizeLongitude
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.OsmLatLon
+import java.io.Serializable
+
+/** The polylines (or polygon rings) of an element geometry, with all positions stored in one
+ *  array instead of as one object each, which takes only a fraction of the memory.
+ *
+ *  It is a read-only List<List<LatLon>>, so it can be passed to anything that works with polylines,
+ *  but the position objects are then created on each access. Code that goes through many positions
+ *  should rather use [getLatitude] and [getLongitude].
+ *
+ *  The bounding box is determined once on creation. */
+class PackedPolylines private constructor(
+    /** latitude and longitude of each position, alternating */
+    private val coordinates: DoubleArray,
+    /** index of the first position of each part, followed by the number of all positions */
+    private val partStarts: IntArray,
+    /** min latitude, min longitude, max latitude, max longitude or null if there are no positions */
+    private val bounds: DoubleArray?
+) : AbstractList<List<LatLon>>(), RandomAccess, Serializable {
+
+    override val size: Int get() = partStarts.size - 1
+
+    override fun get(index: Int): List<LatLon> {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index: $index, Size: $size")
+        return Part(partStarts[index], getPointCount(index))
+    }
+
+    fun getPointCount(part: Int): Int = partStarts[part + 1] - partStarts[part]
+
+    fun getLatitude(part: Int, index: Int): Double = coordinates[2 * (partStarts[part] + index)]
+
+    fun getLongitude(part: Int, index: Int): Double = coordinates[2 * (partStarts[part] + index) + 1]
+
+    /** Returns the bounding box that contains all positions
+     *  @throws IllegalArgumentException if there are no positions */
+    fun getBounds(): BoundingBox {
+        requireNotNull(bounds) { "positions is empty" }
+        return BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3])
+    }
+
+    /** Returns the distance covered by all these polylines together. Same as summing up the
+     *  measuredLength() of each, but without creating a position object per point */
+    fun measuredLength(globeRadius: Double = EARTH_RADIUS): Double {
+        var length = 0.0
+        for (part in indices) {
+            for (i in 1 until getPointCount(part)) {
+                length += distance(
+                    getLatitude(part, i - 1), getLongitude(part, i - 1),
+                    getLatitude(part, i), getLongitude(part, i),
+                    globeRadius
+                )
+            }
+        }
+        return length
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (other !is PackedPolylines) return super.equals(other)
+        if (!partStarts.contentEquals(other.partStarts)) return false
+        for (i in coordinates.indices) {
+            if (coordinates[i] != other.coordinates[i]) return false
+        }
+        return true
+    }
+
+    override fun hashCode(): Int = super.hashCode()
+
+    private inner class Part(private val start: Int, override val size: Int) : AbstractList<LatLon>(), RandomAccess {
+        override fun get(index: Int): LatLon {
+            if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index: $index, Size: $size")
+            val i = 2 * (start + index)
+            return OsmLatLon(coordinates[i], coordinates[i + 1])
+        }
+    }
+
+    companion object {
+        fun of(parts: List<List<LatLon>>): PackedPolylines {
+            if (parts is PackedPolylines) return parts
+
+            val partStarts = IntArray(parts.size + 1)
+            var count = 0
+            for ((i, part) in parts.withIndex()) {
+                partStarts[i] = count
+                count += part.size
+            }
+            partStarts[parts.size] = count
+
+            val coordinates = DoubleArray(2 * count)
+            var i = 0
+            for (part in parts) {
+                for (p in part) {
+                    coordinates[i++] = p.latitude
+                    coordinates[i++] = p.longitude
+                }
+            }
+            return PackedPolylines(coordinates, partStarts, enclosingBounds(coordinates))
+        }
+
+        /** Create from the given [coordinates] (latitude and longitude of each position,
+         *  alternating) which are split into parts of the given sizes. The [bounds] of the
+         *  positions are determined if they are not given */
+        internal fun of(coordinates: DoubleArray, partSizes: IntArray, bounds: BoundingBox? = null): PackedPolylines {
+            val partStarts = IntArray(partSizes.size + 1)
+            for (i in partSizes.indices) {
+                partStarts[i + 1] = partStarts[i] + partSizes[i]
+            }
+            require(2 * partStarts.last() == coordinates.size) { "Part sizes do not match the number of coordinates" }
+            val boundsArray = if (bounds != null && coordinates.isNotEmpty()) {
+                doubleArrayOf(bounds.minLatitude, bounds.minLongitude, bounds.maxLatitude, bounds.maxLongitude)
+            } else {
+                enclosingBounds(coordinates)
+            }
+            return PackedPolylines(coordinates, partStarts, boundsArray)
+        }
+
+        /** Same as Iterable<LatLon>.enclosingBoundingBox(), see there */
+        private fun enclosingBounds(coordinates: DoubleArray): DoubleArray? {
+            if (coordinates.isEmpty()) return null
+            val originLat = coordinates[0]
+            val originLon = coordinates[1]
+            var minLatOffset = 0.0
+            var minLonOffset = 0.0
+            var maxLatOffset = 0.0
+            var maxLonOffset = 0.0
+            var i = 2
+            while (i < coordinates.size) {
+                // calculate with offsets here to properly handle 180th meridian
+                val lat = coordinates[i] - originLat
+                val lon = normalizeLongitude(coordinates[i + 1] - originLon)
+                if (lat < minLatOffset) minLatOffset = lat
+                if (lon < minLonOffset) minLonOffset = lon
+                if (lat > maxLatOffset) maxLatOffset = lat
+                if (lon > maxLonOffset) maxLonOffset = lon
+                i += 2
+            }
+            return doubleArrayOf(
+                originLat + minLatOffset,
+                normalizeLongitude(originLon + minLonOffset),
+                originLat + maxLatOffset,
+                normalizeLongitude(originLon + maxLonOffset)
+            )
+        }
+    }
+}
@@ -22,10 +22,17 @@
 
 package ch.uzh.ifi.accesscomplete.data.osm.mapdata
 
+import android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE
 import android.database.sqlite.SQLiteOpenHelper
 
 import de.westnordost.osmapi.map.data.Element
 import ch.uzh.ifi.accesscomplete.data.ObjectRelationalMapping
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.Targets.ELEMENT
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isReferencedBy
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isUnreferencedCandidate
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.whereCandidatesOf
+import ch.uzh.ifi.accesscomplete.data.bulkInsert
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.undo.UndoOsmQuestTable
 import ch.uzh.ifi.accesscomplete.ktx.queryOne
@@ -41,15 +48,20 @@ abstract class AOsmElementDao<T : Element>(private val dbHelper: SQLiteOpenHelpe
     protected abstract val idColumnName: String
     protected abstract val mapping: ObjectRelationalMapping<T>
 
+    /** Writes what the given elements refer to and must be present before they can be written */
+    protected open fun putReferencedData(elements: Collection<T>) {}
+
     fun putAll(elements: Collection<T>) {
-        db.transaction {
+        putReferencedData(elements)
+        db.bulkInsert(tableName, CONFLICT_REPLACE) { inserter ->
             for (element in elements) {
-                put(element)
+                inserter.insert(mapping.toContentValues(element))
             }
         }
     }
 
     fun put(element: T) {
+        putReferencedData(listOf(element))
         db.replaceOrThrow(tableName, null, mapping.toContentValues(element))
     }
 
@@ -61,21 +73,30 @@ abstract class AOsmElementDao<T : Element>(private val dbHelper: SQLiteOpenHelpe
         return db.queryOne(tableName, null, "$idColumnName = $id", null) { mapping.toObject(it) }
     }
 
-    /** Cleans up element entries that are not referenced by any quest anymore.  */
-    open fun deleteUnreferenced() {
+    /** Conditions that are true if the element candidate "c" is still referenced by something */
+    protected open val references: List<String> get() = listOf(
+        isReferencedBy(OsmQuestTable.NAME, OsmQuestTable.Columns.ELEMENT_ID, OsmQuestTable.Columns.ELEMENT_TYPE),
+        isReferencedBy(UndoOsmQuestTable.NAME, UndoOsmQuestTable.Columns.ELEMENT_ID, UndoOsmQuestTable.Columns.ELEMENT_TYPE)
+    )
+
+    /** Cleans up element entries that are not referenced by any quest anymore. Only the entries
+     *  that have been inserted or lost a reference since the last clean up are looked at */
+    fun deleteUnreferenced() {
         val where = """
-            $idColumnName NOT IN (
-            ${getSelectAllElementIdsIn(OsmQuestTable.NAME)}
-            UNION
-            ${getSelectAllElementIdsIn(UndoOsmQuestTable.NAME)}
+            $idColumnName IN (
+                SELECT c.${UnreferencedCandidatesTable.Columns.ELEMENT_ID}
+                FROM ${UnreferencedCandidatesTable.NAME} c
+                WHERE ${isUnreferencedCandidate(ELEMENT, elementTypeName, references)}
             )""".trimIndent()
 
-        db.delete(tableName, where, null)
+        db.transaction {
+            delete(tableName, where, null)
+            delete(UnreferencedCandidatesTable.NAME, whereCandidatesOf(ELEMENT, elementTypeName), null)
+        }
     }
+}
 
-    protected fun getSelectAllElementIdsIn(table: String) = """
-        SELECT ${OsmQuestTable.Columns.ELEMENT_ID} AS $idColumnName
-        FROM $table
-        WHERE ${OsmQuestTable.Columns.ELEMENT_TYPE} = "$elementTypeName"
-    """
+/** Mapping of an OSM element whose tags (etc.) are stored in the format of the [ElementCodec] */
+interface ElementMapping<T : Element> : ObjectRelationalMapping<T> {
+    val codec: ElementCodec
 }
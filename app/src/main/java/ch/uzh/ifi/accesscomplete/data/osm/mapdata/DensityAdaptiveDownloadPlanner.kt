@@ -0,0 +1,212 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensity
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityDao
+import ch.uzh.ifi.accesscomplete.util.LongIntHashMap
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.TilesRect
+import ch.uzh.ifi.accesscomplete.util.enclosingTile
+import ch.uzh.ifi.accesscomplete.util.enclosingTilesRect
+import ch.uzh.ifi.accesscomplete.util.isCompletelyInside
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
+import kotlin.math.max
+import kotlin.math.min
+
+/** Plans to request the map data in a quadtree of tiles, so that each request contains about as
+ *  much data as the OSM API allows at most: Larger tiles in sparse areas, smaller ones in dense
+ *  areas.
+ *
+ *  How much data there is in an area is estimated from how much data there was in each tile of
+ *  the given [zoom] when it was last downloaded. Nothing is known about how much data there is in
+ *  tiles that have never been downloaded, so these are requested as tiles of the given [zoom].
+ *  The data is assumed to be distributed evenly within each tile. Requests are for tiles of at
+ *  most [maxZoomOut] zoom levels above and at most [maxZoomIn] below the given [zoom]. */
+class DensityAdaptiveDownloadPlanner(
+    private val tileDensityDao: TileDensityDao,
+    private val zoom: Int,
+    private val maxElementsPerRequest: Int = 30000,
+    private val maxZoomOut: Int = 4,
+    private val maxZoomIn: Int = 2
+) : MapDataDownloadPlanner {
+
+    /** Element counts of tiles of which only a part has been downloaded yet, f.e. because the
+     *  request for it was too big and had to be split up */
+    private val partiallyDownloadedTiles = HashMap<Tile, PartialTileDensity>()
+
+    override fun plan(bounds: BoundingBox): List<BoundingBox> {
+        // counts of tiles that were not downloaded completely in a previous download are useless
+        synchronized(partiallyDownloadedTiles) { partiallyDownloadedTiles.clear() }
+        if (bounds.crosses180thMeridian()) return listOf(bounds)
+
+        val tilesRect = bounds.enclosingTilesRect(zoom)
+        val densities = tileDensityDao.getAll(tilesRect)
+        val minZoom = max(0, zoom - maxZoomOut)
+        val result = ArrayList<BoundingBox>()
+        for (tile in bounds.enclosingTilesRect(minZoom).asTileSequence()) {
+            plan(tile, minZoom, bounds, tilesRect, densities, result)
+        }
+        return result
+    }
+
+    private fun plan(
+        tile: Tile,
+        tileZoom: Int,
+        bounds: BoundingBox,
+        tilesRect: TilesRect,
+        densities: Map<Tile, TileDensity>,
+        result: MutableList<BoundingBox>
+    ) {
+        val tileBounds = tile.asBoundingBox(tileZoom).intersection(bounds) ?: return
+        val elementCount = estimateElementCount(tile, tileZoom, tilesRect, densities)
+        val isSmallEnough = if (elementCount != null) elementCount <= maxElementsPerRequest else tileZoom >= zoom
+        if (isSmallEnough || tileZoom >= zoom + maxZoomIn) {
+            result.add(tileBounds)
+        } else {
+            for (subTile in tile.subTiles()) {
+                plan(subTile, tileZoom + 1, bounds, tilesRect, densities, result)
+            }
+        }
+    }
+
+    /** Returns the estimated number of elements in the given tile or null if it is not known for
+     *  any part of it */
+    private fun estimateElementCount(
+        tile: Tile,
+        tileZoom: Int,
+        tilesRect: TilesRect,
+        densities: Map<Tile, TileDensity>
+    ): Long? {
+        if (tileZoom >= zoom) {
+            val dz = tileZoom - zoom
+            val elementCount = densities[Tile(tile.x shr dz, tile.y shr dz)]?.elementCount ?: return null
+            return elementCount.toLong() shr (2 * dz)
+        }
+        // only those tiles that are (partly) within the requested bounds count
+        val dz = zoom - tileZoom
+        val left = max(tile.x shl dz, tilesRect.left)
+        val top = max(tile.y shl dz, tilesRect.top)
+        val right = min(((tile.x + 1) shl dz) - 1, tilesRect.right)
+        val bottom = min(((tile.y + 1) shl dz) - 1, tilesRect.bottom)
+        var result = 0L
+        for (y in top..bottom) {
+            for (x in left..right) {
+                result += densities[Tile(x, y)]?.elementCount ?: return null
+            }
+        }
+        return result
+    }
+
+    override fun createRecorder(bounds: BoundingBox): DownloadRecorder? =
+        if (bounds.crosses180thMeridian()) null else DensityRecorder(bounds)
+
+    /** Records how much data there is in each tile within the downloaded [bounds]. The data of
+     *  tiles that are only partly within the bounds is added up until the whole tile has been
+     *  downloaded */
+    private fun onDownloaded(bounds: BoundingBox, tilesRect: TilesRect, nodeCounts: IntArray, wayCounts: IntArray) {
+        val completeTiles = HashMap<Tile, TileDensity>()
+        var i = 0
+        for (tile in tilesRect.asTileSequence()) {
+            val nodeCount = nodeCounts[i]
+            val wayCount = wayCounts[i]
+            i++
+            val tileBounds = tile.asBoundingBox(zoom)
+            if (tileBounds.isCompletelyInside(bounds)) {
+                completeTiles[tile] = TileDensity(nodeCount, wayCount)
+                continue
+            }
+            val downloadedBounds = tileBounds.intersection(bounds) ?: continue
+            val downloadedShare = downloadedBounds.degreeArea() / tileBounds.degreeArea()
+            synchronized(partiallyDownloadedTiles) {
+                val partial = partiallyDownloadedTiles.getOrPut(tile) { PartialTileDensity() }
+                partial.nodeCount += nodeCount
+                partial.wayCount += wayCount
+                partial.downloadedShare += downloadedShare
+                if (partial.downloadedShare >= 1.0 - 1e-9) {
+                    partiallyDownloadedTiles.remove(tile)
+                    completeTiles[tile] = TileDensity(partial.nodeCount, partial.wayCount)
+                }
+            }
+        }
+        if (completeTiles.isNotEmpty()) tileDensityDao.putAll(completeTiles)
+    }
+
+    /** Counts the nodes and ways of the response for the given [bounds] per tile while it is being
+     *  downloaded. Only data within the bounds is counted, so that data returned by several
+     *  requests is counted only once. A way is counted in the tile in which its first node is */
+    private inner class DensityRecorder(private val bounds: BoundingBox) : DownloadRecorder {
+        private val tilesRect = bounds.enclosingTilesRect(zoom)
+        private val nodeCounts = IntArray(tilesRect.size)
+        private val wayCounts = IntArray(tilesRect.size)
+        /** index of the tile of each node within the bounds, by node id */
+        private val nodeTileIndices = LongIntHashMap(4096)
+
+        override fun handle(bounds: BoundingBox) {}
+
+        override fun handle(node: Node) {
+            if (!node.position.isInside(bounds)) return
+            val tile = node.position.enclosingTile(zoom)
+            if (tile.x !in tilesRect.left..tilesRect.right || tile.y !in tilesRect.top..tilesRect.bottom) return
+            val index = (tile.y - tilesRect.top) * (tilesRect.right - tilesRect.left + 1) + tile.x - tilesRect.left
+            nodeTileIndices.put(node.id, index)
+            nodeCounts[index]++
+        }
+
+        override fun handle(way: Way) {
+            val index = way.nodeIds.firstOrNull()?.let { nodeTileIndices.get(it) } ?: return
+            if (index >= 0) wayCounts[index]++
+        }
+
+        override fun handle(relation: Relation) {}
+
+        override fun onComplete() {
+            onDownloaded(bounds, tilesRect, nodeCounts, wayCounts)
+        }
+    }
+}
+
+private class PartialTileDensity {
+    var nodeCount = 0
+    var wayCount = 0
+    var downloadedShare = 0.0
+}
+
+/** Whether this position is inside the given bounds. Positions on the upper and right border do
+ *  not count, so that a position on the border between two bounds is only inside one of them */
+private fun LatLon.isInside(bounds: BoundingBox): Boolean =
+    latitude >= bounds.minLatitude && latitude < bounds.maxLatitude &&
+    longitude >= bounds.minLongitude && longitude < bounds.maxLongitude
+
+private fun BoundingBox.degreeArea() = (maxLatitude - minLatitude) * (maxLongitude - minLongitude)
+
+private fun Tile.subTiles() = listOf(
+    Tile(2 * x,     2 * y),
+    Tile(2 * x + 1, 2 * y),
+    Tile(2 * x,     2 * y + 1),
+    Tile(2 * x + 1, 2 * y + 1)
+)
@@ -0,0 +1,183 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.util.VarIntReader
+import ch.uzh.ifi.accesscomplete.util.VarIntWriter
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmRelationMember
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.RelationMember
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** Compact binary format for the tags, way node ids and relation members of OSM elements.
+ *
+ *  - Tags are a list of key-value pairs of strings
+ *  - Node ids of ways are stored as the difference to the previous node id
+ *  - Relation members are stored as element type, the difference of the element id to the
+ *    previous member's element id and the role
+ *
+ *  Each blob starts with the format version. All numbers are written as (zigzag-encoded) varints.
+ *  Strings are either an id of the [TagDictionary] or, for free text like names and addresses
+ *  that would only bloat the dictionary, stored inline as UTF-8.
+ *
+ *  The dictionary entries of an element must be persisted with [putDictionaryEntries] whenever the
+ *  element is written to the database. */
+@Singleton class ElementCodec @Inject constructor(private val dictionary: TagDictionary) {
+
+    fun encodeTags(tags: Map<String, String>): ByteArray {
+        val writer = VarIntWriter(1 + 4 * tags.size)
+        writer.writeUnsigned(VERSION.toLong())
+        writer.writeUnsigned(tags.size.toLong())
+        for ((key, value) in tags) {
+            writer.writeDictionaryString(key)
+            if (isDictionaryValue(key, value)) writer.writeDictionaryString(value)
+            else writer.writeInlineString(value)
+        }
+        return writer.toByteArray()
+    }
+
+    fun decodeTags(bytes: ByteArray): HashMap<String, String> {
+        val reader = VarIntReader(bytes)
+        reader.readVersion()
+        val size = reader.readUnsigned().toInt()
+        val tags = HashMap<String, String>(size * 4 / 3 + 1)
+        repeat(size) {
+            val key = reader.readString()
+            tags[key] = reader.readString()
+        }
+        return tags
+    }
+
+    fun encodeNodeIds(nodeIds: List<Long>): ByteArray {
+        val writer = VarIntWriter(1 + 3 * nodeIds.size)
+        writer.writeUnsigned(VERSION.toLong())
+        writer.writeUnsigned(nodeIds.size.toLong())
+        var lastId = 0L
+        for (id in nodeIds) {
+            writer.writeSigned(id - lastId)
+            lastId = id
+        }
+        return writer.toByteArray()
+    }
+
+    fun decodeNodeIds(bytes: ByteArray): ArrayList<Long> {
+        val reader = VarIntReader(bytes)
+        reader.readVersion()
+        val size = reader.readUnsigned().toInt()
+        val nodeIds = ArrayList<Long>(size)
+        var id = 0L
+        repeat(size) {
+            id += reader.readSigned()
+            nodeIds.add(id)
+        }
+        return nodeIds
+    }
+
+    fun encodeMembers(members: List<RelationMember>): ByteArray {
+        val writer = VarIntWriter(1 + 5 * members.size)
+        writer.writeUnsigned(VERSION.toLong())
+        writer.writeUnsigned(members.size.toLong())
+        var lastRef = 0L
+        for (member in members) {
+            writer.writeUnsigned(member.type.ordinal.toLong())
+            writer.writeSigned(member.ref - lastRef)
+            writer.writeDictionaryString(member.role)
+            lastRef = member.ref
+        }
+        return writer.toByteArray()
+    }
+
+    fun decodeMembers(bytes: ByteArray): ArrayList<RelationMember> {
+        val reader = VarIntReader(bytes)
+        reader.readVersion()
+        val size = reader.readUnsigned().toInt()
+        val members = ArrayList<RelationMember>(size)
+        var ref = 0L
+        repeat(size) {
+            val type = ELEMENT_TYPES[reader.readUnsigned().toInt()]
+            ref += reader.readSigned()
+            members.add(OsmRelationMember(ref, reader.readString(), type))
+        }
+        return members
+    }
+
+    /** Writes the dictionary entries the given elements refer to */
+    fun putDictionaryEntries(elements: Iterable<Element>) {
+        val strings = HashSet<String>()
+        for (element in elements) {
+            element.tags?.let { tags ->
+                for ((key, value) in tags) {
+                    strings.add(key)
+                    if (isDictionaryValue(key, value)) strings.add(value)
+                }
+            }
+            if (element is Relation) {
+                for (member in element.members) strings.add(member.role)
+            }
+        }
+        if (strings.isNotEmpty()) dictionary.persist(strings)
+    }
+
+    private fun VarIntWriter.writeDictionaryString(string: String) {
+        writeUnsigned(dictionary.getId(string).toLong() shl 1)
+    }
+
+    private fun VarIntWriter.writeInlineString(string: String) {
+        val bytes = string.toByteArray(Charsets.UTF_8)
+        writeUnsigned((bytes.size.toLong() shl 1) or 1L)
+        writeBytes(bytes)
+    }
+
+    private fun VarIntReader.readString(): String {
+        val header = readUnsigned()
+        val value = (header ushr 1).toInt()
+        return if ((header and 1L) == 0L) dictionary.getString(value)
+        else String(readBytes(value), Charsets.UTF_8)
+    }
+
+    private fun VarIntReader.readVersion() {
+        val version = readUnsigned().toInt()
+        require(version == VERSION) { "Unsupported element format version $version" }
+    }
+
+    companion object {
+        const val VERSION = 1
+
+        private val ELEMENT_TYPES = Element.Type.values()
+
+        /** Values of these keys (and their sub keys, like name:de) are mostly unique free text */
+        private val FREE_TEXT_KEYS = listOf(
+            "name", "alt_name", "old_name", "official_name", "short_name", "loc_name", "addr",
+            "ref", "description", "note", "fixme", "FIXME", "inscription", "website", "url",
+            "phone", "email", "opening_hours", "wikidata", "wikipedia", "source", "check_date"
+        )
+        private const val MAX_DICTIONARY_VALUE_LENGTH = 32
+
+        private fun isDictionaryValue(key: String, value: String): Boolean =
+            value.length <= MAX_DICTIONARY_VALUE_LENGTH && FREE_TEXT_KEYS.none { key.isKeyOrSubKeyOf(it) }
+
+        private fun String.isKeyOrSubKeyOf(key: String): Boolean =
+            startsWith(key) && (length == key.length || this[key.length] == ':')
+    }
+}
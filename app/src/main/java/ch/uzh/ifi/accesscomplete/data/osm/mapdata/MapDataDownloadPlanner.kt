@@ -0,0 +1,68 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.util.enclosingTilesRect
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.handler.MapDataHandler
+import kotlin.math.max
+import kotlin.math.min
+
+/** Plans in which bounding boxes the map data of a bounding box should be requested from the API */
+interface MapDataDownloadPlanner {
+    /** Returns the bounding boxes that together cover the given [bounds] */
+    fun plan(bounds: BoundingBox): List<BoundingBox>
+
+    /** Returns a recorder that is passed the map data of the given [bounds] while it is being
+     *  downloaded or null if the planner is not interested in it. The bounds are not necessarily one
+     *  of the planned bounding boxes, f.e. if one had to be split up */
+    fun createRecorder(bounds: BoundingBox): DownloadRecorder? = null
+}
+
+/** Is passed the map data of one response while it is being downloaded */
+interface DownloadRecorder : MapDataHandler {
+    /** Called once the whole response has been passed. Not called if the download failed, in which
+     *  case a new recorder is used for the next try */
+    fun onComplete()
+}
+
+/** Plans to request the map data in a grid of tiles of the given [zoom] */
+class TileGridDownloadPlanner(private val zoom: Int) : MapDataDownloadPlanner {
+
+    override fun plan(bounds: BoundingBox): List<BoundingBox> {
+        if (bounds.crosses180thMeridian()) return listOf(bounds)
+        return bounds.enclosingTilesRect(zoom).asTileSequence()
+            .mapNotNull { it.asBoundingBox(zoom).intersection(bounds) }
+            .toList()
+    }
+}
+
+/** Returns the intersection of this and the [other] bounding box or null if they do not intersect */
+internal fun BoundingBox.intersection(other: BoundingBox): BoundingBox? {
+    val minLat = max(minLatitude, other.minLatitude)
+    val minLon = max(minLongitude, other.minLongitude)
+    val maxLat = min(maxLatitude, other.maxLatitude)
+    val maxLon = min(maxLongitude, other.maxLongitude)
+    if (minLat >= maxLat || minLon >= maxLon) return null
+    return BoundingBox(minLat, minLon, maxLat, maxLon)
+}
@@ -0,0 +1,35 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmElementQuestType
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.handler.MapDataHandler
+
+/** Source of the map data from which quests are created */
+interface MapDataSource {
+    /** Passes at least all the map data in the given [bounds] that is necessary to create the
+     *  quests of the given [questTypes] to the [handler]. Nodes are passed before ways, ways before
+     *  relations. */
+    fun download(bounds: BoundingBox, questTypes: List<OsmElementQuestType<*>>, handler: MapDataHandler)
+}
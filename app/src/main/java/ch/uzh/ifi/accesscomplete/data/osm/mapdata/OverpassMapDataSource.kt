@@ -0,0 +1,187 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import android.util.Log
+import ch.uzh.ifi.accesscomplete.data.elementfilter.toGlobalOverpassBBox
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmElementQuestType
+import de.westnordost.osmapi.ApiRequestWriter
+import de.westnordost.osmapi.ApiResponseReader
+import de.westnordost.osmapi.OsmConnection
+import de.westnordost.osmapi.common.errors.OsmApiException
+import de.westnordost.osmapi.common.errors.OsmConnectionException
+import de.westnordost.osmapi.map.MapDataFactory
+import de.westnordost.osmapi.map.MapDataParser
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.handler.MapDataHandler
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.URLEncoder
+
+/** Downloads only those elements that match the download filters of the quest types (plus the
+ *  nodes and members they consist of) from an Overpass API in one query.
+ *
+ *  If any of the quest types requires the surrounding data or has no download filter that can be
+ *  expressed in Overpass QL, or if the Overpass API is not reachable, is overloaded or returned
+ *  incomplete data, the map data is downloaded from the [fallback] instead.
+ *
+ *  Overpass reports that a query ran out of time or memory only with a remark in a response that
+ *  is otherwise successful, but then contains only part of the data. Quests that are missing in
+ *  the downloaded data are deleted, so such a response must never be taken as complete. */
+class OverpassMapDataSource(
+    private val overpass: OsmConnection,
+    private val mapDataFactory: MapDataFactory,
+    private val fallback: MapDataSource
+) : MapDataSource {
+
+    override fun download(bounds: BoundingBox, questTypes: List<OsmElementQuestType<*>>, handler: MapDataHandler) {
+        val query = createQuery(bounds, questTypes)
+        if (query == null) {
+            fallback.download(bounds, questTypes, handler)
+            return
+        }
+        val reader = CompletenessCheckingReader(MapDataParser(handler, mapDataFactory))
+        try {
+            overpass.makeRequest("interpreter", "POST", false, QueryWriter(query), reader)
+        } catch (e: OsmConnectionException) {
+            Log.w(TAG, "Unable to reach Overpass, downloading all map data instead: ${e.message}")
+            fallback.download(bounds, questTypes, handler)
+            return
+        } catch (e: OsmApiException) {
+            // f.e. too many requests (429) or gateway timeout (504)
+            Log.w(TAG, "Overpass refused the query, downloading all map data instead: ${e.message}")
+            fallback.download(bounds, questTypes, handler)
+            return
+        }
+        if (reader.hasRemark || !reader.isComplete) {
+            // elements that have already been passed on are passed on again, the handler needs to cope with that
+            Log.w(TAG, "Overpass returned incomplete data, downloading all map data instead")
+            fallback.download(bounds, questTypes, handler)
+        }
+    }
+
+    /** Returns the query for all elements the given [questTypes] could create quests for in the
+     *  given [bounds] or null if there is no such query */
+    fun createQuery(bounds: BoundingBox, questTypes: List<OsmElementQuestType<*>>): String? {
+        if (questTypes.any { it.requiresSurroundingData }) return null
+        val filterQueries = questTypes.map { questType ->
+            val filter = questType.downloadFilter ?: return null
+            try {
+                filter.toOverpassQLString()
+            } catch (e: UnsupportedOperationException) {
+                return null
+            }
+        }
+        val result = StringBuilder()
+        // the limits are given explicitly so that they do not depend on the defaults of the server
+        result.append("[timeout:$QUERY_TIMEOUT_SECONDS][maxsize:$QUERY_MAX_SIZE_BYTES]")
+        result.append(bounds.toGlobalOverpassBBox()).append("\n")
+        // each filter query leaves its result in the default set, so it is saved in its own set
+        filterQueries.forEachIndexed { i, filterQuery ->
+            result.append(filterQuery)
+            result.append("(._;) -> .q$i;\n")
+        }
+        result.append("(" + filterQueries.indices.joinToString(" ") { ".q$it;" } + ");\n")
+        // the nodes of the ways and the members of the relations are necessary for their geometry
+        result.append("(._; >;);\n")
+        result.append("out meta;\n")
+        return result.toString()
+    }
+
+    private class QueryWriter(private val query: String) : ApiRequestWriter {
+        override fun getContentType() = "application/x-www-form-urlencoded"
+
+        override fun write(out: OutputStream) {
+            out.write(("data=" + URLEncoder.encode(query, "UTF-8")).toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    /** Passes the response on to the given [reader] and meanwhile looks out for whether it
+     *  contains a remark and whether it is complete, i.e. ends with the closing osm tag */
+    private class CompletenessCheckingReader(private val reader: ApiResponseReader<Void>) : ApiResponseReader<Void> {
+        @Volatile var hasRemark = false
+            private set
+        @Volatile var isComplete = false
+            private set
+
+        override fun parse(input: InputStream): Void? {
+            val remark = BytePatternMatcher("<remark")
+            val end = BytePatternMatcher("</osm>")
+            val scanningInput = object : FilterInputStream(input) {
+                override fun read(): Int {
+                    val b = super.read()
+                    if (b >= 0) scan(b)
+                    return b
+                }
+
+                override fun read(b: ByteArray, off: Int, len: Int): Int {
+                    val count = super.read(b, off, len)
+                    for (i in off until off + count) scan(b[i].toInt())
+                    return count
+                }
+
+                private fun scan(b: Int) {
+                    if (remark.matches(b)) hasRemark = true
+                    if (end.matches(b)) isComplete = true
+                }
+            }
+            try {
+                reader.parse(scanningInput)
+            } catch (e: RuntimeException) {
+                // a response that has been cut off can not be parsed, which is handled like any
+                // other incomplete response
+                if (isComplete) throw e
+            }
+            return null
+        }
+    }
+
+    /** Finds a byte sequence in a stream of bytes fed into it one by one */
+    private class BytePatternMatcher(pattern: String) {
+        private val pattern = pattern.toByteArray(Charsets.UTF_8)
+        private var matched = 0
+
+        /** Returns whether the pattern has been found with the given byte */
+        fun matches(b: Int): Boolean {
+            // the patterns used here do not start with a part of themselves, so on a mismatch, the
+            // match can only start anew at this byte
+            if ((b and 0xff).toByte() != pattern[matched]) matched = 0
+            if ((b and 0xff).toByte() == pattern[matched]) matched++
+            if (matched == pattern.size) {
+                matched = 0
+                return true
+            }
+            return false
+        }
+    }
+
+    companion object {
+        private const val TAG = "OverpassMapDataSource"
+
+        /** How long Overpass may take at most to answer the query */
+        const val QUERY_TIMEOUT_SECONDS = 180
+        /** How much memory Overpass may use at most to answer the query */
+        const val QUERY_MAX_SIZE_BYTES = 512 * 1024 * 1024
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import android.util.Log
+import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmElementQuestType
+import ch.uzh.ifi.accesscomplete.util.LongIntHashMap
+import de.westnordost.osmapi.common.errors.OsmConnectionException
+import de.westnordost.osmapi.common.errors.OsmQueryTooBigException
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
+import de.westnordost.osmapi.map.handler.MapDataHandler
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/** Downloads the map data of a bounding box from the OSM API in several smaller bounding boxes
+ *  which are planned by the given [planner] and fetched concurrently.
+ *
+ *  The response of each sub-request is passed on to the handler while it is being parsed, so that
+ *  the data of a sub-request is never held in memory in full. Elements that are part of several
+ *  responses (i.e. nodes, ways and relations crossing the border between two sub-bboxes) or that
+ *  were already passed on in a failed try of a sub-request that is retried are passed on only
+ *  once. The data of each response is passed on in the same order as the OSM API returns it: first
+ *  nodes, then ways, then relations. */
+class ParallelMapDataDownloader(
+    private val mapDataApi: MapDataApi,
+    private val planner: MapDataDownloadPlanner,
+    private val parallelism: Int = 4,
+    private val maxRetries: Int = 2
+) : MapDataSource {
+    init {
+        require(parallelism > 0) { "parallelism must be positive" }
+        require(maxRetries >= 0) { "maxRetries must not be negative" }
+    }
+
+    /** Downloads all map data in the given [bounds], regardless of the quest types */
+    override fun download(bounds: BoundingBox, questTypes: List<OsmElementQuestType<*>>, handler: MapDataHandler) {
+        download(bounds, handler)
+    }
+
+    /** Downloads all map data in the given [bounds] and passes it to the given [handler]. The
+     *  handler is never called concurrently. The bounds of the sub-requests are not passed on. */
+    fun download(bounds: BoundingBox, handler: MapDataHandler) {
+        val merger = DistinctMapDataMerger(handler)
+        val semaphore = Semaphore(parallelism)
+        runBlocking {
+            for (subBounds in planner.plan(bounds)) {
+                launch(Dispatchers.IO) { download(subBounds, semaphore, merger) }
+            }
+        }
+    }
+
+    private suspend fun download(bounds: BoundingBox, semaphore: Semaphore, merger: DistinctMapDataMerger) {
+        // the permit is only held for the request itself, not while waiting for the sub-requests
+        val isDownloaded = semaphore.withPermit { getMapWithRetry(bounds, merger) }
+        if (!isDownloaded) {
+            coroutineScope {
+                for (subBounds in bounds.splitIntoFour()) {
+                    launch { download(subBounds, semaphore, merger) }
+                }
+            }
+        }
+    }
+
+    /** Passes the map data in the given [bounds] to the [merger]. Returns false if the area is too
+     *  big to be queried at once */
+    private fun getMapWithRetry(bounds: BoundingBox, merger: DistinctMapDataMerger): Boolean {
+        var tries = 0
+        while (true) {
+            val recorder = planner.createRecorder(bounds)
+            try {
+                mapDataApi.getMap(bounds, merger.createResponseHandler(recorder))
+                recorder?.onComplete()
+                return true
+            } catch (e: OsmQueryTooBigException) {
+                return false
+            } catch (e: OsmConnectionException) {
+                if (++tries > maxRetries) throw e
+                Log.w(TAG, "Retrying download of $bounds after: ${e.message}")
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "MapDataDownload"
+    }
+}
+
+/** Passes the data of several map data responses to the [handler], each element only once */
+private class DistinctMapDataMerger(private val handler: MapDataHandler) {
+    private val nodeIds = LongIntHashMap(4096)
+    private val wayIds = LongIntHashMap(1024)
+    private val relationIds = LongIntHashMap(64)
+
+    /** Returns a handler for one response that passes on its data, and all of it to the given
+     *  [recorder] */
+    fun createResponseHandler(recorder: MapDataHandler?) = object : MapDataHandler {
+        override fun handle(bounds: BoundingBox) {}
+        override fun handle(node: Node) {
+            recorder?.handle(node)
+            merge(node)
+        }
+        override fun handle(way: Way) {
+            recorder?.handle(way)
+            merge(way)
+        }
+        override fun handle(relation: Relation) {
+            recorder?.handle(relation)
+            merge(relation)
+        }
+    }
+
+    @Synchronized private fun merge(node: Node) {
+        if (nodeIds.containsKey(node.id)) return
+        nodeIds.put(node.id, node.version)
+        handler.handle(node)
+    }
+
+    @Synchronized private fun merge(way: Way) {
+        if (wayIds.containsKey(way.id)) return
+        wayIds.put(way.id, way.version)
+        handler.handle(way)
+    }
+
+    @Synchronized private fun merge(relation: Relation) {
+        if (relationIds.containsKey(relation.id)) return
+        relationIds.put(relation.id, relation.version)
+        handler.handle(relation)
+    }
+}
+
+fun BoundingBox.splitIntoFour(): List<BoundingBox> {
+    val center = OsmLatLon((maxLatitude + minLatitude) / 2, (maxLongitude + minLongitude) / 2)
+    return listOf(
+        BoundingBox(minLatitude,     minLongitude,     center.latitude, center.longitude),
+        BoundingBox(minLatitude,     center.longitude, center.latitude, maxLongitude),
+        BoundingBox(center.latitude, minLongitude,     maxLatitude,     center.longitude),
+        BoundingBox(center.latitude, center.longitude, maxLatitude,     maxLongitude)
+    )
+}
@@ -26,14 +26,9 @@ import android.database.Cursor
 import android.database.sqlite.SQLiteOpenHelper
 import androidx.core.content.contentValuesOf
 import de.westnordost.osmapi.map.data.*
-import ch.uzh.ifi.accesscomplete.data.ObjectRelationalMapping
-
-import java.util.ArrayList
-import java.util.HashMap
 
 import javax.inject.Inject
 
-import ch.uzh.ifi.accesscomplete.util.Serializer
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationTable.Columns.ID
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationTable.Columns.MEMBERS
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.RelationTable.Columns.TAGS
@@ -48,22 +43,26 @@ class RelationDao @Inject constructor(dbHelper: SQLiteOpenHelper, override val m
     override val tableName = NAME
     override val idColumnName = ID
     override val elementTypeName = Element.Type.RELATION.name
+
+    override fun putReferencedData(elements: Collection<Relation>) {
+        mapping.codec.putDictionaryEntries(elements)
+    }
 }
 
-class RelationMapping @Inject constructor(private val serializer: Serializer)
-    : ObjectRelationalMapping<Relation> {
+class RelationMapping @Inject constructor(override val codec: ElementCodec)
+    : ElementMapping<Relation> {
 
     override fun toContentValues(obj: Relation) = contentValuesOf(
         ID to obj.id,
         VERSION to obj.version,
-        MEMBERS to serializer.toBytes(ArrayList(obj.members)),
-        TAGS to obj.tags?.let { serializer.toBytes(HashMap(it)) }
+        MEMBERS to codec.encodeMembers(obj.members),
+        TAGS to obj.tags?.let { codec.encodeTags(it) }
     )
 
     override fun toObject(cursor: Cursor) = OsmRelation(
         cursor.getLong(ID),
         cursor.getInt(VERSION),
-        serializer.toObject<ArrayList<OsmRelationMember>>(cursor.getBlob(MEMBERS)) as List<RelationMember>,
-        cursor.getBlobOrNull(TAGS)?.let { serializer.toObject<HashMap<String, String>>(it) }
+        codec.decodeMembers(cursor.getBlob(MEMBERS)),
+        cursor.getBlobOrNull(TAGS)?.let { codec.decodeTags(it) }
     )
 }
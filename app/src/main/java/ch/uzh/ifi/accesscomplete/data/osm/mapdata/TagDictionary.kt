@@ -0,0 +1,115 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteDatabase.CONFLICT_IGNORE
+import android.database.sqlite.SQLiteOpenHelper
+import androidx.core.content.contentValuesOf
+import ch.uzh.ifi.accesscomplete.data.bulkInsert
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionaryTable.Columns.ID
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionaryTable.Columns.STRING
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.TagDictionaryTable.NAME
+import ch.uzh.ifi.accesscomplete.ktx.query
+import java.util.BitSet
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** Dictionary of the strings that occur over and over again in OSM data, like tag keys, common tag
+ *  values and relation member roles, so that they are stored only once and the element rows refer
+ *  to them by a small integer id. See [ElementCodec].
+ *
+ *  Ids are assigned in memory and have to be written to the database with [persist] before (or in
+ *  the same transaction as) the rows that refer to them. An entry is written again each time until
+ *  it has been written outside of a transaction, as any transaction could still be rolled back.
+ *  Entries are never removed, the dictionary only grows by the vocabulary of new tags.
+ *
+ *  It is used within the transactions of the element daos, so the database is never accessed while
+ *  holding the lock of the dictionary: Ids are assigned under the lock, but read and written
+ *  outside of it. Otherwise, a thread holding the lock could wait for the database connection
+ *  while the thread owning the transaction waits for the lock. */
+@Singleton class TagDictionary(private val getDatabase: () -> SQLiteDatabase) {
+
+    @Inject constructor(dbHelper: SQLiteOpenHelper) : this({ dbHelper.writableDatabase })
+
+    private val idsByString = HashMap<String, Int>()
+    private val stringsById = ArrayList<String?>()
+    private val isCommitted = BitSet()
+    @Volatile private var isLoaded = false
+
+    /** Returns the id of the given string, assigning a new one if it has none yet */
+    fun getId(string: String): Int {
+        loadAll()
+        return synchronized(this) { getOrAssignId(string) }
+    }
+
+    /** Returns the string with the given id */
+    fun getString(id: Int): String {
+        loadAll()
+        return synchronized(this) { stringsById.getOrNull(id) }
+            ?: throw IllegalStateException("Unknown tag dictionary id $id")
+    }
+
+    /** Writes the entries for the given strings to the database, if necessary */
+    fun persist(strings: Collection<String>) {
+        loadAll()
+        val uncommittedIds = synchronized(this) {
+            strings.mapNotNullTo(HashSet()) { string ->
+                getOrAssignId(string).takeUnless { isCommitted[it] }
+            }
+        }
+        if (uncommittedIds.isEmpty()) return
+        val db = getDatabase()
+        val isCommittedAfterwards = !db.inTransaction()
+        // several threads might write the same entries, but the ids are the same anyway
+        db.bulkInsert(NAME, CONFLICT_IGNORE) { inserter ->
+            for (id in uncommittedIds) {
+                inserter.insert(contentValuesOf(ID to id, STRING to getString(id)))
+            }
+        }
+        if (isCommittedAfterwards) synchronized(this) {
+            for (id in uncommittedIds) isCommitted.set(id)
+        }
+    }
+
+    private fun getOrAssignId(string: String): Int =
+        idsByString.getOrPut(string) {
+            stringsById.add(string)
+            stringsById.size - 1
+        }
+
+    private fun loadAll() {
+        if (isLoaded) return
+        val entries = getDatabase().query(NAME, arrayOf(ID, STRING)) { it.getInt(0) to it.getString(1) }
+        synchronized(this) {
+            // another thread might have been faster
+            if (isLoaded) return
+            for ((id, string) in entries) {
+                while (stringsById.size <= id) stringsById.add(null)
+                stringsById[id] = string
+                idsByString[string] = id
+                isCommitted.set(id)
+            }
+            isLoaded = true
+        }
+    }
+}
@@ -104,8 +104,7 @@ abstract class AbstractPedestrianAccessibleWayFilterQuestType<T> : OsmElementQue
     protected fun getResurveyCondition(): String = "older today -8 years"
 
     override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
-        val candidates = mapData.ways
-            .filter { getBaseFilterExpression().matches(it) }
+        val candidates = getBaseFilterExpression().getMatchingWays(mapData)
             .filter { pedestrianAccessibleWayFilter.matches(it) }
 
         if (!supportTaggingBySidewalkSide()) {
@@ -143,7 +142,7 @@ abstract class AbstractPedestrianAccessibleWayFilterQuestType<T> : OsmElementQue
         }
 
         if (!supportTaggingBySidewalkSide()) {
-            return osmKeyAbsenceFilter.matches(element)
+            return sidewalkAbsenceFilter.matches(element) && osmKeyAbsenceFilter.matches(element)
         }
 
         return when {
@@ -154,6 +153,11 @@ abstract class AbstractPedestrianAccessibleWayFilterQuestType<T> : OsmElementQue
         }
     }
 
+    override val requiresSurroundingData: Boolean get() = false
+
+    // all the other filters only narrow down the ways matched by the base filter
+    override val downloadFilter: ElementFilterExpression? get() = getBaseFilterExpression()
+
     protected fun hasSidewalk(tags: Map<String, String>): Boolean {
         return hasSidewalkLeft(tags) || hasSidewalkRight(tags) || hasSidewalkBoth(tags)
     }
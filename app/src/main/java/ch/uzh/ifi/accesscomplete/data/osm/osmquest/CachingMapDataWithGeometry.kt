@@ -22,45 +22,98 @@
 
 package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 
+import ch.uzh.ifi.osmapi.map.ElementTagIndex
+import ch.uzh.ifi.osmapi.map.MapDataStore
 import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
 import ch.uzh.ifi.osmapi.map.MutableMapData
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
+import de.westnordost.osmapi.map.data.Element
 import java.util.concurrent.ConcurrentHashMap
-import javax.inject.Inject
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
 
 /** MapDataWithGeometry that lazily creates the element geometry. Will create incomplete (relation)
- *  geometry */
-class CachingMapDataWithGeometry @Inject constructor(
-    private val elementGeometryCreator: ElementGeometryCreator
-) : MutableMapData(), MapDataWithGeometry {
+ *  geometry. The elements themselves are kept in the given [mapData] store.
+ *
+ *  The geometry of each element is created only once, even if it is requested by several threads
+ *  at the same time. Only the threads that want the geometry of the same element wait for each
+ *  other while it is being created. */
+class CachingMapDataWithGeometry(
+    private val elementGeometryCreator: ElementGeometryCreator,
+    private val mapData: MapDataStore = MutableMapData()
+) : MapDataStore by mapData, MapDataWithGeometry {
+
+    private val nodeGeometriesById: ConcurrentHashMap<Long, Lazy<ElementPointGeometry?>> = ConcurrentHashMap()
+    private val wayGeometriesById: ConcurrentHashMap<Long, Lazy<ElementGeometry?>> = ConcurrentHashMap()
+    private val relationGeometriesById: ConcurrentHashMap<Long, Lazy<ElementGeometry?>> = ConcurrentHashMap()
+
+    @Volatile override var tagIndex: ElementTagIndex? = null
+        private set
 
-    private val nodeGeometriesById: ConcurrentHashMap<Long, Optional<ElementPointGeometry>> = ConcurrentHashMap()
-    private val wayGeometriesById: ConcurrentHashMap<Long, Optional<ElementGeometry>> = ConcurrentHashMap()
-    private val relationGeometriesById: ConcurrentHashMap<Long, Optional<ElementGeometry>> = ConcurrentHashMap()
+    /** Builds the index of the elements by their tags. Should be called once all data is there,
+     *  as data added after that is not indexed */
+    fun buildTagIndex() {
+        tagIndex = ElementTagIndex(mapData)
+    }
 
     override fun getNodeGeometry(id: Long): ElementPointGeometry? {
-        val node = nodesById[id] ?: return null
-        return nodeGeometriesById.getOrPut(id, {
-            Optional(elementGeometryCreator.create(node))
-        }).value
+        val node = mapData.getNode(id) ?: return null
+        return nodeGeometriesById.getOrCreate(id) { elementGeometryCreator.create(node) }
     }
 
     override fun getWayGeometry(id: Long): ElementGeometry? {
-        val way = waysById[id] ?: return null
-        return wayGeometriesById.getOrPut(id, {
-            Optional(elementGeometryCreator.create(way, this, true))
-        }).value
+        val way = mapData.getWay(id) ?: return null
+        return wayGeometriesById.getOrCreate(id) { elementGeometryCreator.create(way, this, true) }
     }
 
     override fun getRelationGeometry(id: Long): ElementGeometry? {
-        val relation = relationsById[id] ?: return null
-        return relationGeometriesById.getOrPut(id, {
-            Optional(elementGeometryCreator.create(relation, this, true))
-        }).value
+        val relation = mapData.getRelation(id) ?: return null
+        return relationGeometriesById.getOrCreate(id) { elementGeometryCreator.create(relation, this, true) }
+    }
+
+    /** Creates the geometry of all the given [elements] in parallel on the given [pool], so that
+     *  getting their geometry afterwards is just a lookup. Geometry that has already been created
+     *  is not created again */
+    fun createGeometries(elements: Collection<Element>, pool: ForkJoinPool = ForkJoinPool.commonPool()) {
+        if (elements.isEmpty()) return
+        val array = elements.toTypedArray()
+        pool.invoke(CreateGeometriesTask(array, 0, array.size))
+    }
+
+    /** Splits the given range of elements in halves until it is small enough to be worked off in
+     *  one go. Idle threads of the pool take over the halves that have not been started yet */
+    private inner class CreateGeometriesTask(
+        private val elements: Array<Element>,
+        private val from: Int,
+        private val to: Int
+    ) : RecursiveAction() {
+        override fun compute() {
+            if (to - from <= CREATE_GEOMETRIES_BATCH_SIZE) {
+                for (i in from until to) {
+                    val element = elements[i]
+                    getGeometry(element.type, element.id)
+                }
+            } else {
+                val middle = (from + to) ushr 1
+                invokeAll(
+                    CreateGeometriesTask(elements, from, middle),
+                    CreateGeometriesTask(elements, middle, to)
+                )
+            }
+        }
     }
 }
 
-// workaround the limitation of ConcurrentHashMap that it cannot store null values by wrapping it
-private class Optional<T>(val value: T?)
+private const val CREATE_GEOMETRIES_BATCH_SIZE = 64
+
+/** Returns the value for the given [id], which is created with [create] if there is none yet.
+ *
+ *  Unlike ConcurrentHashMap.computeIfAbsent, this does not block other keys (of the same bin) while
+ *  the value is being created, and the value can be null */
+private inline fun <T> ConcurrentHashMap<Long, Lazy<T?>>.getOrCreate(id: Long, crossinline create: () -> T?): T? {
+    get(id)?.let { return it.value }
+    val value = lazy { create() }
+    return (putIfAbsent(id, value) ?: value).value
+}
@@ -0,0 +1,148 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.DateFilterContext
+import ch.uzh.ifi.osmapi.map.MapData
+import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
+import de.westnordost.osmapi.map.data.Element
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.util.EnumMap
+
+/** Finds out for which elements quests of the given quest types can be created by looking at each
+ *  element only once instead of once per quest type.
+ *
+ *  Each element is only checked against those quest types whose download filter includes its
+ *  element type and whose download filter requires a key that the element has. For this, a table
+ *  from key to the quest types that require this key is built up front.
+ *
+ *  The quest types must not require the surrounding data of an element. */
+class FusedQuestEvaluator(questTypes: List<OsmElementQuestType<*>>) {
+
+    private val dispatchTables = EnumMap<Element.Type, DispatchTable>(Element.Type::class.java)
+
+    init {
+        for (elementType in Element.Type.values()) {
+            dispatchTables[elementType] = DispatchTable()
+        }
+        for (questType in questTypes) {
+            require(!questType.requiresSurroundingData) {
+                "${questType.javaClass.simpleName} requires the surrounding data"
+            }
+            val filter = questType.downloadFilter
+            // it is enough to dispatch by one of the required keys
+            val key = filter?.requiredKeys?.firstOrNull()
+            for (elementType in Element.Type.values()) {
+                if (filter != null && !filter.includesElementType(elementType)) continue
+                val table = dispatchTables.getValue(elementType)
+                if (key != null) table.byKey.getOrPut(key) { ArrayList() }.add(questType)
+                else table.always.add(questType)
+            }
+        }
+    }
+
+    /** Calls [onApplicable] for each quest type a quest could be created of for the given
+     *  [element] */
+    fun evaluate(element: Element, onApplicable: (OsmElementQuestType<*>) -> Unit) {
+        val table = dispatchTables[element.type] ?: return
+        for (questType in table.always) {
+            if (questType.isApplicableTo(element) == true) onApplicable(questType)
+        }
+        if (table.byKey.isEmpty()) return
+        val tags = element.tags ?: return
+        // look up whichever is less
+        if (tags.size <= table.byKey.size) {
+            for (key in tags.keys) {
+                val questTypes = table.byKey[key] ?: continue
+                evaluateAll(element, questTypes, onApplicable)
+            }
+        } else {
+            for ((key, questTypes) in table.byKey) {
+                if (!tags.containsKey(key)) continue
+                evaluateAll(element, questTypes, onApplicable)
+            }
+        }
+    }
+
+    private fun evaluateAll(element: Element, questTypes: List<OsmElementQuestType<*>>, onApplicable: (OsmElementQuestType<*>) -> Unit) {
+        for (questType in questTypes) {
+            if (questType.isApplicableTo(element) == true) onApplicable(questType)
+        }
+    }
+
+    /** Calls [onApplicable] for each element in [mapData] and each quest type a quest could be
+     *  created of for that element. The map data is evaluated in parallel in chunks of
+     *  [chunkSize] elements, so [onApplicable] is called concurrently.
+     *
+     *  If the map data has a tag index, only the elements that have the keys required by the quest
+     *  types are looked at. Otherwise, every element is, which for a PackedMapData means that an
+     *  object is created for every untagged node. */
+    fun evaluate(
+        mapData: MapDataWithGeometry,
+        chunkSize: Int = 5000,
+        onApplicable: (OsmElementQuestType<*>, Element) -> Unit
+    ) {
+        val tagIndex = mapData.tagIndex
+        // date filters must be evaluated in the date filter context of the calling thread
+        runBlocking(DateFilterContext.asContextElement()) {
+            for (elementType in Element.Type.values()) {
+                val table = dispatchTables.getValue(elementType)
+                // quest types without required keys could be applicable to any element
+                if (tagIndex == null || table.always.isNotEmpty()) {
+                    for (chunk in mapData.getElements(elementType).chunked(chunkSize)) {
+                        launch(Dispatchers.Default) {
+                            for (element in chunk) {
+                                evaluate(element) { questType -> onApplicable(questType, element) }
+                            }
+                        }
+                    }
+                } else {
+                    for ((key, questTypes) in table.byKey) {
+                        for (chunk in tagIndex.getElements(elementType, key).chunked(chunkSize)) {
+                            launch(Dispatchers.Default) {
+                                for (element in chunk) {
+                                    evaluateAll(element, questTypes) { questType -> onApplicable(questType, element) }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private class DispatchTable {
+        /** quest types that any element of this element type needs to be checked against */
+        val always = ArrayList<OsmElementQuestType<*>>()
+        /** quest types that only elements with the key need to be checked against */
+        val byKey = HashMap<String, MutableList<OsmElementQuestType<*>>>()
+    }
+}
+
+private fun MapData.getElements(elementType: Element.Type): Collection<Element> = when (elementType) {
+    Element.Type.NODE -> nodes
+    Element.Type.WAY -> ways
+    Element.Type.RELATION -> relations
+}
@@ -25,25 +25,22 @@ package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 import android.util.Log
 import ch.uzh.ifi.countryboundaries.intersects
 import ch.uzh.ifi.countryboundaries.isInAny
-import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
-import ch.uzh.ifi.osmapi.map.getRelationComplete
-import ch.uzh.ifi.osmapi.map.isRelationComplete
 import de.westnordost.countryboundaries.CountryBoundaries
-import de.westnordost.osmapi.common.errors.OsmQueryTooBigException
 import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.Element
-import de.westnordost.osmapi.map.data.Element.Type.*
 import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.Node
 import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
 import de.westnordost.osmapi.map.handler.MapDataHandler
-import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.DateFilterContext
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
-import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.MapDataSource
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.MergedElementDao
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NotePositionsSource
-import ch.uzh.ifi.accesscomplete.data.quest.QuestType
-import ch.uzh.ifi.accesscomplete.util.measuredLength
+import ch.uzh.ifi.accesscomplete.data.quest.getName
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
@@ -55,84 +52,149 @@ import java.util.concurrent.FutureTask
 import javax.inject.Inject
 import javax.inject.Provider
 
-/** Does one API call to get all the map data and generates quests from that. Calls getApplicableElements
- *  on all the quest types */
+/** Downloads the map data necessary for the given quest types and generates quests from that.
+ *  Quests of quest types that do not require the surrounding data are already created while the
+ *  data is being parsed, for all other quest types, getApplicableElements is called once all data
+ *  is there */
 class OsmApiQuestDownloader @Inject constructor(
     private val elementDB: MergedElementDao,
     private val osmQuestController: OsmQuestController,
     private val countryBoundariesFuture: FutureTask<CountryBoundaries>,
     private val notePositionsSource: NotePositionsSource,
-    private val mapDataApi: MapDataApi,
+    private val mapDataSource: MapDataSource,
     private val mapDataWithGeometry: Provider<CachingMapDataWithGeometry>,
-    private val elementGeometryCreator: ElementGeometryCreator
+    private val relationGeometriesCreator: RelationGeometriesCreator
 ) : CoroutineScope by CoroutineScope(Dispatchers.Default) {
 
+    /** Whether quests of quest types that do not require the surrounding data of an element are
+     *  already created while the map data is being downloaded */
+    var isStreamingEvaluationEnabled = true
+
     fun download(questTypes: List<OsmElementQuestType<*>>, bbox: BoundingBox) {
         if (questTypes.isEmpty()) return
+        // all elements of one download are evaluated against the same point in time
+        DateFilterContext.frozen { downloadAndCreateQuests(questTypes, bbox) }
+    }
 
-        var time = System.currentTimeMillis()
-
-        val completeRelationGeometries = mutableMapOf<Long, ElementGeometry?>()
-
-        val mapData = mapDataWithGeometry.get()
-        getMapAndHandleTooBigQuery(bbox, mapData)
-        // bbox should be the bbox of the complete download
-        mapData.handle(bbox)
+    private fun downloadAndCreateQuests(questTypes: List<OsmElementQuestType<*>>, bbox: BoundingBox) {
+        val timings = PhaseTimings()
 
         val quests = ConcurrentLinkedQueue<OsmQuest>()
         val questElements = Collections.newSetFromMap(ConcurrentHashMap<Element, Boolean>(5000))
 
-        val secondsSpentDownloading = (System.currentTimeMillis() - time) / 1000
-        Log.i(TAG,"Downloaded ${mapData.nodes.size} nodes, ${mapData.ways.size} ways and ${mapData.relations.size} relations in ${secondsSpentDownloading}s")
-        time = System.currentTimeMillis()
-
         val truncatedBlacklistedPositions = notePositionsSource.getAllPositions(bbox).map { it.truncateTo5Decimals() }.toSet()
 
         val countryBoundaries = countryBoundariesFuture.get()
 
-        runBlocking {
-            for (questType in questTypes) {
+        val enabledQuestTypes = questTypes.filter { questType ->
+            val isEnabled = countryBoundaries.intersects(bbox, questType.enabledInCountries)
+            if (!isEnabled) {
+                Log.d(TAG, "${questType.getName()}: Skipped because it is disabled for this country")
+            }
+            isEnabled
+        }
+
+        /* quest types that can be decided by looking at each element alone are evaluated
+           together in one pass over the data, right while the data is being parsed. Only the
+           others have to wait until all data is there */
+        val (deferredQuestTypes, localQuestTypes) = enabledQuestTypes.partition { it.requiresSurroundingData }
+        val localQuestsEvaluator = FusedQuestEvaluator(localQuestTypes)
+        val isStreaming = isStreamingEvaluationEnabled && localQuestTypes.isNotEmpty()
+
+        val mapData = mapDataWithGeometry.get()
+        val streamingEvaluator = StreamingQuestEvaluator(mapData, localQuestsEvaluator) { questType, element, geometry ->
+            val quest = createQuest(questType, element, geometry, truncatedBlacklistedPositions)
+            if (quest != null) {
+                quests.add(quest)
+                questElements.add(element)
+            }
+        }
+        mapDataSource.download(bbox, enabledQuestTypes, if (isStreaming) streamingEvaluator else mapData)
+        // bbox should be the bbox of the complete download
+        mapData.handle(bbox)
+        // the quest types that need to look at the whole data mostly look for only few elements
+        mapData.buildTagIndex()
+
+        Log.i(TAG,"Downloaded ${mapData.nodes.size} nodes, ${mapData.ways.size} ways and ${mapData.relations.size} relations")
+        if (isStreaming) {
+            Log.i(TAG,"Created ${quests.size} quests of ${localQuestTypes.size} quest types while downloading")
+        }
+        timings.endPhase("downloading")
+
+        // relations that were found to be applicable still lack their complete geometry
+        val applicableRelations = ConcurrentLinkedQueue(streamingEvaluator.applicableRelations)
+        // the geometry of the other elements is only created after all quest types have been evaluated
+        val applicableElements = ConcurrentLinkedQueue<Pair<OsmElementQuestType<*>, Element>>()
+
+        if (!isStreaming && localQuestTypes.isNotEmpty()) {
+            localQuestsEvaluator.evaluate(mapData) { questType, element ->
+                if (element is Relation) {
+                    applicableRelations.add(questType to element)
+                } else {
+                    applicableElements.add(questType to element)
+                }
+            }
+        }
+
+        runBlocking(DateFilterContext.asContextElement()) {
+            for (questType in deferredQuestTypes) {
                 launch(Dispatchers.Default) {
                     val questTypeName = questType.getName()
-                    if (!countryBoundaries.intersects(bbox, questType.enabledInCountries)) {
-                        Log.d(TAG, "$questTypeName: Skipped because it is disabled for this country")
-                    } else {
-                        var i = 0
-                        val questTime = System.currentTimeMillis()
-                        for (element in questType.getApplicableElements(mapData)) {
-                            val geometry = getCompleteGeometry(element.type, element.id, mapData, completeRelationGeometries)
-                            val quest = createQuest(questType, element, geometry, truncatedBlacklistedPositions) ?: continue
-
-                            quests.add(quest)
-                            questElements.add(element)
-                            ++i
+                    var i = 0
+                    val questTime = System.currentTimeMillis()
+                    for (element in questType.getApplicableElements(mapData)) {
+                        if (element is Relation) {
+                            applicableRelations.add(questType to element)
+                        } else {
+                            applicableElements.add(questType to element)
                         }
-                        Log.d(TAG, "$questTypeName: Found $i quests in ${System.currentTimeMillis() - questTime}ms")
+                        ++i
                     }
+                    Log.d(TAG, "$questTypeName: Found $i applicable elements in ${System.currentTimeMillis() - questTime}ms")
                 }
             }
         }
-        val secondsSpentAnalyzing = (System.currentTimeMillis() - time) / 1000
+        timings.endPhase("evaluating quest types")
+
+        // each element may be applicable to several quest types, but its geometry is created once
+        mapData.createGeometries(applicableElements.mapTo(HashSet<Element>()) { it.second })
+        timings.endPhase("creating geometries")
 
-        Log.i(TAG,"Created ${quests.size} quests in ${secondsSpentAnalyzing}s")
+        for ((questType, element) in applicableElements) {
+            val geometry = mapData.getGeometry(element.type, element.id)
+            val quest = createQuest(questType, element, geometry, truncatedBlacklistedPositions) ?: continue
 
-        time = System.currentTimeMillis()
+            quests.add(quest)
+            questElements.add(element)
+        }
+        timings.endPhase("creating quests")
 
-        // elements must be put into DB first because quests have foreign keys on it
-        elementDB.putAll(questElements)
+        // relations are downloaded incomplete from the OSM API, we want the complete geometry here
+        val relationGeometries = relationGeometriesCreator.create(applicableRelations.map { it.second.id }, mapData)
+        for ((questType, relation) in applicableRelations) {
+            val quest = createQuest(questType, relation, relationGeometries[relation.id], truncatedBlacklistedPositions) ?: continue
 
-        val questTypeNames = questTypes.map { it.getName() }
-        val replaceResult = osmQuestController.replaceInBBox(quests, bbox, questTypeNames)
+            quests.add(quest)
+            questElements.add(relation)
+        }
+        timings.endPhase("creating relation quests")
 
-        elementDB.deleteUnreferenced()
+        Log.i(TAG,"Created ${quests.size} quests")
+
+        val questTypeNames = questTypes.map { it.getName() }
+        // quests and the elements they refer to are persisted in one transaction
+        val replaceResult = osmQuestController.replaceInBBox(quests, bbox, questTypeNames) {
+            elementDB.putAll(questElements)
+            elementDB.deleteUnreferenced()
+        }
 
         for (questType in questTypes) {
             questType.cleanMetadata()
         }
 
-        val secondsSpentPersisting = (System.currentTimeMillis() - time) / 1000
+        timings.endPhase("persisting")
 
-        Log.i(TAG,"Persisting ${quests.size} quests in ${secondsSpentPersisting}s")
+        Log.i(TAG,"Time spent on $timings")
 
         Log.i(TAG,"Added ${replaceResult.added} new and removed ${replaceResult.deleted} already resolved quests")
     }
@@ -150,7 +212,7 @@ class OsmApiQuestDownloader @Inject constructor(
 
         // do not create quests that refer to geometry that is too long for a surveyor to be expected to survey
         if (geometry is ElementPolylinesGeometry) {
-            val totalLength = geometry.polylines.sumByDouble { it.measuredLength() }
+            val totalLength = geometry.polylines.measuredLength()
             if (totalLength > MAX_GEOMETRY_LENGTH_IN_METERS) {
                 return null
             }
@@ -159,74 +221,89 @@ class OsmApiQuestDownloader @Inject constructor(
         return OsmQuest(questType, element.type, element.id, geometry)
     }
 
-    private fun getCompleteGeometry(
-        elementType: Element.Type,
-        elementId: Long,
-        mapData: MapDataWithGeometry,
-        cache: MutableMap<Long, ElementGeometry?>
-    ): ElementGeometry? {
-        return when(elementType) {
-            NODE -> mapData.getNodeGeometry(elementId)
-            WAY -> mapData.getWayGeometry(elementId)
-            // relations are downloaded incomplete from the OSM API, we want the complete geometry here
-            RELATION -> getCompleteRelationGeometry(elementId, mapData, cache)
-        }
+    companion object {
+        private const val TAG = "QuestDownload"
     }
+}
 
-    private fun getCompleteRelationGeometry(id: Long, mapData: MapDataWithGeometry, cache: MutableMap<Long, ElementGeometry?>): ElementGeometry? {
-        if (!cache.containsKey(id)) {
-            synchronized(cache) {
-                if (!cache.containsKey(id)) {
-                    cache[id] = createCompleteRelationGeometry(id, mapData)
-                }
-            }
-        }
-        return cache[id]
+/** Puts the map data into [mapData] while it is being parsed and meanwhile already evaluates the
+ *  quest types of the given [evaluator]. The OSM API returns first all nodes, then all ways, so the
+ *  geometry of each way is already known once it arrives. The complete geometry of relations
+ *  however is only known after all data is there, so applicable relations are only collected.
+ *
+ *  The data may be handled on other threads than the one this is created on, so the date filter
+ *  context of the thread this is created on is taken along. */
+private class StreamingQuestEvaluator(
+    private val mapData: CachingMapDataWithGeometry,
+    private val evaluator: FusedQuestEvaluator,
+    private val onApplicable: (OsmElementQuestType<*>, Element, ElementGeometry?) -> Unit
+) : MapDataHandler {
+
+    private val dateFilterContext = DateFilterContext.current
+
+    val applicableRelations = ArrayList<Pair<OsmElementQuestType<*>, Relation>>()
+
+    override fun handle(bounds: BoundingBox) {
+        mapData.handle(bounds)
     }
 
-    private fun createCompleteRelationGeometry(id: Long, mapData: MapDataWithGeometry): ElementGeometry? {
-        val isComplete = mapData.isRelationComplete(id)
-        if (isComplete) {
-            // if the relation is already complete within the given mapData, we can just take it from there
-            return mapData.getRelationGeometry(id)
-        } else {
-            // otherwise we need to query the API first and create it from that data instead
-            val completeRelationData = mapDataApi.getRelationComplete(id)
-            val relation = mapData.getRelation(id) ?: return null
-            return elementGeometryCreator.create(relation, completeRelationData, false)
+    override fun handle(node: Node) {
+        // elements may be contained in several responses if the query had to be split up
+        val isNew = mapData.getNode(node.id) == null
+        mapData.handle(node)
+        if (isNew) evaluate(node) { mapData.getNodeGeometry(node.id) }
+    }
+
+    override fun handle(way: Way) {
+        val isNew = mapData.getWay(way.id) == null
+        mapData.handle(way)
+        if (isNew) evaluate(way) { mapData.getWayGeometry(way.id) }
+    }
+
+    override fun handle(relation: Relation) {
+        val isNew = mapData.getRelation(relation.id) == null
+        mapData.handle(relation)
+        if (!isNew) return
+        inDateFilterContext {
+            evaluator.evaluate(relation) { questType ->
+                applicableRelations.add(questType to relation)
+            }
         }
     }
 
-    private fun getMapAndHandleTooBigQuery(bounds: BoundingBox, mapDataHandler: MapDataHandler) {
-        try {
-            mapDataApi.getMap(bounds, mapDataHandler)
-        } catch (e : OsmQueryTooBigException) {
-            for (subBounds in bounds.splitIntoFour()) {
-                getMapAndHandleTooBigQuery(subBounds, mapDataHandler)
+    private fun evaluate(element: Element, createGeometry: () -> ElementGeometry?) {
+        // the geometry is only created if any quest type is applicable
+        val geometry by lazy(LazyThreadSafetyMode.NONE) { createGeometry() }
+        inDateFilterContext {
+            evaluator.evaluate(element) { questType ->
+                onApplicable(questType, element, geometry)
             }
         }
     }
 
-    companion object {
-        private const val TAG = "QuestDownload"
+    private fun inDateFilterContext(block: () -> Unit) {
+        val context = dateFilterContext
+        if (context != null) DateFilterContext.frozen(context, block) else block()
     }
 }
 
-private fun QuestType<*>.getName() = javaClass.simpleName
+/** Measures how long each phase of a download took, one after the other */
+private class PhaseTimings {
+    private val durations = LinkedHashMap<String, Long>()
+    private var phaseStart = System.currentTimeMillis()
+
+    fun endPhase(name: String) {
+        val now = System.currentTimeMillis()
+        durations[name] = now - phaseStart
+        phaseStart = now
+    }
+
+    override fun toString() = durations.entries.joinToString { (name, ms) -> "$name: ${ms}ms" }
+}
 
 // the resulting precision is about ~1 meter (see #1089)
 private fun LatLon.truncateTo5Decimals() = OsmLatLon(latitude.truncateTo5Decimals(), longitude.truncateTo5Decimals())
 
 private fun Double.truncateTo5Decimals() = (this * 1e5).toInt().toDouble() / 1e5
 
-private fun BoundingBox.splitIntoFour(): List<BoundingBox> {
-    val center = OsmLatLon((maxLatitude + minLatitude) / 2, (maxLongitude + minLongitude) / 2)
-    return listOf(
-        BoundingBox(minLatitude,     minLongitude,     center.latitude, center.longitude),
-        BoundingBox(minLatitude,     center.longitude, center.latitude, maxLongitude),
-        BoundingBox(center.latitude, minLongitude,     maxLatitude,     center.longitude),
-        BoundingBox(center.latitude, center.longitude, maxLatitude,     maxLongitude)
-    )
-}
-
 const val MAX_GEOMETRY_LENGTH_IN_METERS = 600
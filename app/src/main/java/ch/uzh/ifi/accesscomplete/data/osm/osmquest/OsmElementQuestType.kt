@@ -24,6 +24,7 @@ package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 
 import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
 import de.westnordost.osmapi.map.data.Element
+import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementFilterExpression
 import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChangesBuilder
 import ch.uzh.ifi.accesscomplete.data.quest.AllCountries
 import ch.uzh.ifi.accesscomplete.data.quest.Countries
@@ -74,6 +75,18 @@ interface OsmElementQuestType<T> : QuestType<T> {
      * not immediately pop up again.*/
     fun isApplicableTo(element: Element): Boolean?
 
+    /** returns whether the data around an element is necessary to find out whether a quest of this
+     *  quest type can be created for it. If not, [getApplicableElements] must return exactly those
+     *  elements for which [isApplicableTo] returns true. Quests of such quest types can already
+     *  be created while the map data is still being downloaded. */
+    val requiresSurroundingData: Boolean get() = true
+
+    /** returns a filter that matches at least all elements a quest of this quest type could be
+     *  created for or null if there is no such filter. If there is one for every quest type that
+     *  does not require the surrounding data, only the elements matching these filters need to be
+     *  downloaded. */
+    val downloadFilter: ElementFilterExpression? get() = null
+
     /** applies the data from [answer] to the given element. The element is not directly modified,
      *  instead, a map of [changes] is built */
     fun applyAnswerTo(answer: T, changes: StringMapChangesBuilder)
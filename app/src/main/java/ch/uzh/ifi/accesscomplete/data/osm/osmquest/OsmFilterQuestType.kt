@@ -24,8 +24,8 @@ package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 
 import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
 import de.westnordost.osmapi.map.data.Element
+import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementFilterExpression
 import ch.uzh.ifi.accesscomplete.data.elementfilter.toElementFilterExpression
-import ch.uzh.ifi.accesscomplete.util.MultiIterable
 
 /** Quest type that's based on a simple element filter expression */
 abstract class OsmFilterQuestType<T> : OsmElementQuestType<T> {
@@ -34,16 +34,16 @@ abstract class OsmFilterQuestType<T> : OsmElementQuestType<T> {
 
     protected abstract val elementFilter: String
 
-    override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
-        /* this is a considerate performance improvement over just iterating over the whole MapData
-        *  because for quests that only filter for one (or two) element types, any filter checks
-        *  are completely avoided */
-        val iterable = MultiIterable<Element>()
-        if (filter.includesElementType(Element.Type.NODE)) iterable.add(mapData.nodes)
-        if (filter.includesElementType(Element.Type.WAY)) iterable.add(mapData.ways)
-        if (filter.includesElementType(Element.Type.RELATION)) iterable.add(mapData.relations)
-        return iterable.filter { element -> filter.matches(element) }
-    }
+    /* this is a considerate performance improvement over just iterating over the whole MapData
+     * because for quests that only filter for one (or two) element types, any filter checks
+     * are completely avoided and if the map data is indexed by tags, only elements that have the
+     * tags required by the filter are checked at all */
+    override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> =
+        filter.getMatchingElements(mapData)
 
     override fun isApplicableTo(element: Element) = filter.matches(element)
+
+    override val requiresSurroundingData: Boolean get() = false
+
+    override val downloadFilter: ElementFilterExpression? get() = filter
 }
@@ -34,32 +34,58 @@ import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.upload.HasElementTagChanges
 import ch.uzh.ifi.accesscomplete.data.osm.upload.UploadableInChangeset
+import ch.uzh.ifi.accesscomplete.util.LazyValue
 import ch.uzh.ifi.accesscomplete.util.measuredLength
 import ch.uzh.ifi.accesscomplete.util.pointOnPolylineFromEnd
 import ch.uzh.ifi.accesscomplete.util.pointOnPolylineFromStart
 
-/** Represents one task for the user to complete/correct the data based on one OSM element  */
+/** Represents one task for the user to complete/correct the data based on one OSM element.
+ *
+ *  The geometry and the changes may be decoded lazily, i.e. only when they are accessed for the
+ *  first time. This way, quests can be loaded e.g. to show them on the map without deserializing
+ *  their geometry, as only the center is needed for that. */
 data class OsmQuest(
     override var id: Long?,
     override val osmElementQuestType: OsmElementQuestType<*>, // underlying OSM data
     override val elementType: Element.Type,
     override val elementId: Long,
     override var status: QuestStatus,
-    override var changes: StringMapChanges?,
+    private var lazyChanges: LazyValue<StringMapChanges?>,
     var changesSource: String?,
     override var lastUpdate: Date,
-    override val geometry: ElementGeometry
+    private val lazyGeometry: LazyValue<ElementGeometry>,
+    override val center: LatLon
 ) : Quest, UploadableInChangeset, HasElementTagChanges {
 
+    constructor(
+        id: Long?,
+        type: OsmElementQuestType<*>,
+        elementType: Element.Type,
+        elementId: Long,
+        status: QuestStatus,
+        changes: StringMapChanges?,
+        changesSource: String?,
+        lastUpdate: Date,
+        geometry: ElementGeometry
+    ) : this(id, type, elementType, elementId, status, LazyValue.of(changes), changesSource,
+        lastUpdate, LazyValue.of(geometry), geometry.center)
+
     constructor(type: OsmElementQuestType<*>, elementType: Element.Type, elementId: Long, geometry: ElementGeometry)
         : this(null, type, elementType, elementId, QuestStatus.NEW, null, null, Date(), geometry)
 
-    override val center: LatLon get() = geometry.center
+    override var changes: StringMapChanges?
+        get() = lazyChanges.value
+        set(value) { lazyChanges = LazyValue.of(value) }
+
+    override val geometry: ElementGeometry get() = lazyGeometry.value
+
     override val type: QuestType<*> get() = osmElementQuestType
     override val position: LatLon get() = center
 
     override val markerLocations: Collection<LatLon> get() {
-        if (osmElementQuestType.hasMarkersAtEnds && geometry is ElementPolylinesGeometry) {
+        if (!osmElementQuestType.hasMarkersAtEnds) return listOf(center)
+        val geometry = geometry
+        if (geometry is ElementPolylinesGeometry) {
             val polyline = geometry.polylines[0]
             val length = polyline.measuredLength()
             if (length > 15 * 4) {
@@ -0,0 +1,247 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementKey
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.TilesRect
+import ch.uzh.ifi.accesscomplete.util.enclosingTile
+import de.westnordost.osmapi.map.data.LatLon
+
+/** Bounded in-memory cache of osm quests, so that the [OsmQuestController] can answer the queries
+ *  of the interactive paths (tap a quest, answer it, undo it, show the pins around) without going
+ *  to the database.
+ *
+ *  Quests are indexed by id, by element and by tile (in zoom [TILE_ZOOM]). The element and tile
+ *  indices only answer a query if they are known to be complete, i.e. if all quests of that
+ *  element / all unanswered quests in that tile have been loaded. When the cache is full, the least
+ *  recently used quests are evicted, and the elements and tiles they belonged to are no longer
+ *  complete.
+ *
+ *  The cache is write-through: The controller reports each change after it has been persisted.
+ *  Query results are only taken over from the database if nothing changed while the query was
+ *  running, otherwise a read that started before a change could overwrite the newer state. */
+internal class OsmQuestCache(private val maxQuestCount: Int = 10000) {
+
+    private val questsById = LinkedHashMap<Long, OsmQuest>(256, 0.75f, true)
+    private val questIdsByElement = HashMap<ElementKey, MutableSet<Long>>()
+    private val questIdsByTile = HashMap<Tile, MutableSet<Long>>()
+    private val completeElements = HashSet<ElementKey>()
+    private val completeTiles = HashSet<Tile>()
+
+    private var isLastUndoableKnown = false
+    private var lastUndoable: OsmQuest? = null
+    private var answeredCount: Int? = null
+    private var undoableCount: Int? = null
+
+    /** incremented on every change */
+    private var generation = 0L
+
+    /* ----------------------------------------- Queries ---------------------------------------- */
+
+    fun get(id: Long, load: () -> OsmQuest?): OsmQuest? =
+        query({ questsById[id] }, load) { quest -> quest?.let { put(it) } }
+
+    /** Returns all quests (of any status) of the given element */
+    fun getAllForElement(element: ElementKey, load: () -> List<OsmQuest>): List<OsmQuest> =
+        query({ if (element in completeElements) getQuests(questIdsByElement[element]) else null }, load) { quests ->
+            completeElements.add(element)
+            quests.forEach { put(it) }
+        }
+
+    /** Returns all unanswered quests in the given tiles. [load] must return all of them */
+    fun getAllNewInTiles(tiles: TilesRect, load: () -> List<OsmQuest>): List<OsmQuest> =
+        query({ getAllNewInTilesOrNull(tiles) }, load) { quests ->
+            completeTiles.addAll(tiles.asTileSequence())
+            quests.forEach { put(it) }
+        }
+
+    fun getLastUndoable(load: () -> OsmQuest?): OsmQuest? {
+        synchronized(this) { if (isLastUndoableKnown) return lastUndoable }
+        return query({ null }, load) { quest ->
+            isLastUndoableKnown = true
+            lastUndoable = quest
+        }
+    }
+
+    fun getAnsweredCount(load: () -> Int): Int =
+        query({ answeredCount }, load) { answeredCount = it }
+
+    fun getUndoableCount(load: () -> Int): Int =
+        query({ undoableCount }, load) { undoableCount = it }
+
+    /** Returns what [fromCache] returns or else what [load] returns, which is then passed to
+     *  [remember] if nothing changed in the meantime */
+    private inline fun <T> query(fromCache: () -> T?, load: () -> T, remember: (T) -> Unit): T {
+        val loadedGeneration: Long
+        synchronized(this) {
+            fromCache()?.let { return it }
+            loadedGeneration = generation
+        }
+        val result = load()
+        synchronized(this) {
+            if (loadedGeneration == generation) remember(result)
+        }
+        return result
+    }
+
+    private fun getAllNewInTilesOrNull(tiles: TilesRect): List<OsmQuest>? {
+        val result = ArrayList<OsmQuest>()
+        for (tile in tiles.asTileSequence()) {
+            if (tile !in completeTiles) return null
+            getQuests(questIdsByTile[tile]).filterTo(result) { it.status == QuestStatus.NEW }
+        }
+        return result
+    }
+
+    private fun getQuests(ids: Collection<Long>?): List<OsmQuest> =
+        ids.orEmpty().mapNotNull { questsById[it] }
+
+    /* ----------------------------------------- Changes ---------------------------------------- */
+
+    /** The given quest changed its status */
+    @Synchronized fun onChanged(quest: OsmQuest, previousStatus: QuestStatus) {
+        generation++
+        put(quest)
+        updateCounts(previousStatus, -1)
+        updateCounts(quest.status, +1)
+        if (quest.status in UNDOABLE_STATUSES) {
+            // it is the most recently updated quest now
+            isLastUndoableKnown = true
+            lastUndoable = quest
+        } else if (lastUndoable?.id == quest.id) {
+            isLastUndoableKnown = false
+            lastUndoable = null
+        }
+    }
+
+    /** The quest with the given id may have been modified in memory, but could not be persisted */
+    @Synchronized fun onChangeFailed(questId: Long) {
+        generation++
+        evict(questId)
+        if (lastUndoable?.id == questId) {
+            isLastUndoableKnown = false
+            lastUndoable = null
+        }
+    }
+
+    /** The quest with the given id has been deleted */
+    @Synchronized fun onRemoved(questId: Long, previousStatus: QuestStatus) {
+        generation++
+        remove(questId)
+        updateCounts(previousStatus, -1)
+        if (lastUndoable?.id == questId) {
+            isLastUndoableKnown = false
+            lastUndoable = null
+        }
+    }
+
+    /** The given quests have been added, updated or deleted */
+    @Synchronized fun onUpdated(added: Collection<OsmQuest>, updated: Collection<OsmQuest>, deleted: Collection<Long>) {
+        generation++
+        deleted.forEach { remove(it) }
+        added.forEach { put(it) }
+        updated.forEach { put(it) }
+        invalidateSummaries()
+    }
+
+    /** The geometry of the given element has been replaced, so all its quests may have changed
+     *  their position, to somewhere around [center] */
+    @Synchronized fun onGeometryChanged(element: ElementKey, center: LatLon) {
+        generation++
+        questIdsByElement[element]?.toList()?.forEach { evict(it) }
+        completeElements.remove(element)
+        completeTiles.remove(center.enclosingTile(TILE_ZOOM))
+    }
+
+    /** Anything may have changed */
+    @Synchronized fun clear() {
+        generation++
+        questsById.clear()
+        questIdsByElement.clear()
+        questIdsByTile.clear()
+        completeElements.clear()
+        completeTiles.clear()
+        invalidateSummaries()
+    }
+
+    private fun updateCounts(status: QuestStatus, delta: Int) {
+        if (status == QuestStatus.ANSWERED) answeredCount = answeredCount?.plus(delta)
+        if (status in UNDOABLE_STATUSES) undoableCount = undoableCount?.plus(delta)
+    }
+
+    private fun invalidateSummaries() {
+        isLastUndoableKnown = false
+        lastUndoable = null
+        answeredCount = null
+        undoableCount = null
+    }
+
+    /* ----------------------------------------- Indices ---------------------------------------- */
+
+    private fun put(quest: OsmQuest) {
+        val id = quest.id ?: return
+        questsById.put(id, quest)?.let { unindex(id, it) }
+        questIdsByElement.getOrPut(quest.elementKey) { HashSet() }.add(id)
+        questIdsByTile.getOrPut(quest.tile) { HashSet() }.add(id)
+
+        while (questsById.size > maxQuestCount) {
+            evict(questsById.keys.first())
+        }
+    }
+
+    /** Remove a quest that does not exist anymore. Elements and tiles stay complete */
+    private fun remove(id: Long) {
+        val quest = questsById.remove(id) ?: return
+        unindex(id, quest)
+    }
+
+    /** Remove a quest that still exists. Its element and tile are not complete anymore */
+    private fun evict(id: Long) {
+        val quest = questsById.remove(id) ?: return
+        unindex(id, quest)
+        completeElements.remove(quest.elementKey)
+        completeTiles.remove(quest.tile)
+    }
+
+    private fun unindex(id: Long, quest: OsmQuest) {
+        questIdsByElement.removeFromSet(quest.elementKey, id)
+        questIdsByTile.removeFromSet(quest.tile, id)
+    }
+
+    private fun <K> HashMap<K, MutableSet<Long>>.removeFromSet(key: K, id: Long) {
+        val ids = get(key) ?: return
+        ids.remove(id)
+        if (ids.isEmpty()) remove(key)
+    }
+
+    private val OsmQuest.elementKey get() = ElementKey(elementType, elementId)
+    private val OsmQuest.tile get() = center.enclosingTile(TILE_ZOOM)
+
+    companion object {
+        /** zoom of the tiles in which the quest pins are loaded */
+        const val TILE_ZOOM = 14
+
+        private val UNDOABLE_STATUSES = setOf(QuestStatus.ANSWERED, QuestStatus.CLOSED, QuestStatus.HIDDEN)
+    }
+}
@@ -24,6 +24,7 @@ package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 
 import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.LatLon
 import ch.uzh.ifi.accesscomplete.ApplicationConstants
 import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChanges
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
@@ -31,12 +32,16 @@ import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryDao
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryEntry
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementKey
 import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.data.quest.getName
+import ch.uzh.ifi.accesscomplete.util.enclosingTilesRect
 import java.util.concurrent.CopyOnWriteArrayList
 import javax.inject.Inject
 import javax.inject.Singleton
 
 /** Controller for managing OsmQuests. Takes care of persisting OsmQuest objects along with their
- *  referenced geometry and notifying listeners about changes */
+ *  referenced geometry and notifying listeners about changes.
+ *
+ *  The quests most recently used are also kept in memory, see [OsmQuestCache] */
 @Singleton class OsmQuestController @Inject internal constructor(
     private val dao: OsmQuestDao,
     private val geometryDao: ElementGeometryDao
@@ -54,49 +59,50 @@ import javax.inject.Singleton
     }
     private val questStatusListeners: MutableList<QuestStatusListener> = CopyOnWriteArrayList()
 
+    private val cache = OsmQuestCache()
+
     /* ---------------------------------- Modify single quests ---------------------------------- */
 
     /** Return the previously answered quest to the initial unanswered state */
-    fun undo(quest: OsmQuest) {
-        val status = quest.status
-        quest.status = QuestStatus.NEW
-        quest.changes = null
-        quest.changesSource = null
-        dao.update(quest)
-        onChanged(quest, status)
+    fun undo(quest: OsmQuest) = update(quest) {
+        status = QuestStatus.NEW
+        changes = null
+        changesSource = null
     }
 
     /** Mark the previously successfully uploaded quest as reverted */
-    fun revert(quest: OsmQuest) {
-        val status = quest.status
-        quest.status = QuestStatus.REVERT
-        dao.update(quest)
-        onChanged(quest, status)
+    fun revert(quest: OsmQuest) = update(quest) {
+        status = QuestStatus.REVERT
     }
 
     /** Mark the quest as answered by the user with the given answer */
-    fun answer(quest: OsmQuest, changes: StringMapChanges, source: String) {
-        val status = quest.status
-        quest.changes = changes
-        quest.changesSource = source
-        quest.status = QuestStatus.ANSWERED
-        dao.update(quest)
-        onChanged(quest, status)
+    fun answer(quest: OsmQuest, changes: StringMapChanges, source: String) = update(quest) {
+        this.changes = changes
+        changesSource = source
+        status = QuestStatus.ANSWERED
     }
 
     /** Mark the quest as hidden by user interaction */
-    fun hide(quest: OsmQuest) {
-        val status = quest.status
-        quest.status = QuestStatus.HIDDEN
-        dao.update(quest)
-        onChanged(quest, status)
+    fun hide(quest: OsmQuest) = update(quest) {
+        status = QuestStatus.HIDDEN
     }
 
     /** Mark that the upload of the quest was successful */
-    fun success(quest: OsmQuest) {
+    fun success(quest: OsmQuest) = update(quest) {
+        status = QuestStatus.CLOSED
+    }
+
+    /** Applies the given [change] to the [quest] and persists it. The quest is usually the instance
+     *  held by the cache, so it is evicted from the cache if it could not be persisted */
+    private inline fun update(quest: OsmQuest, change: OsmQuest.() -> Unit) {
         val status = quest.status
-        quest.status = QuestStatus.CLOSED
-        dao.update(quest)
+        quest.change()
+        try {
+            dao.update(quest)
+        } catch (e: Exception) {
+            cache.onChangeFailed(quest.id!!)
+            throw e
+        }
         onChanged(quest, status)
     }
 
@@ -114,33 +120,48 @@ import javax.inject.Singleton
     /* ------------------------------------------------------------------------------------------ */
 
     /** Replace all quests of the given types in the given bounding box with the given quests,
-     *  including their geometry. Called on download of a quest type for a bounding box. */
-    fun replaceInBBox(quests: Iterable<OsmQuest>, bbox: BoundingBox, questTypes: List<String>): UpdateResult {
+     *  including their geometry. Called on download of a quest type for a bounding box.
+     *
+     *  All of this is written in one database transaction, together with anything done in
+     *  [alsoInTransaction], so either the whole download result is persisted or nothing of it.
+     *  Listeners are only notified once the transaction has been committed. */
+    fun replaceInBBox(
+        quests: Iterable<OsmQuest>,
+        bbox: BoundingBox,
+        questTypes: List<String>,
+        alsoInTransaction: () -> Unit = {}
+    ): UpdateResult {
         require(questTypes.isNotEmpty()) { "questTypes must not be empty if not null" }
-        /* All quests in the given bounding box and of the given types should be replaced by the
-        *  input list. So, there may be 1. new quests that are added and 2. there may be previous
-        *  quests that have been there before but now not anymore, these need to be removed. */
-        val previousQuests = mutableMapOf<OsmElementQuestType<*>, MutableMap<ElementKey, Long>>()
-        for (quest in dao.getAll(bounds = bbox, questTypes = questTypes)) {
-            val previousQuestIdsByElement = previousQuests.getOrPut(quest.osmElementQuestType, { mutableMapOf() })
-            previousQuestIdsByElement[ElementKey(quest.elementType, quest.elementId)] = quest.id!!
-        }
 
         val addedQuests = mutableListOf<OsmQuest>()
+        lateinit var obsoleteQuestIds: List<Long>
+        val result = dao.transaction {
+            /* All quests in the given bounding box and of the given types should be replaced by the
+            *  input list. So, there may be 1. new quests that are added and 2. there may be previous
+            *  quests that have been there before but now not anymore, these need to be removed. */
+            val previousQuests = mutableMapOf<String, MutableMap<ElementKey, Long>>()
+            for (entry in dao.getAllEntries(bounds = bbox, questTypes = questTypes)) {
+                val previousQuestIdsByElement = previousQuests.getOrPut(entry.questTypeName, { mutableMapOf() })
+                previousQuestIdsByElement[ElementKey(entry.elementType, entry.elementId)] = entry.id
+            }
 
-        for (quest in quests) {
-            val previousQuestIdsByElement = previousQuests[quest.osmElementQuestType]
-            val e = ElementKey(quest.elementType, quest.elementId)
-            if (previousQuestIdsByElement != null && previousQuestIdsByElement.containsKey(e)) {
-                previousQuestIdsByElement.remove(e)
-            } else {
-                addedQuests.add(quest)
+            for (quest in quests) {
+                val previousQuestIdsByElement = previousQuests[quest.osmElementQuestType.getName()]
+                val e = ElementKey(quest.elementType, quest.elementId)
+                if (previousQuestIdsByElement != null && previousQuestIdsByElement.containsKey(e)) {
+                    previousQuestIdsByElement.remove(e)
+                } else {
+                    addedQuests.add(quest)
+                }
             }
-        }
-        val obsoleteQuestIds = previousQuests.values.flatMap { it.values }
+            obsoleteQuestIds = previousQuests.values.flatMap { it.values }
 
-        val deletedCount = removeObsolete(obsoleteQuestIds)
-        val addedCount = addNew(addedQuests)
+            val deletedCount = removeObsolete(obsoleteQuestIds)
+            val addedCount = addNew(addedQuests)
+            alsoInTransaction()
+
+            UpdateResult(added = addedCount, deleted = deletedCount)
+        }
 
         /* Only send quests to listener that were really added, i.e. have an ID. How could quests
         *  not be added at this point? If they exist in the DB but outside the bounding box,
@@ -148,9 +169,12 @@ import javax.inject.Singleton
         *  also extend the bbox in which they download the quests, like the housenumber quest */
         val reallyAddedQuests = addedQuests.filter { it.id != null }
 
+        for (quest in addedQuests) {
+            cache.onGeometryChanged(ElementKey(quest.elementType, quest.elementId), quest.center)
+        }
         onUpdated(added = reallyAddedQuests, deleted = obsoleteQuestIds)
 
-        return UpdateResult(added = addedCount, deleted = deletedCount)
+        return result
     }
 
     /** Add new unanswered quests and remove others for the given element, including their linked
@@ -171,6 +195,7 @@ import javax.inject.Singleton
            so that they can be created anew as the case may be */
         deletedCount += dao.deleteAll(statusIn = listOf(QuestStatus.REVERT), element = e)
         val addedCount = addNew(added)
+        cache.onGeometryChanged(e, updatedGeometry.center)
         onUpdated(added = added.filter { it.id != null }, deleted = removedIds)
 
         return UpdateResult(added = addedCount, deleted = deletedCount)
@@ -246,6 +271,7 @@ import javax.inject.Singleton
         )
         if (deleted > 0) geometryDao.deleteUnreferenced()
 
+        cache.clear()
         onUpdated()
 
         return deleted
@@ -255,10 +281,9 @@ import javax.inject.Singleton
 
     /** Get the quest types of all unsolved quests for the given element */
     fun getAllUnsolvedQuestTypesForElement(elementType: Element.Type, elementId: Long): List<OsmElementQuestType<*>> {
-        return dao.getAll(
-            statusIn = listOf(QuestStatus.NEW),
-            element = ElementKey(elementType, elementId)
-        ).map { it.osmElementQuestType }
+        return getAllOfElement(ElementKey(elementType, elementId))
+            .filter { it.status == QuestStatus.NEW }
+            .map { it.osmElementQuestType }
     }
 
 
@@ -273,36 +298,55 @@ import javax.inject.Singleton
     /** Get all unanswered quests in given bounding box of given types */
     fun getAllVisibleInBBox(bbox: BoundingBox, questTypes: Collection<String>): List<OsmQuest> {
         if (questTypes.isEmpty()) return listOf()
-        return dao.getAll(
-            statusIn = listOf(QuestStatus.NEW),
-            bounds = bbox,
-            questTypes = questTypes
-        )
+        val tiles = bbox.enclosingTilesRect(OsmQuestCache.TILE_ZOOM)
+        // the cache is meant for what is displayed on the map, not for large areas
+        if (bbox.crosses180thMeridian() || tiles.size > MAX_CACHED_TILES_PER_QUERY) {
+            return dao.getAll(
+                statusIn = listOf(QuestStatus.NEW),
+                bounds = bbox,
+                questTypes = questTypes
+            )
+        }
+        val quests = cache.getAllNewInTiles(tiles) {
+            dao.getAll(
+                statusIn = listOf(QuestStatus.NEW),
+                bounds = tiles.asBoundingBox(OsmQuestCache.TILE_ZOOM)
+            )
+        }
+        val questTypeNames = questTypes.toSet()
+        return quests.filter {
+            it.center.isInside(bbox) && it.osmElementQuestType.getName() in questTypeNames
+        }
     }
 
 
     /** Get single quest by id */
-    fun get(id: Long): OsmQuest? = dao.get(id)
+    fun get(id: Long): OsmQuest? = cache.get(id) { dao.get(id) }
 
     /** Get the last undoable quest (includes answered, hidden and uploaded) */
-    fun getLastUndoable(): OsmQuest? = dao.getLastSolved()
+    fun getLastUndoable(): OsmQuest? = cache.getLastUndoable { dao.getLastSolved() }
 
     /** Get all undoable quests count */
-    fun getAllUndoableCount(): Int = dao.getCount(statusIn = listOf(
-        QuestStatus.ANSWERED, QuestStatus.CLOSED, QuestStatus.HIDDEN
-    ))
+    fun getAllUndoableCount(): Int = cache.getUndoableCount {
+        dao.getCount(statusIn = listOf(QuestStatus.ANSWERED, QuestStatus.CLOSED, QuestStatus.HIDDEN))
+    }
 
     /** Get all answered quests */
     fun getAllAnswered(): List<OsmQuest> = dao.getAll(statusIn = listOf(QuestStatus.ANSWERED))
 
     /** Get all answered quests count */
-    fun getAllAnsweredCount(): Int = dao.getCount(statusIn = listOf(QuestStatus.ANSWERED))
+    fun getAllAnsweredCount(): Int = cache.getAnsweredCount {
+        dao.getCount(statusIn = listOf(QuestStatus.ANSWERED))
+    }
 
     /** Get all quests for the given type */
     fun getAllForElement(elementType: Element.Type, elementId: Long): List<OsmQuest> =
-        dao.getAll(element = ElementKey(elementType, elementId))
+        getAllOfElement(ElementKey(elementType, elementId))
             .filter { it.status != QuestStatus.REVERT }
 
+    private fun getAllOfElement(element: ElementKey): List<OsmQuest> =
+        cache.getAllForElement(element) { dao.getAll(element = element) }
+
 
     /* ------------------------------------ Listeners ------------------------------------------- */
 
@@ -314,9 +358,11 @@ import javax.inject.Singleton
     }
 
     private fun onChanged(quest: OsmQuest, previousStatus: QuestStatus) {
+        cache.onChanged(quest, previousStatus)
         questStatusListeners.forEach { it.onChanged(quest, previousStatus) }
     }
     private fun onRemoved(id: Long, previousStatus: QuestStatus) {
+        cache.onRemoved(id, previousStatus)
         questStatusListeners.forEach { it.onRemoved(id, previousStatus) }
     }
     private fun onUpdated(
@@ -324,9 +370,16 @@ import javax.inject.Singleton
         updated: Collection<OsmQuest> = listOf(),
         deleted: Collection<Long> = listOf()
     ) {
+        cache.onUpdated(added, updated, deleted)
         questStatusListeners.forEach { it.onUpdated(added, updated, deleted) }
     }
 
     data class UpdateResult(val added: Int, val deleted: Int)
 }
 
+private const val MAX_CACHED_TILES_PER_QUERY = 4
+
+private fun LatLon.isInside(bbox: BoundingBox): Boolean =
+    latitude >= bbox.minLatitude && latitude <= bbox.maxLatitude &&
+    longitude >= bbox.minLongitude && longitude <= bbox.maxLongitude
+
@@ -32,6 +32,7 @@ import java.util.Date
 import javax.inject.Inject
 import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.LatLon
 import ch.uzh.ifi.accesscomplete.data.*
 import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChanges
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable.Columns.CHANGES_SOURCE
@@ -47,10 +48,15 @@ import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmQuestTable.NAME_MERGED_VIE
 import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus.*
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementKey
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryMapping
-import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LATITUDE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable.Columns.LONGITUDE
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.addGeometryWithin
 import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeIdDao
 import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeRegistry
+import ch.uzh.ifi.accesscomplete.data.quest.getName
 import ch.uzh.ifi.accesscomplete.ktx.*
+import ch.uzh.ifi.accesscomplete.util.LazyValue
 import ch.uzh.ifi.accesscomplete.util.Serializer
 
 /** Stores OsmQuest objects - quests and answers to these for adding data to OSM.
@@ -60,10 +66,15 @@ import ch.uzh.ifi.accesscomplete.util.Serializer
  *  */
 internal class OsmQuestDao @Inject constructor(
     private val dbHelper: SQLiteOpenHelper,
-    private val mapping: OsmQuestMapping
+    private val mapping: OsmQuestMapping,
+    private val questTypeIds: QuestTypeIdDao
 ) {
     private val db get() = dbHelper.writableDatabase
 
+    /** Run [block] in a single transaction: the writes done in it are committed all together or,
+     *  if it throws, not at all */
+    fun <T> transaction(block: () -> T): T = db.transaction { block() }
+
     fun add(quest: OsmQuest): Boolean {
         return addAll(listOf(quest)) == 1
     }
@@ -93,10 +104,10 @@ internal class OsmQuestDao @Inject constructor(
 
     fun addAll(quests: Collection<OsmQuest>): Int {
         var addedRows = 0
-        db.transaction {
+        db.bulkInsert(NAME, CONFLICT_IGNORE) { inserter ->
             for (quest in quests) {
                 quest.lastUpdate = Date()
-                val rowId = db.insertWithOnConflict(NAME, null, mapping.toContentValues(quest), CONFLICT_IGNORE)
+                val rowId = inserter.insert(mapping.toContentValues(quest))
                 if (rowId != -1L) {
                     quest.id = rowId
                     addedRows++
@@ -126,6 +137,19 @@ internal class OsmQuestDao @Inject constructor(
         return db.query(NAME_MERGED_VIEW, null, qb) { mapping.toObject(it) }.filterNotNull()
     }
 
+    /** Like [getAll], but returns only the most basic information of each quest, without reading
+     *  any of the blob columns, i.e. without the geometry and the changes */
+    fun getAllEntries(
+            statusIn: Collection<QuestStatus>? = null,
+            bounds: BoundingBox? = null,
+            element: ElementKey? = null,
+            questTypes: Collection<String>? = null,
+            changedBefore: Long? = null
+    ): List<OsmQuestEntry> {
+        val qb = createQuery(statusIn, bounds, element, questTypes, changedBefore)
+        return db.query(NAME_MERGED_VIEW, ENTRY_COLUMNS, qb) { mapping.toEntry(it) }.filterNotNull()
+    }
+
     fun getAllIds(
             statusIn: Collection<QuestStatus>? = null,
             bounds: BoundingBox? = null,
@@ -158,80 +182,88 @@ internal class OsmQuestDao @Inject constructor(
         val qb = createQuery(statusIn, bounds, element, questTypes, changedBefore)
         return db.delete(NAME, qb.where, qb.args)
     }
-}
 
-private fun createQuery(
-        statusIn: Collection<QuestStatus>? = null,
-        bounds: BoundingBox? = null,
-        element: ElementKey? = null,
-        questTypes: Collection<String>? = null,
-        changedBefore: Long? = null
-) = WhereSelectionBuilder().apply {
-    if (element != null) {
-        add("$ELEMENT_TYPE = ?", element.elementType.name)
-        add("$ELEMENT_ID = ?", element.elementId.toString())
-    }
-    if (statusIn != null) {
-        require(statusIn.isNotEmpty()) { "statusIn must not be empty if not null" }
-        if (statusIn.size == 1) {
-            add("$QUEST_STATUS = ?", statusIn.single().name)
-        } else {
-            val names = statusIn.joinToString(",") { "\"$it\"" }
-            add("$QUEST_STATUS IN ($names)")
+    private fun createQuery(
+            statusIn: Collection<QuestStatus>? = null,
+            bounds: BoundingBox? = null,
+            element: ElementKey? = null,
+            questTypes: Collection<String>? = null,
+            changedBefore: Long? = null
+    ) = WhereSelectionBuilder().apply {
+        if (element != null) {
+            add("$ELEMENT_TYPE = ?", element.elementType.name)
+            add("$ELEMENT_ID = ?", element.elementId.toString())
         }
-    }
-    if (questTypes != null) {
-        require(questTypes.isNotEmpty()) { "questTypes must not be empty if not null" }
-        if (questTypes.size == 1) {
-            add("$QUEST_TYPE = ?", questTypes.single())
-        } else {
-            val names = questTypes.joinToString(",") { "\"$it\"" }
-            add("$QUEST_TYPE IN ($names)")
+        if (statusIn != null) {
+            require(statusIn.isNotEmpty()) { "statusIn must not be empty if not null" }
+            if (statusIn.size == 1) {
+                add("$QUEST_STATUS = ?", statusIn.single().code.toString())
+            } else {
+                val codes = statusIn.joinToString(",") { it.code.toString() }
+                add("$QUEST_STATUS IN ($codes)")
+            }
+        }
+        if (questTypes != null) {
+            require(questTypes.isNotEmpty()) { "questTypes must not be empty if not null" }
+            // quest types that have no id yet have no quests either
+            val ids = questTypes.mapNotNull { questTypeIds.getId(it) }
+            when (ids.size) {
+                0 -> add("0")
+                1 -> add("$QUEST_TYPE = ?", ids.single().toString())
+                else -> add("$QUEST_TYPE IN (${ids.joinToString(",")})")
+            }
+        }
+        if (bounds != null) {
+            addGeometryWithin(bounds)
+        }
+        if (changedBefore != null) {
+            add("$LAST_UPDATE < ?", changedBefore.toString())
         }
-    }
-    if (bounds != null) {
-        add(
-            "(${ElementGeometryTable.Columns.LATITUDE} BETWEEN ? AND ?)",
-            bounds.minLatitude.toString(),
-            bounds.maxLatitude.toString()
-        )
-        add(
-            "(${ElementGeometryTable.Columns.LONGITUDE} BETWEEN ? AND ?)",
-            bounds.minLongitude.toString(),
-            bounds.maxLongitude.toString()
-        )
-    }
-    if (changedBefore != null) {
-        add("$LAST_UPDATE < ?", changedBefore.toString())
     }
 }
 
 class OsmQuestMapping @Inject constructor(
         private val serializer: Serializer,
         private val questTypeRegistry: QuestTypeRegistry,
-        private val elementGeometryMapping: ElementGeometryMapping
+        private val elementGeometryMapping: ElementGeometryMapping,
+        private val questTypeIds: QuestTypeIdDao
 ) : ObjectRelationalMapping<OsmQuest?> {
 
     override fun toContentValues(obj: OsmQuest?) =
         obj?.let { toConstantContentValues(it) + toUpdatableContentValues(it) } ?: contentValuesOf()
 
     override fun toObject(cursor: Cursor): OsmQuest? {
-        val questType = questTypeRegistry.getByName(cursor.getString(QUEST_TYPE)) ?: return null
+        val questTypeName = questTypeIds.getName(cursor.getInt(QUEST_TYPE)) ?: return null
+        val questType = questTypeRegistry.getByName(questTypeName) ?: return null
+        val changesBytes = cursor.getBlobOrNull(TAG_CHANGES)
         return OsmQuest(
             cursor.getLong(QUEST_ID),
             questType as OsmElementQuestType<*>,
             Element.Type.valueOf(cursor.getString(ELEMENT_TYPE)),
             cursor.getLong(ELEMENT_ID),
-            valueOf(cursor.getString(QUEST_STATUS)),
-            cursor.getBlobOrNull(TAG_CHANGES)?.let { serializer.toObject<StringMapChanges>(it) },
+            questStatusOf(cursor.getInt(QUEST_STATUS)),
+            // changes and geometry are only deserialized when accessed
+            LazyValue { changesBytes?.let { serializer.toObject<StringMapChanges>(it) } },
             cursor.getStringOrNull(CHANGES_SOURCE),
             Date(cursor.getLong(LAST_UPDATE)),
-            elementGeometryMapping.toObject(cursor)
+            elementGeometryMapping.toLazyObject(cursor),
+            elementGeometryMapping.toCenter(cursor)
+        )
+    }
+
+    fun toEntry(cursor: Cursor): OsmQuestEntry? {
+        val questTypeName = questTypeIds.getName(cursor.getInt(QUEST_TYPE)) ?: return null
+        return OsmQuestEntry(
+            cursor.getLong(QUEST_ID),
+            questTypeName,
+            Element.Type.valueOf(cursor.getString(ELEMENT_TYPE)),
+            cursor.getLong(ELEMENT_ID),
+            elementGeometryMapping.toCenter(cursor)
         )
     }
 
     fun toUpdatableContentValues(obj: OsmQuest) = contentValuesOf(
-        QUEST_STATUS to obj.status.name,
+        QUEST_STATUS to obj.status.code,
         TAG_CHANGES to obj.changes?.let { serializer.toBytes(it) },
         CHANGES_SOURCE to obj.changesSource,
         LAST_UPDATE to obj.lastUpdate.time
@@ -239,8 +271,19 @@ class OsmQuestMapping @Inject constructor(
 
     private fun toConstantContentValues(obj: OsmQuest) = contentValuesOf(
         QUEST_ID to obj.id,
-        QUEST_TYPE to obj.type.javaClass.simpleName,
+        QUEST_TYPE to questTypeIds.getOrCreateId(obj.type.getName()),
         ELEMENT_TYPE to obj.elementType.name,
         ELEMENT_ID to obj.elementId
     )
 }
+
+/** Basic information of an OsmQuest, see [OsmQuestDao.getAllEntries] */
+data class OsmQuestEntry(
+    val id: Long,
+    val questTypeName: String,
+    val elementType: Element.Type,
+    val elementId: Long,
+    val center: LatLon
+)
+
+private val ENTRY_COLUMNS = arrayOf(QUEST_ID, QUEST_TYPE, ELEMENT_TYPE, ELEMENT_ID, LATITUDE, LONGITUDE)
@@ -23,6 +23,8 @@
 package ch.uzh.ifi.accesscomplete.data.osm.osmquest
 
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryTable
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus.*
 
 object OsmQuestTable {
     const val NAME = "osm_quests"
@@ -39,11 +41,12 @@ object OsmQuestTable {
         const val LAST_UPDATE = "last_update"
     }
 
+    /** quest type and status are stored as integers, see QuestTypeIdDao and [code] */
     const val CREATE = """
         CREATE TABLE $NAME (
             ${Columns.QUEST_ID} INTEGER PRIMARY KEY,
-            ${Columns.QUEST_TYPE} varchar(255) NOT NULL,
-            ${Columns.QUEST_STATUS} varchar(255) NOT NULL,
+            ${Columns.QUEST_TYPE} int NOT NULL,
+            ${Columns.QUEST_STATUS} int NOT NULL,
             ${Columns.TAG_CHANGES} blob,
             ${Columns.CHANGES_SOURCE} varchar(255),
             ${Columns.LAST_UPDATE} int NOT NULL,
@@ -63,6 +66,13 @@ object OsmQuestTable {
             )
         );"""
 
+    /** Indices matching the queries done on this table: by status and quest type, by element (see
+     *  UnreferencedCandidatesTable) and by last update */
+    val CREATE_INDICES = listOf(
+        "CREATE INDEX osm_quests_status_type_index ON $NAME (${Columns.QUEST_STATUS}, ${Columns.QUEST_TYPE});",
+        "CREATE INDEX osm_quests_last_update_index ON $NAME (${Columns.LAST_UPDATE});"
+    )
+
     const val CREATE_VIEW = """
         CREATE VIEW $NAME_MERGED_VIEW
         AS SELECT * FROM $NAME
@@ -72,6 +82,8 @@ object OsmQuestTable {
             ${ElementGeometryTable.Columns.ELEMENT_ID}
         );"""
 
+    const val DROP_VIEW = "DROP VIEW $NAME_MERGED_VIEW;"
+
     val ALL_COLUMNS_DB_VERSION_3 = listOf(
             Columns.QUEST_ID,
             Columns.QUEST_TYPE,
@@ -104,3 +116,15 @@ object OsmQuestTable {
             )
         );"""
 }
+
+/** How a quest status is stored in the quest status column. The numbers must never change */
+val QuestStatus.code: Int get() = when (this) {
+    NEW -> 0
+    ANSWERED -> 1
+    HIDDEN -> 2
+    INVISIBLE -> 3
+    CLOSED -> 4
+    REVERT -> 5
+}
+
+fun questStatusOf(code: Int): QuestStatus = QuestStatus.values().first { it.code == code }
@@ -0,0 +1,83 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
+import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
+import ch.uzh.ifi.osmapi.map.MutableMapData
+import ch.uzh.ifi.osmapi.map.getRelationComplete
+import ch.uzh.ifi.osmapi.map.isRelationComplete
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/** Creates the complete geometries of relations. Relations are downloaded incomplete from the OSM
+ *  API, so those relations that are incomplete in the given map data are first downloaded
+ *  completely, at most [parallelism] at a time. */
+class RelationGeometriesCreator(
+    private val mapDataApi: MapDataApi,
+    private val elementGeometryCreator: ElementGeometryCreator,
+    private val parallelism: Int = 4
+) {
+    init {
+        require(parallelism > 0) { "parallelism must be positive" }
+    }
+
+    /** Returns the complete geometry for each of the relations with the given [relationIds] in the
+     *  given [mapData]. The geometry is null if it could not be created */
+    fun create(relationIds: Collection<Long>, mapData: MapDataWithGeometry): Map<Long, ElementGeometry?> {
+        val result = HashMap<Long, ElementGeometry?>()
+        val incompleteRelationIds = ArrayList<Long>()
+        for (id in relationIds.distinct()) {
+            // if the relation is already complete within the given mapData, we can just take it from there
+            if (mapData.isRelationComplete(id)) {
+                result[id] = mapData.getRelationGeometry(id)
+            } else {
+                incompleteRelationIds.add(id)
+            }
+        }
+        if (incompleteRelationIds.isEmpty()) return result
+
+        // ways and nodes that are members of several relations are only kept once
+        val completeRelationsData = MutableMapData()
+        val semaphore = Semaphore(parallelism)
+        runBlocking {
+            for (id in incompleteRelationIds) {
+                launch(Dispatchers.IO) {
+                    val relationData = semaphore.withPermit { mapDataApi.getRelationComplete(id) }
+                    synchronized(completeRelationsData) { completeRelationsData.addAll(relationData) }
+                }
+            }
+        }
+
+        for (id in incompleteRelationIds) {
+            val relation = mapData.getRelation(id)
+            result[id] = relation?.let { elementGeometryCreator.create(it, completeRelationsData, false) }
+        }
+        return result
+    }
+}
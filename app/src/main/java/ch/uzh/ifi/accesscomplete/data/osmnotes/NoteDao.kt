@@ -24,6 +24,7 @@ package ch.uzh.ifi.accesscomplete.data.osmnotes
 
 
 import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE
 import android.database.sqlite.SQLiteOpenHelper
 import androidx.core.content.contentValuesOf
 import de.westnordost.osmapi.map.data.BoundingBox
@@ -39,7 +40,14 @@ import de.westnordost.osmapi.map.data.OsmLatLon
 import de.westnordost.osmapi.notes.Note
 import de.westnordost.osmapi.notes.NoteComment
 import ch.uzh.ifi.accesscomplete.data.ObjectRelationalMapping
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.NOTE_TYPE
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.Targets.NOTE
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isReferencedBy
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.isUnreferencedCandidate
+import ch.uzh.ifi.accesscomplete.data.UnreferencedCandidatesTable.whereCandidatesOf
 import ch.uzh.ifi.accesscomplete.data.WhereSelectionBuilder
+import ch.uzh.ifi.accesscomplete.data.bulkInsert
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NoteTable.Columns.CLOSED
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NoteTable.Columns.COMMENTS
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NoteTable.Columns.CREATED
@@ -59,9 +67,9 @@ class NoteDao @Inject constructor(
     private val db get() = dbHelper.writableDatabase
 
     fun putAll(notes: Collection<Note>) {
-        db.transaction {
+        db.bulkInsert(NAME, CONFLICT_REPLACE) { inserter ->
             for (note in notes) {
-                put(note)
+                inserter.insert(mapping.toContentValues(note))
             }
         }
     }
@@ -85,12 +93,21 @@ class NoteDao @Inject constructor(
         return db.query(NAME, cols, builder.where, builder.args) { OsmLatLon(it.getDouble(0), it.getDouble(1)) }
     }
 
-    fun deleteUnreferenced(): Int {
-        val where = ID + " NOT IN ( " +
-                "SELECT " + OsmNoteQuestTable.Columns.NOTE_ID + " FROM " + OsmNoteQuestTable.NAME +
-                ")"
-
-        return db.delete(NAME, where, null)
+    /** Cleans up notes that are not referenced by any note quest anymore. Only the notes that have
+     *  been inserted or lost their note quest since the last clean up are looked at */
+    fun deleteUnreferenced(): Int = db.transaction {
+        val where = """
+            $ID IN (
+                SELECT c.${UnreferencedCandidatesTable.Columns.ELEMENT_ID}
+                FROM ${UnreferencedCandidatesTable.NAME} c
+                WHERE ${isUnreferencedCandidate(NOTE, NOTE_TYPE, listOf(
+                    isReferencedBy(OsmNoteQuestTable.NAME, OsmNoteQuestTable.Columns.NOTE_ID)
+                ))}
+            )""".trimIndent()
+
+        val result = delete(NAME, where, null)
+        delete(UnreferencedCandidatesTable.NAME, whereCandidatesOf(NOTE), null)
+        result
     }
 }
 
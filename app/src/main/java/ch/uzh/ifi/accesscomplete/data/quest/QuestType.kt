@@ -39,3 +39,7 @@ interface QuestType<T> {
     /** returns the dialog in which the user can add the data */
     fun createForm(): AbstractQuestAnswerFragment<T>
 }
+
+/** The name under which a quest type is registered in the [QuestTypeRegistry], and by which it is
+ *  identified in the database */
+internal fun QuestType<*>.getName(): String = javaClass.simpleName
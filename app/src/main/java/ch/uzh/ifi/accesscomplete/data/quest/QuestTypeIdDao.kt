@@ -0,0 +1,97 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.quest
+
+import android.database.sqlite.SQLiteDatabase.CONFLICT_IGNORE
+import android.database.sqlite.SQLiteOpenHelper
+import androidx.core.content.contentValuesOf
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeTable.Columns.QUEST_TYPE
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeTable.Columns.QUEST_TYPE_ID
+import ch.uzh.ifi.accesscomplete.data.quest.QuestTypeTable.NAME
+import ch.uzh.ifi.accesscomplete.ktx.query
+import ch.uzh.ifi.accesscomplete.ktx.queryOne
+import ch.uzh.ifi.accesscomplete.ktx.transaction
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** Assigns small integer ids to quest type names (as used in the QuestTypeRegistry), so that tables
+ *  referring to quest types do not need to repeat their (long) names in every row.
+ *
+ *  The assignments are cached in memory, but only those that have been read or written outside of
+ *  a transaction: Anything within a transaction could still be rolled back.
+ *
+ *  This is used within the transactions of other daos, so it never holds a lock of its own while
+ *  accessing the database: A thread holding that lock could wait for the database connection
+ *  while the thread owning the transaction waits for the lock. */
+@Singleton class QuestTypeIdDao @Inject constructor(private val dbHelper: SQLiteOpenHelper) {
+
+    private val db get() = dbHelper.writableDatabase
+
+    private val idsByName = ConcurrentHashMap<String, Int>()
+    private val namesById = ConcurrentHashMap<Int, String>()
+    @Volatile private var isLoaded = false
+
+    /** Returns the id of the given quest type, assigning a new one if it has none yet */
+    fun getOrCreateId(questTypeName: String): Int {
+        idsByName[questTypeName]?.let { return it }
+        // the transaction makes the insert and the lookup of the id atomic
+        val isInOuterTransaction = db.inTransaction()
+        val id = db.transaction {
+            insertWithOnConflict(NAME, null, contentValuesOf(QUEST_TYPE to questTypeName), CONFLICT_IGNORE)
+            findId(questTypeName)!!
+        }
+        if (!isInOuterTransaction) remember(id, questTypeName)
+        return id
+    }
+
+    /** Returns the id of the given quest type or null if it has none yet */
+    fun getId(questTypeName: String): Int? {
+        idsByName[questTypeName]?.let { return it }
+        val id = findId(questTypeName)
+        if (id != null) remember(id, questTypeName)
+        return id
+    }
+
+    /** Returns the name of the quest type with the given id or null if there is none */
+    fun getName(id: Int): String? {
+        namesById[id]?.let { return it }
+        loadAll()
+        return namesById[id] ?: db.queryOne(NAME, arrayOf(QUEST_TYPE), "$QUEST_TYPE_ID = $id") { it.getString(0) }
+    }
+
+    private fun findId(questTypeName: String): Int? =
+        db.queryOne(NAME, arrayOf(QUEST_TYPE_ID), "$QUEST_TYPE = ?", arrayOf(questTypeName)) { it.getInt(0) }
+
+    private fun loadAll() {
+        // loading concurrently on several threads is harmless, the result is the same
+        if (isLoaded || db.inTransaction()) return
+        db.query(NAME, arrayOf(QUEST_TYPE_ID, QUEST_TYPE)) { remember(it.getInt(0), it.getString(1)) }
+        isLoaded = true
+    }
+
+    private fun remember(id: Int, questTypeName: String) {
+        if (db.inTransaction()) return
+        idsByName[questTypeName] = id
+        namesById[id] = questTypeName
+    }
+}
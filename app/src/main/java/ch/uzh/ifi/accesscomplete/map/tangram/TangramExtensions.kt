@@ -33,19 +33,18 @@ import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolygonsGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.PackedPolylines
 
 fun ElementGeometry.toTangramGeometry(): List<Geometry> = when(this) {
     is ElementPolylinesGeometry -> {
-        polylines.map { polyline ->
-            Polyline(polyline.map { it.toLngLat() }, mapOf("type" to "line"))
+        polylines.indices.map { part ->
+            Polyline(polylines.toLngLats(part), mapOf("type" to "line"))
         }
     }
     is ElementPolygonsGeometry -> {
         listOf(
             Polygon(
-                polygons.map { polygon ->
-                    polygon.map { it.toLngLat() }
-                },
+                polygons.indices.map { part -> polygons.toLngLats(part) },
                 mapOf("type" to "poly")
             )
         )
@@ -56,11 +55,14 @@ fun ElementGeometry.toTangramGeometry(): List<Geometry> = when(this) {
 }
 
 fun ElementPolylinesGeometry.toTangramGeometryWithDirectionIndicator(): List<Geometry> {
-    return polylines.map { polyline ->
-        Polyline(polyline.map { it.toLngLat() }, mapOf("type" to "arrows"))
+    return polylines.indices.map { part ->
+        Polyline(polylines.toLngLats(part), mapOf("type" to "arrows"))
     }
 }
 
+private fun PackedPolylines.toLngLats(part: Int): List<LngLat> =
+    List(getPointCount(part)) { i -> LngLat(getLongitude(part, i), getLatitude(part, i)) }
+
 fun LngLat.toLatLon(): LatLon = OsmLatLon(latitude, longitude)
 
 fun LatLon.toLngLat(): LngLat = LngLat(longitude, latitude)
@@ -56,12 +56,11 @@ class AddCrossingIsland : OsmElementQuestType<Boolean> {
 
     override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
         val excludedWayNodeIds = mutableSetOf<Long>()
-        mapData.ways
-            .filter { excludedWaysFilter.matches(it) }
+        excludedWaysFilter.getMatchingWays(mapData)
             .flatMapTo(excludedWayNodeIds) { it.nodeIds }
 
-        return mapData.nodes
-            .filter { crossingFilter.matches(it) && it.id !in excludedWayNodeIds }
+        return crossingFilter.getMatchingNodes(mapData)
+            .filter { it.id !in excludedWayNodeIds }
     }
 
     override fun isApplicableTo(element: Element): Boolean? = null
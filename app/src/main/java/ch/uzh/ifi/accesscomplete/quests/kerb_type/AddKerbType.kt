@@ -64,7 +64,7 @@ class AddKerbType : OsmElementQuestType<String> {
     """.toElementFilterExpression() }
 
     override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
-        val footwayCrossingWays = mapData.ways.filter { footwayCrossingWayFilter.matches(it) }
+        val footwayCrossingWays = footwayCrossingWayFilter.getMatchingWays(mapData)
         val applicableNodes = mutableSetOf<Node>()
         footwayCrossingWays.forEach { way ->
             if (way.nodeIds.size < 3) {
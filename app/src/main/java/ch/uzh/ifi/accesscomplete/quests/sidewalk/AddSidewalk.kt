@@ -31,6 +31,7 @@ import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChangesBuilder
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
 import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmElementQuestType
 import ch.uzh.ifi.accesscomplete.util.isNearAndAligned
+import ch.uzh.ifi.accesscomplete.util.toLineSegmentRaster
 
 class AddSidewalk : OsmElementQuestType<SidewalkAnswer> {
 
@@ -65,7 +66,7 @@ class AddSidewalk : OsmElementQuestType<SidewalkAnswer> {
     override fun getTitle(tags: Map<String, String>) = R.string.quest_sidewalk_title
 
     override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
-        val roadsWithMissingSidewalks = mapData.ways.filter { filter.matches(it) }
+        val roadsWithMissingSidewalks = filter.getMatchingWays(mapData)
         if (roadsWithMissingSidewalks.isEmpty()) return emptyList()
 
         /* Unfortunately, the filter above is not enough. In OSM, sidewalks may be mapped as
@@ -73,11 +74,13 @@ class AddSidewalk : OsmElementQuestType<SidewalkAnswer> {
          * (or foot = use_sidepath) is always tagged on the main road then. So, all roads should
          * be excluded whose center is within of ~15 meters of a footway, to be on the safe side. */
 
-        val maybeSeparatelyMappedSidewalkGeometries = mapData.ways
-            .filter { maybeSeparatelyMappedSidewalksFilter.matches(it) }
+        val maybeSeparatelyMappedSidewalkGeometries = maybeSeparatelyMappedSidewalksFilter.getMatchingWays(mapData)
             .mapNotNull { mapData.getWayGeometry(it.id) as? ElementPolylinesGeometry }
         if (maybeSeparatelyMappedSidewalkGeometries.isEmpty()) return roadsWithMissingSidewalks
 
+        // index the footway segments once so that each road only needs to look at those nearby
+        val maybeSeparatelyMappedSidewalkSegments = maybeSeparatelyMappedSidewalkGeometries.toLineSegmentRaster()
+
         val minAngleToWays = 25.0
 
         // filter out roads with missing sidewalks that are near footways
@@ -85,7 +88,7 @@ class AddSidewalk : OsmElementQuestType<SidewalkAnswer> {
             val minDistToWays = estimatedWidth(road.tags) / 2.0 + 6
             val roadGeometry = mapData.getWayGeometry(road.id) as? ElementPolylinesGeometry
             if (roadGeometry != null) {
-                !roadGeometry.isNearAndAligned(minDistToWays, minAngleToWays, maybeSeparatelyMappedSidewalkGeometries)
+                !roadGeometry.isNearAndAligned(minDistToWays, minAngleToWays, maybeSeparatelyMappedSidewalkSegments)
             } else {
                 false
             }
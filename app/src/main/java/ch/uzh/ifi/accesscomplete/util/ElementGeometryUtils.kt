@@ -22,10 +22,10 @@
 
 package ch.uzh.ifi.accesscomplete.util
 
+import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.LatLon
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
-import ch.uzh.ifi.accesscomplete.ktx.forEachLine
-import kotlin.math.abs
+import kotlin.math.max
 
 fun ElementPolylinesGeometry.getOrientationAtCenterLineInDegrees(): Float {
     val centerLine = polylines.first().centerLineOfPolyline()
@@ -33,38 +33,54 @@ fun ElementPolylinesGeometry.getOrientationAtCenterLineInDegrees(): Float {
 }
 
 /** Returns whether any individual line segment in this ElementPolylinesGeometry is both within
- *  [maxDistance]m of any line segments of [others] and also
- *  and "aligned", meaning
+ *  [maxDistance]m of any line segments of [others] and also "aligned", meaning that the angle
+ *  between them is at most [maxAngle]°.
  *
- *  Warning: This is computationally very expensive ( for normal ways, O(n³) ), avoid if possible */
+ *  If this is checked for many geometries against the same [others], rather create a
+ *  [LineSegmentRaster] of them once and use that */
 fun ElementPolylinesGeometry.isNearAndAligned(
     maxDistance: Double,
     maxAngle: Double,
     others: Iterable<ElementPolylinesGeometry>
+): Boolean = isNearAndAligned(maxDistance, maxAngle, others.toLineSegmentRaster())
+
+/** Returns whether any individual line segment in this ElementPolylinesGeometry is both within
+ *  [maxDistance]m of any line segments in [others] and also "aligned", meaning that the angle
+ *  between them is at most [maxAngle]° */
+fun ElementPolylinesGeometry.isNearAndAligned(
+    maxDistance: Double,
+    maxAngle: Double,
+    others: LineSegmentRaster
 ): Boolean {
-    val bounds = getBounds().enlargedBy(maxDistance)
-    return others.any { other ->
-        bounds.intersect(other.getBounds()) &&
-        polylines.any { polyline ->
-            other.polylines.any { otherPolyline ->
-                polyline.isWithinDistanceAndAngleOf(otherPolyline, maxDistance, maxAngle)
-            }
+    if (others.size == 0) return false
+    return polylines.any { polyline ->
+        polyline.anyLine { first, second ->
+            others.isAnyNearAndAligned(first, first.initialBearingTo(second), maxDistance, maxAngle)
         }
     }
 }
 
-private fun List<LatLon>.isWithinDistanceAndAngleOf(other: List<LatLon>, maxDistance: Double, maxAngle: Double): Boolean {
-    forEachLine { first, second ->
-        other.forEachLine { otherFirst, otherSecond ->
-            val bearing = first.initialBearingTo(second)
-            val otherBearing = otherFirst.initialBearingTo(otherSecond)
-            val bearingDiff = abs((bearing - otherBearing).normalizeDegrees(-180.0))
-            // two ways directly opposite each other should count as aligned
-            val alignmentDiff = if (bearingDiff > 90) 180 - bearingDiff else bearingDiff
-            val distance = first.distanceToArc(otherFirst, otherSecond)
-            if (alignmentDiff <= maxAngle && distance <= maxDistance)
-                return true
+/** Returns a spatial index of all the line segments of these geometries. The cells are about
+ *  [cellSize]° large, but larger if the geometries are spread out over a large area */
+fun Iterable<ElementPolylinesGeometry>.toLineSegmentRaster(cellSize: Double = 0.0005): LineSegmentRaster {
+    val corners = flatMap { listOf(it.getBounds().min, it.getBounds().max) }
+    val bounds = if (corners.isNotEmpty()) corners.enclosingBoundingBox() else BoundingBox(0.0, 0.0, 0.0, 0.0)
+    val lonDiff = normalizeLongitude(bounds.maxLongitude - bounds.minLongitude)
+    val latDiff = bounds.maxLatitude - bounds.minLatitude
+    val raster = LineSegmentRaster(bounds, max(cellSize, max(lonDiff, latDiff) / MAX_RASTER_CELLS_PER_SIDE))
+    for (geometry in this) {
+        for (polyline in geometry.polylines) {
+            raster.insert(polyline)
         }
     }
+    return raster
+}
+
+private inline fun List<LatLon>.anyLine(predicate: (first: LatLon, second: LatLon) -> Boolean): Boolean {
+    for (i in 1 until size) {
+        if (predicate(this[i - 1], this[i])) return true
+    }
     return false
 }
+
+private const val MAX_RASTER_CELLS_PER_SIDE = 500
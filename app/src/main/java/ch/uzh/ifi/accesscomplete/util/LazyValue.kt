@@ -0,0 +1,39 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.util
+
+/** A value that is only computed (e.g. deserialized) on first access.
+ *
+ *  Unlike [Lazy], two lazy values are equal if their values are equal, so it can be used as a
+ *  property of a data class without changing what equality means for that class. */
+class LazyValue<out T>(initializer: () -> T) {
+    val value: T by lazy(initializer)
+
+    override fun equals(other: Any?) = other is LazyValue<*> && value == other.value
+    override fun hashCode() = value?.hashCode() ?: 0
+    override fun toString() = value.toString()
+
+    companion object {
+        /** a lazy value that has already been computed */
+        fun <T> of(value: T) = LazyValue { value }
+    }
+}
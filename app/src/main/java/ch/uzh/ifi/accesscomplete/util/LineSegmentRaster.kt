@@ -0,0 +1,121 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.util
+
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import ch.uzh.ifi.accesscomplete.ktx.forEachLine
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+
+/** A spatial index implemented as a grid, based on line segments. A segment is put into every
+ *  cell its bounding box touches, so a query only needs to look at the segments in the cells
+ *  around the queried position. Segments outside of the given [bounds] are put into the nearest
+ *  cells at the border. */
+class LineSegmentRaster(bounds: BoundingBox, private val cellSize: Double) {
+    private val raster: Array<ArrayList<LineSegment>?>
+    private val rasterWidth: Int
+    private val rasterHeight: Int
+    private val minLatitude = bounds.minLatitude
+    private val minLongitude = bounds.minLongitude
+    var size = 0
+        private set
+
+    init {
+        val lonDiff = normalizeLongitude(bounds.maxLongitude - bounds.minLongitude)
+        val latDiff = bounds.maxLatitude - bounds.minLatitude
+        rasterWidth = max(1, ceil(lonDiff / cellSize).toInt())
+        rasterHeight = max(1, ceil(latDiff / cellSize).toInt())
+        raster = arrayOfNulls(rasterWidth * rasterHeight)
+    }
+
+    fun insert(start: LatLon, end: LatLon) {
+        val segment = LineSegment(start, end)
+        val x1 = longitudeToCellX(start.longitude)
+        val x2 = longitudeToCellX(end.longitude)
+        val y1 = latitudeToCellY(start.latitude)
+        val y2 = latitudeToCellY(end.latitude)
+        for (y in min(y1, y2)..max(y1, y2)) {
+            for (x in min(x1, x2)..max(x1, x2)) {
+                var list = raster[y * rasterWidth + x]
+                if (list == null) {
+                    list = ArrayList()
+                    raster[y * rasterWidth + x] = list
+                }
+                list.add(segment)
+            }
+        }
+        size++
+    }
+
+    fun insert(polyline: List<LatLon>) {
+        polyline.forEachLine { first, second -> insert(first, second) }
+    }
+
+    /** Returns all segments whose bounding box may intersect with the given [bounds]. The result
+     *  may contain the same segment several times. */
+    fun getAll(bounds: BoundingBox): Iterable<LineSegment> {
+        val startX = longitudeToCellX(bounds.minLongitude)
+        val startY = latitudeToCellY(bounds.minLatitude)
+        val endX = longitudeToCellX(bounds.maxLongitude)
+        val endY = latitudeToCellY(bounds.maxLatitude)
+        val result = MultiIterable<LineSegment>()
+        for (y in min(startY, endY)..max(startY, endY)) {
+            for (x in min(startX, endX)..max(startX, endX)) {
+                val list = raster[y * rasterWidth + x]
+                if (list != null) result.add(list)
+            }
+        }
+        return result
+    }
+
+    /** Returns whether there is any segment that is both within [maxDistance]m of [position] and
+     *  "aligned" with the given [bearing], meaning that the angle between them is at most
+     *  [maxAngle]°. Segments going in the opposite direction count as aligned too. */
+    fun isAnyNearAndAligned(position: LatLon, bearing: Double, maxDistance: Double, maxAngle: Double): Boolean =
+        getAll(position.enclosingBoundingBox(maxDistance)).any { segment ->
+            segment.isAlignedWith(bearing, maxAngle) &&
+            position.distanceToArc(segment.start, segment.end) <= maxDistance
+        }
+
+    private fun longitudeToCellX(longitude: Double) =
+        max(0, min(floor(normalizeLongitude(longitude - minLongitude) / cellSize).toInt(), rasterWidth - 1))
+
+    private fun latitudeToCellY(latitude: Double) =
+        max(0, min(floor((latitude - minLatitude) / cellSize).toInt(), rasterHeight - 1))
+}
+
+/** A line segment of a polyline, with its initial bearing precomputed */
+class LineSegment(val start: LatLon, val end: LatLon) {
+    val bearing: Double = start.initialBearingTo(end)
+
+    /** Returns whether the angle between this segment and the given [bearing] is at most
+     *  [maxAngle]°. Two segments directly opposite each other count as aligned */
+    fun isAlignedWith(bearing: Double, maxAngle: Double): Boolean {
+        val bearingDiff = abs((this.bearing - bearing).normalizeDegrees(-180.0))
+        val alignmentDiff = if (bearingDiff > 90) 180 - bearingDiff else bearingDiff
+        return alignmentDiff <= maxAngle
+    }
+}
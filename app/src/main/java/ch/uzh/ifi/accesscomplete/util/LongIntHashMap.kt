@@ -0,0 +1,106 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.util
+
+/** Hash map from long keys to int values that does not box its keys or values. Uses open
+ *  addressing with linear probing. [Long.MIN_VALUE] can not be used as a key. */
+class LongIntHashMap(initialCapacity: Int = 16) {
+    private var keys: LongArray
+    private var values: IntArray
+    private var mask: Int
+
+    var size: Int = 0
+        private set
+
+    init {
+        var capacity = 4
+        while (capacity * LOAD_FACTOR < initialCapacity) capacity = capacity shl 1
+        keys = LongArray(capacity) { EMPTY }
+        values = IntArray(capacity)
+        mask = capacity - 1
+    }
+
+    /** Returns the value for the given [key] or [defaultValue] if there is none */
+    fun get(key: Long, defaultValue: Int = -1): Int {
+        var i = indexOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == key) return values[i]
+            if (k == EMPTY) return defaultValue
+            i = (i + 1) and mask
+        }
+    }
+
+    fun containsKey(key: Long): Boolean {
+        var i = indexOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == key) return true
+            if (k == EMPTY) return false
+            i = (i + 1) and mask
+        }
+    }
+
+    fun put(key: Long, value: Int) {
+        require(key != EMPTY) { "Long.MIN_VALUE can not be used as a key" }
+        var i = indexOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == key) {
+                values[i] = value
+                return
+            }
+            if (k == EMPTY) {
+                keys[i] = key
+                values[i] = value
+                size++
+                if (size > keys.size * LOAD_FACTOR) grow()
+                return
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    private fun indexOf(key: Long): Int {
+        // spread the bits, OSM ids are mostly consecutive numbers
+        val hash = key * -0x61c8864680b583ebL
+        return (hash xor (hash ushr 32)).toInt() and mask
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldValues = values
+        keys = LongArray(oldKeys.size shl 1) { EMPTY }
+        values = IntArray(oldValues.size shl 1)
+        mask = keys.size - 1
+        size = 0
+        for (i in oldKeys.indices) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i])
+        }
+    }
+
+    companion object {
+        private const val EMPTY = Long.MIN_VALUE
+        private const val LOAD_FACTOR = 0.6
+    }
+}
@@ -99,6 +99,11 @@ fun LatLon.distanceTo(pos: LatLon, globeRadius: Double = EARTH_RADIUS): Double =
         pos.longitude.toRadians()
     ) * globeRadius
 
+/** Returns the distance between the two given positions (in degrees), for code that works with the
+ *  coordinates instead of LatLon objects */
+internal fun distance(lat1: Double, lon1: Double, lat2: Double, lon2: Double, globeRadius: Double = EARTH_RADIUS): Double =
+    angularDistance(lat1.toRadians(), lon1.toRadians(), lat2.toRadians(), lon2.toRadians()) * globeRadius
+
 /** Returns a new point in the given distance and angle from the this point */
 fun LatLon.translate(distance: Double, angle: Double, globeRadius: Double = EARTH_RADIUS): LatLon {
     val pair = translate(
@@ -518,6 +523,19 @@ fun normalizeLongitude(lon0: Double): Double {
    All the calculations below are done with coordinates in radians.
 */
 
+/* For points that are close to each other, the curvature of the Earth hardly matters. So, if all
+   points involved are less than SMALL_SPAN apart in both latitude and longitude, distances and
+   bearings are calculated on the equirectangular projection around them instead, which needs
+   much fewer trigonometric functions. The maximum errors within that span are
+   - less than 1mm for the distance between two points
+   - less than 0.000001° for the initial bearing
+   - less than 5cm for the distance of a point to an arc
+   Points on opposite sides of the 180th meridian are never considered to be close. */
+private const val SMALL_SPAN = 1e-4 // ~640m at the equator
+
+private fun isSmallSpan(Δφ: Double, Δλ: Double): Boolean =
+    abs(Δφ) < SMALL_SPAN && abs(Δλ) < SMALL_SPAN
+
 /** Return a new point translated in the given angle and distance on a sphere with the given radius */
 private fun translate(φ1: Double, λ1: Double, α1: Double, distance: Double, radius: Double): Pair<Double, Double> {
     val σ12 = distance / radius
@@ -535,6 +553,10 @@ private fun angularDistance(φ1: Double, λ1: Double, φ2: Double, λ2: Double):
     // see https://mathforum.org/library/drmath/view/51879.html for derivation
     val Δλ = λ2 - λ1
     val Δφ = φ2 - φ1
+    if (isSmallSpan(Δφ, Δλ)) {
+        val x = Δλ * cos((φ1 + φ2) / 2)
+        return sqrt(x * x + Δφ * Δφ)
+    }
     val a = sin(Δφ / 2).pow(2) + cos(φ1) * cos(φ2) * sin(Δλ / 2).pow(2)
     return 2 * atan2(sqrt(a), sqrt(1 - a))
 }
@@ -543,6 +565,11 @@ private fun angularDistance(φ1: Double, λ1: Double, φ2: Double, λ2: Double):
 private fun initialBearing(φ1: Double, λ1: Double, φ2: Double, λ2: Double): Double {
     // see https://mathforum.org/library/drmath/view/55417.html for derivation
     val Δλ = λ2 - λ1
+    if (isSmallSpan(φ2 - φ1, Δλ)) {
+        // same formula with sin(Δλ) ≈ Δλ and cos(Δλ) ≈ 1 - Δλ²/2
+        val cosφ2 = cos(φ2)
+        return atan2(Δλ * cosφ2, φ2 - φ1 + sin(φ1) * cosφ2 * Δλ * Δλ / 2)
+    }
     return atan2(sin(Δλ) * cos(φ2), cos(φ1) * sin(φ2) - sin(φ1) * cos(φ2) * cos(Δλ))
 }
 
@@ -576,6 +603,10 @@ private fun alongTrackAngularDistance(φ1: Double, λ1: Double, φ2: Double, λ2
 /** Returns the shortest distance between point three and the arc between point one and two.
  *  The sign tells on which side point three is on */
 private fun angularDistanceToArc(φ1: Double, λ1: Double, φ2: Double, λ2: Double, φ3: Double, λ3: Double): Double {
+    if (isSmallSpan(φ2 - φ1, λ2 - λ1) && isSmallSpan(φ3 - φ1, λ3 - λ1)) {
+        val k = cos((φ1 + φ2 + φ3) / 3)
+        return planarDistanceToLine((λ2 - λ1) * k, φ2 - φ1, (λ3 - λ1) * k, φ3 - φ1)
+    }
     val θ12 = initialBearing(φ1, λ1, φ2, λ2)
     val θ13 = initialBearing(φ1, λ1, φ3, λ3)
 
@@ -592,6 +623,22 @@ private fun angularDistanceToArc(φ1: Double, λ1: Double, φ2: Double, λ2: Dou
     return δxt
 }
 
+/** Same as angularDistanceToArc but on a plane, with point one at the origin, x pointing east and
+ *  y pointing north */
+private fun planarDistanceToLine(x2: Double, y2: Double, x3: Double, y3: Double): Double {
+    val lengthSquared = x2 * x2 + y2 * y2
+    val dot = x2 * x3 + y2 * y3
+    // closest point on line is point one
+    if (dot < 0 || lengthSquared == 0.0) return sqrt(x3 * x3 + y3 * y3)
+    // closest point on line is point two
+    if (dot > lengthSquared) {
+        val x = x3 - x2
+        val y = y3 - y2
+        return sqrt(x * x + y * y)
+    }
+    return (x3 * y2 - y3 * x2) / sqrt(lengthSquared)
+}
+
 /** Returns the signed area of a triangle spanning between the north pole and the two given points.
  * */
 private fun polarTriangleArea(φ1: Double, λ1: Double, φ2: Double, λ2: Double): Double {
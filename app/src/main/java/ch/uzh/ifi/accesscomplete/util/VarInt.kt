@@ -0,0 +1,83 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.util
+
+/** Writes numbers as varints: 7 bits per byte, the highest bit marks whether more bytes follow.
+ *  Signed numbers are zigzag-encoded first, so that small negative numbers are small, too. */
+internal class VarIntWriter(initialCapacity: Int) {
+    private var buffer = ByteArray(initialCapacity.coerceAtLeast(16))
+    private var size = 0
+
+    fun writeSigned(value: Long) = writeUnsigned((value shl 1) xor (value shr 63))
+
+    fun writeUnsigned(value: Long) {
+        var v = value
+        while (true) {
+            ensureCapacity(size + 1)
+            if ((v and 0x7FL.inv()) == 0L) {
+                buffer[size++] = v.toByte()
+                return
+            }
+            buffer[size++] = ((v and 0x7F) or 0x80).toByte()
+            v = v ushr 7
+        }
+    }
+
+    fun writeBytes(bytes: ByteArray) {
+        ensureCapacity(size + bytes.size)
+        bytes.copyInto(buffer, size)
+        size += bytes.size
+    }
+
+    fun toByteArray(): ByteArray = buffer.copyOf(size)
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity > buffer.size) buffer = buffer.copyOf(maxOf(capacity, 2 * buffer.size))
+    }
+}
+
+/** Reads what has been written with a [VarIntWriter] */
+internal class VarIntReader(private val bytes: ByteArray) {
+    private var position = 0
+
+    fun readSigned(): Long {
+        val v = readUnsigned()
+        return (v ushr 1) xor -(v and 1)
+    }
+
+    fun readUnsigned(): Long {
+        var result = 0L
+        var shift = 0
+        while (true) {
+            val b = bytes[position++].toInt()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if ((b and 0x80) == 0) return result
+            shift += 7
+        }
+    }
+
+    fun readBytes(count: Int): ByteArray {
+        val result = bytes.copyOfRange(position, position + count)
+        position += count
+        return result
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.osmapi.map
+
+import de.westnordost.osmapi.map.data.Element
+import java.util.EnumMap
+import java.util.concurrent.ConcurrentHashMap
+
+/** Index of the elements of a [MapData] by the keys of their tags and by their tags, so that the
+ *  elements that have a certain key or tag do not need to be searched for among all elements.
+ *
+ *  Only tagged elements are indexed, which are a small part of all elements. The index by tag is
+ *  only built for a key once it is first requested, because for many keys, i.e. names, it would
+ *  not be used anyway. The index does not reflect any data added to the map data after it has been
+ *  created. It is thread-safe. */
+class ElementTagIndex(mapData: MapData) {
+
+    private val elementsByKey = EnumMap<Element.Type, HashMap<String, MutableList<Element>>>(Element.Type::class.java)
+    private val elementsByValueByKey = EnumMap<Element.Type, ConcurrentHashMap<String, Map<String, List<Element>>>>(Element.Type::class.java)
+
+    init {
+        for (elementType in Element.Type.values()) {
+            elementsByKey[elementType] = HashMap()
+            elementsByValueByKey[elementType] = ConcurrentHashMap()
+        }
+        // only the tagged nodes are of interest, see PackedMapData
+        if (mapData is PackedMapData) addAll(mapData.taggedNodeSequence.asIterable())
+        else addAll(mapData.nodes)
+        addAll(mapData.ways)
+        addAll(mapData.relations)
+    }
+
+    private fun addAll(elements: Iterable<Element>) {
+        for (element in elements) {
+            val tags = element.tags
+            if (tags.isNullOrEmpty()) continue
+            val elementsByKey = elementsByKey.getValue(element.type)
+            for (key in tags.keys) {
+                elementsByKey.getOrPut(key) { ArrayList() }.add(element)
+            }
+        }
+    }
+
+    /** Returns all elements of the given [elementType] that have a tag with the given [key] */
+    fun getElements(elementType: Element.Type, key: String): List<Element> =
+        elementsByKey.getValue(elementType)[key].orEmpty()
+
+    /** Returns all elements of the given [elementType] that have the tag [key]=[value] */
+    fun getElements(elementType: Element.Type, key: String, value: String): List<Element> {
+        val elementsByValue = elementsByValueByKey.getValue(elementType).getOrPut(key) {
+            getElements(elementType, key).groupBy { it.tags[key]!! }
+        }
+        return elementsByValue[value].orEmpty()
+    }
+}
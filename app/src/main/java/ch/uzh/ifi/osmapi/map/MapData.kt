@@ -38,6 +38,10 @@ interface MapDataWithGeometry : MapData {
         Element.Type.WAY -> getWayGeometry(id)
         Element.Type.RELATION -> getRelationGeometry(id)
     }
+
+    /** Index of the elements by their tags. Implementations may provide one so that not every
+     *  element needs to be looked at to find the elements with a certain tag. */
+    val tagIndex: ElementTagIndex? get() = null
 }
 
 interface MapData : Iterable<Element> {
@@ -49,9 +53,16 @@ interface MapData : Iterable<Element> {
     fun getNode(id: Long): Node?
     fun getWay(id: Long): Way?
     fun getRelation(id: Long): Relation?
+
+    /** Returns the position of the node with the given id. Implementations may override this to
+     *  return it without creating the whole node */
+    fun getNodePosition(id: Long): LatLon? = getNode(id)?.position
 }
 
-open class MutableMapData : MapData, MapDataHandler {
+/** MapData that is filled through the MapDataHandler interface, i.e. directly by the parser */
+interface MapDataStore : MapData, MapDataHandler
+
+open class MutableMapData : MapDataStore {
 
     protected val nodesById: MutableMap<Long, Node> = mutableMapOf()
     protected val waysById: MutableMap<Long, Way> = mutableMapOf()
@@ -94,7 +105,7 @@ open class MutableMapData : MapData, MapDataHandler {
 fun MapData.isRelationComplete(id: Long): Boolean =
     getRelation(id)?.members?.all { member ->
         when (member.type!!) {
-            Element.Type.NODE -> getNode(member.ref) != null
+            Element.Type.NODE -> getNodePosition(member.ref) != null
             Element.Type.WAY -> getWay(member.ref) != null && isWayComplete(member.ref)
             /* not being recursive here is deliberate. sub-relations are considered not relevant
                for the element geometry in StreetComplete (and OSM API call to get a "complete"
@@ -104,4 +115,4 @@ fun MapData.isRelationComplete(id: Long): Boolean =
     } ?: false
 
 fun MapData.isWayComplete(id: Long): Boolean =
-    getWay(id)?.nodeIds?.all { getNode(it) != null } ?: false
+    getWay(id)?.nodeIds?.all { getNodePosition(it) != null } ?: false
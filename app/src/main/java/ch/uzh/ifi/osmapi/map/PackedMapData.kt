@@ -0,0 +1,187 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.osmapi.map
+
+import ch.uzh.ifi.accesscomplete.util.LongIntHashMap
+import ch.uzh.ifi.accesscomplete.util.MultiIterable
+import de.westnordost.osmapi.map.data.*
+import java.io.Serializable
+import java.util.Date
+import kotlin.math.roundToInt
+
+/** MapData that needs much less memory than MutableMapData for large amounts of data, i.e. the
+ *  response of a map download of a whole area.
+ *
+ *  Instead of keeping one object per node (plus one for its position plus a boxed id and a hash map
+ *  entry), the data of nodes is kept in primitive arrays, with the coordinates stored as fixed
+ *  point integers with a precision of 1e-7 degrees, which is the precision of OSM data. Node
+ *  objects are only created on access. Since most nodes are just untagged way vertices that are
+ *  only accessed via [getNodePosition] to create the geometry of ways, most node objects are never
+ *  created.
+ *
+ *  Note that untagged nodes are created anew on each access, so they must not be compared by
+ *  identity. Tagged nodes, ways and relations are retained as objects. The node ids of each way are
+ *  kept in a primitive array. */
+class PackedMapData : MapDataStore {
+
+    private val nodeIndices = LongIntHashMap(INITIAL_NODE_CAPACITY)
+    private var nodeIds = LongArray(INITIAL_NODE_CAPACITY)
+    private var nodeVersions = IntArray(INITIAL_NODE_CAPACITY)
+    private var nodeLatitudes = IntArray(INITIAL_NODE_CAPACITY)
+    private var nodeLongitudes = IntArray(INITIAL_NODE_CAPACITY)
+    private var nodeDatesEdited = LongArray(INITIAL_NODE_CAPACITY)
+    private var taggedNodes = arrayOfNulls<Node>(INITIAL_NODE_CAPACITY)
+    private var nodeCount = 0
+
+    private val wayIndices = LongIntHashMap(INITIAL_WAY_CAPACITY)
+    private val wayList = ArrayList<Way>(INITIAL_WAY_CAPACITY)
+
+    private val relationIndices = LongIntHashMap()
+    private val relationList = ArrayList<Relation>()
+
+    override var boundingBox: BoundingBox? = null
+        private set
+
+    override fun handle(bounds: BoundingBox) { boundingBox = bounds }
+
+    override fun handle(node: Node) {
+        var i = nodeIndices.get(node.id)
+        if (i == -1) {
+            i = nodeCount++
+            if (i == nodeIds.size) growNodes()
+            nodeIndices.put(node.id, i)
+        }
+        nodeIds[i] = node.id
+        nodeVersions[i] = node.version
+        nodeLatitudes[i] = node.position.latitude.toFixed()
+        nodeLongitudes[i] = node.position.longitude.toFixed()
+        nodeDatesEdited[i] = node.dateEdited?.time ?: NO_DATE
+        taggedNodes[i] = if (node.tags.isNullOrEmpty()) null else node
+    }
+
+    override fun handle(way: Way) {
+        val packedWay = OsmWay(
+            way.id, way.version, PackedNodeIdList(way.nodeIds.toLongArray()), way.tags, null, way.dateEdited
+        )
+        val i = wayIndices.get(way.id)
+        if (i == -1) {
+            wayIndices.put(way.id, wayList.size)
+            wayList.add(packedWay)
+        } else {
+            wayList[i] = packedWay
+        }
+    }
+
+    override fun handle(relation: Relation) {
+        val i = relationIndices.get(relation.id)
+        if (i == -1) {
+            relationIndices.put(relation.id, relationList.size)
+            relationList.add(relation)
+        } else {
+            relationList[i] = relation
+        }
+    }
+
+    override val nodes: Collection<Node> = object : AbstractCollection<Node>() {
+        override val size get() = nodeCount
+        override fun iterator() = object : Iterator<Node> {
+            private var i = 0
+            override fun hasNext() = i < nodeCount
+            override fun next(): Node {
+                if (!hasNext()) throw NoSuchElementException()
+                return getNodeAt(i++)
+            }
+        }
+    }
+    /** The nodes that have tags. Unlike iterating through [nodes], this does not create an object
+     *  for each untagged node */
+    val taggedNodeSequence: Sequence<Node> get() =
+        (0 until nodeCount).asSequence().mapNotNull { taggedNodes[it] }
+
+    override val ways: Collection<Way> get() = wayList
+    override val relations: Collection<Relation> get() = relationList
+
+    override fun getNode(id: Long): Node? {
+        val i = nodeIndices.get(id)
+        return if (i != -1) getNodeAt(i) else null
+    }
+
+    override fun getNodePosition(id: Long): LatLon? {
+        val i = nodeIndices.get(id)
+        return if (i != -1) OsmLatLon(nodeLatitudes[i].fromFixed(), nodeLongitudes[i].fromFixed()) else null
+    }
+
+    override fun getWay(id: Long): Way? {
+        val i = wayIndices.get(id)
+        return if (i != -1) wayList[i] else null
+    }
+
+    override fun getRelation(id: Long): Relation? {
+        val i = relationIndices.get(id)
+        return if (i != -1) relationList[i] else null
+    }
+
+    override fun iterator(): Iterator<Element> {
+        val elements = MultiIterable<Element>()
+        elements.add(nodes)
+        elements.add(ways)
+        elements.add(relations)
+        return elements.iterator()
+    }
+
+    private fun getNodeAt(i: Int): Node = taggedNodes[i] ?: OsmNode(
+        nodeIds[i],
+        nodeVersions[i],
+        nodeLatitudes[i].fromFixed(),
+        nodeLongitudes[i].fromFixed(),
+        null,
+        null,
+        nodeDatesEdited[i].takeIf { it != NO_DATE }?.let { Date(it) }
+    )
+
+    private fun growNodes() {
+        val capacity = nodeIds.size * 2
+        nodeIds = nodeIds.copyOf(capacity)
+        nodeVersions = nodeVersions.copyOf(capacity)
+        nodeLatitudes = nodeLatitudes.copyOf(capacity)
+        nodeLongitudes = nodeLongitudes.copyOf(capacity)
+        nodeDatesEdited = nodeDatesEdited.copyOf(capacity)
+        taggedNodes = taggedNodes.copyOf(capacity)
+    }
+
+    companion object {
+        private const val INITIAL_NODE_CAPACITY = 4096
+        private const val INITIAL_WAY_CAPACITY = 512
+        private const val NO_DATE = Long.MIN_VALUE
+    }
+}
+
+/** The node ids of a way. Each way has its own array so that a way does not keep anything else
+ *  alive and a way that is replaced does not leave its node ids behind */
+private class PackedNodeIdList(private val ids: LongArray) : AbstractList<Long>(), RandomAccess, Serializable {
+    override val size: Int get() = ids.size
+    override fun get(index: Int): Long = ids[index]
+}
+
+private fun Double.toFixed(): Int = (this * 1e7).roundToInt()
+private fun Int.fromFixed(): Double = this / 1e7
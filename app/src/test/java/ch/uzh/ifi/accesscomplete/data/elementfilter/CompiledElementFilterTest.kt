@@ -0,0 +1,110 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.elementfilter
+
+import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.*
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmNode
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Date
+
+class CompiledElementFilterTest {
+
+    private val elements = listOf(
+        node(null),
+        node(emptyMap()),
+        node(mapOf("highway" to "footway")),
+        node(mapOf("highway" to "path", "surface" to "asphalt")),
+        node(mapOf("highway" to "footway path")),
+        node(mapOf("highway" to "pathway", "access" to "no")),
+        node(mapOf("highway" to "crossing", "crossing" to "traffic_signals", "width" to "2")),
+        node(mapOf("highway" to "crossing", "check_date" to "2000-01-01")),
+        node(mapOf("kerb" to "lowered", "barrier" to "kerb", "width" to "4.5"))
+    )
+
+    @Test fun `tag filters`() {
+        assertSameMatches(leaf(HasKey("highway")))
+        assertSameMatches(leaf(NotHasKey("highway")))
+        assertSameMatches(leaf(HasTag("highway", "footway")))
+        assertSameMatches(leaf(NotHasTag("highway", "footway")))
+    }
+
+    @Test fun `regex filters that are an alternation of values`() {
+        assertSameMatches(leaf(HasTagValueLike("highway", "footway|path")))
+        assertSameMatches(leaf(NotHasTagValueLike("highway", "footway|path")))
+        assertSameMatches(leaf(HasTagValueLike("highway", "footway path|crossing")))
+        assertSameMatches(leaf(HasTagValueLike("crossing", "traffic_signals")))
+    }
+
+    @Test fun `regex filters that are no alternation of values`() {
+        assertSameMatches(leaf(HasTagValueLike("highway", "path.*")))
+        assertSameMatches(leaf(NotHasTagValueLike("highway", "foot(way)?|path")))
+        assertSameMatches(leaf(HasTagValueLike("highway", "[a-z]+")))
+    }
+
+    @Test fun `other filters`() {
+        assertSameMatches(leaf(HasTagGreaterThan("width", 3f)))
+        assertSameMatches(leaf(HasDateTagLessThan("check_date", FixedDate(Date()))))
+        assertSameMatches(leaf(CombineFilters(HasKey("highway"), NotHasKey("access"))))
+        assertSameMatches(leaf(HasKeyLike("high.*")))
+    }
+
+    @Test fun `chains`() {
+        assertSameMatches(allOf(leaf(HasTagValueLike("highway", "footway|path")), leaf(NotHasKey("surface"))))
+        assertSameMatches(anyOf(leaf(HasTag("highway", "crossing")), leaf(HasTagValueLike("highway", "foot.*"))))
+        assertSameMatches(allOf(
+            anyOf(leaf(HasTag("barrier", "kerb")), leaf(HasKey("crossing"))),
+            anyOf(leaf(NotHasKey("kerb")), leaf(HasTagGreaterThan("width", 3f)))
+        ))
+        assertSameMatches(allOf(allOf(leaf(HasKey("highway")), leaf(NotHasTag("access", "no"))), leaf(HasKey("surface"))))
+        assertSameMatches(anyOf(anyOf(leaf(HasKey("kerb")), leaf(HasKey("surface"))), leaf(HasKey("width"))))
+    }
+
+    @Test fun `empty chains`() {
+        assertSameMatches(allOf())
+        assertSameMatches(anyOf())
+    }
+
+    @Test fun `parsed expressions`() {
+        val expr = "nodes with highway ~ footway|path and !surface or kerb and width > 3".toElementFilterExpression()
+        assertEquals(listOf(false, false, true, false, false, false, false, false, true), elements.map { expr.matches(it) })
+    }
+
+    private fun assertSameMatches(expression: BooleanExpression<ElementFilter, Element>) {
+        val compiled = expression.compile()
+        for (element in elements) {
+            assertEquals("$expression on ${element.tags}", expression.matches(element), compiled.matches(element))
+        }
+    }
+}
+
+private fun node(tags: Map<String, String>?) = OsmNode(1, 1, 0.0, 0.0, tags)
+
+private fun leaf(filter: ElementFilter) = Leaf<ElementFilter, Element>(filter)
+
+private fun allOf(vararg children: BooleanExpression<ElementFilter, Element>) =
+    AllOf<ElementFilter, Element>().apply { children.forEach { addChild(it) } }
+
+private fun anyOf(vararg children: BooleanExpression<ElementFilter, Element>) =
+    AnyOf<ElementFilter, Element>().apply { children.forEach { addChild(it) } }
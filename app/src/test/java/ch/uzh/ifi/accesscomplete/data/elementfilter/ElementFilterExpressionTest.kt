@@ -26,9 +26,14 @@ import org.junit.Test
 
 import de.westnordost.osmapi.map.data.Element
 import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.CachingMapDataWithGeometry
 import ch.uzh.ifi.accesscomplete.data.elementfilter.filters.ElementFilter
 import ch.uzh.ifi.accesscomplete.mock
 import ch.uzh.ifi.accesscomplete.on
+import ch.uzh.ifi.osmapi.map.MutableMapData
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmWay
 
 import org.junit.Assert.*
 import java.util.*
@@ -96,6 +101,81 @@ class ElementFilterExpressionTest {
         assertFalse(expr.matches(node))
     }
 
+    @Test fun `required keys of expression without tag filters`() {
+        assertEquals(emptySet<String>(), "nodes".toElementFilterExpression().requiredKeys)
+    }
+
+    @Test fun `required keys of tag filters`() {
+        assertEquals(setOf("a"), "nodes with a".toElementFilterExpression().requiredKeys)
+        assertEquals(setOf("a"), "nodes with a = b".toElementFilterExpression().requiredKeys)
+        assertEquals(setOf("a"), "nodes with a ~ b|c".toElementFilterExpression().requiredKeys)
+        assertEquals(setOf("a"), "nodes with a > 3".toElementFilterExpression().requiredKeys)
+        assertEquals(setOf("a"), "nodes with a < today -1 years".toElementFilterExpression().requiredKeys)
+        assertEquals(setOf("a"), "nodes with a older today -1 years".toElementFilterExpression().requiredKeys)
+    }
+
+    @Test fun `no required keys of negated tag filters`() {
+        assertEquals(emptySet<String>(), "nodes with !a".toElementFilterExpression().requiredKeys)
+        assertEquals(emptySet<String>(), "nodes with a != b".toElementFilterExpression().requiredKeys)
+        assertEquals(emptySet<String>(), "nodes with a !~ b|c".toElementFilterExpression().requiredKeys)
+        assertEquals(emptySet<String>(), "nodes with older today -1 years".toElementFilterExpression().requiredKeys)
+    }
+
+    @Test fun `required keys of all of`() {
+        assertEquals(setOf("a", "b"), "nodes with a and b = c and !d".toElementFilterExpression().requiredKeys)
+    }
+
+    @Test fun `required keys of any of`() {
+        assertEquals(setOf("a"), "nodes with (a and b) or (a = c and d)".toElementFilterExpression().requiredKeys)
+        assertEquals(emptySet<String>(), "nodes with a or b".toElementFilterExpression().requiredKeys)
+        assertEquals(emptySet<String>(), "nodes with a or !b".toElementFilterExpression().requiredKeys)
+    }
+
+    @Test fun `required tags of tag filters`() {
+        assertEquals(mapOf("a" to "b"), "nodes with a = b".toElementFilterExpression().requiredTags)
+        assertEquals(emptyMap<String, String>(), "nodes with a".toElementFilterExpression().requiredTags)
+        assertEquals(emptyMap<String, String>(), "nodes with a ~ b|c".toElementFilterExpression().requiredTags)
+        assertEquals(emptyMap<String, String>(), "nodes with a != b".toElementFilterExpression().requiredTags)
+    }
+
+    @Test fun `required tags of combined tag filters`() {
+        assertEquals(mapOf("a" to "b", "c" to "d"), "nodes with a = b and c = d and e".toElementFilterExpression().requiredTags)
+        assertEquals(mapOf("a" to "b"), "nodes with (a = b and c) or (a = b and c = d)".toElementFilterExpression().requiredTags)
+        assertEquals(emptyMap<String, String>(), "nodes with a = b or a = c".toElementFilterExpression().requiredTags)
+    }
+
+    @Test fun `get matching elements of map data`() {
+        val mapData = createMapData()
+        val expr = "ways with highway = footway and !surface".toElementFilterExpression()
+
+        assertEquals(listOf(2L), expr.getMatchingWays(mapData).map { it.id })
+        assertEquals(listOf(2L), expr.getMatchingElements(mapData).map { it.id })
+        assertEquals(emptyList<Node>(), expr.getMatchingNodes(mapData))
+    }
+
+    @Test fun `get matching elements of map data with tag index`() {
+        val mapData = createMapData()
+        mapData.buildTagIndex()
+
+        assertEquals(listOf(2L), "ways with highway = footway and !surface".toElementFilterExpression().getMatchingWays(mapData).map { it.id })
+        assertEquals(listOf(1L, 2L, 3L), "ways with highway".toElementFilterExpression().getMatchingWays(mapData).map { it.id }.sorted())
+        assertEquals(listOf(4L), "ways with !highway".toElementFilterExpression().getMatchingWays(mapData).map { it.id })
+        assertEquals(listOf(1L), "nodes with barrier = kerb or kerb".toElementFilterExpression().getMatchingNodes(mapData).map { it.id })
+    }
+
+    private fun createMapData(): CachingMapDataWithGeometry {
+        val mapData = MutableMapData()
+        mapData.addAll(listOf(
+            OsmNode(1, 1, 0.0, 0.0, mapOf("barrier" to "kerb")),
+            OsmNode(2, 1, 0.0, 0.0, null),
+            OsmWay(1, 1, listOf(1L, 2L), mapOf("highway" to "footway", "surface" to "asphalt")),
+            OsmWay(2, 1, listOf(1L, 2L), mapOf("highway" to "footway")),
+            OsmWay(3, 1, listOf(1L, 2L), mapOf("highway" to "residential")),
+            OsmWay(4, 1, listOf(1L, 2L), mapOf("building" to "yes"))
+        ))
+        return CachingMapDataWithGeometry(mock(), mapData)
+    }
+
     private fun createElement(type: Element.Type): Element {
         val element: Element = mock()
         on(element.type).thenReturn(type)
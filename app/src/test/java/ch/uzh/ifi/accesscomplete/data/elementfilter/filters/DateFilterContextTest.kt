@@ -0,0 +1,127 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.elementfilter.filters
+
+import ch.uzh.ifi.accesscomplete.data.elementfilter.dateDaysAgo
+import ch.uzh.ifi.accesscomplete.data.elementfilter.matches
+import ch.uzh.ifi.accesscomplete.data.meta.toCheckDate
+import ch.uzh.ifi.accesscomplete.data.meta.toCheckDateString
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class DateFilterContextTest {
+
+    @Test fun `now is frozen within frozen`() {
+        DateFilterContext.frozen {
+            val now = DateFilterContext.now
+            Thread.sleep(5)
+            assertEquals(now, DateFilterContext.now)
+        }
+    }
+
+    @Test fun `now is frozen until the outermost frozen is finished`() {
+        DateFilterContext.frozen {
+            val now = DateFilterContext.now
+            DateFilterContext.frozen { }
+            Thread.sleep(5)
+            assertEquals(now, DateFilterContext.now)
+        }
+    }
+
+    @Test fun `now is not frozen outside of frozen`() {
+        DateFilterContext.frozen { }
+        val now = DateFilterContext.now
+        Thread.sleep(5)
+        assertTrue(DateFilterContext.now > now)
+    }
+
+    @Test fun `now is not frozen on other threads`() {
+        DateFilterContext.frozen {
+            var otherNow = 0L
+            Thread.sleep(5)
+            thread { otherNow = DateFilterContext.now }.join()
+            assertTrue(otherNow > DateFilterContext.now)
+        }
+    }
+
+    @Test fun `frozen context can be continued on other threads`() {
+        DateFilterContext.frozen {
+            val context = DateFilterContext.current!!
+            var otherNow = 0L
+            Thread.sleep(5)
+            thread { otherNow = DateFilterContext.frozen(context) { DateFilterContext.now } }.join()
+            assertEquals(DateFilterContext.now, otherNow)
+        }
+        assertNull(DateFilterContext.current)
+    }
+
+    @Test fun `frozen context is carried over to coroutines`() {
+        DateFilterContext.frozen {
+            val now = DateFilterContext.now
+            Thread.sleep(5)
+            val otherNow = runBlocking(DateFilterContext.asContextElement()) {
+                withContext(Dispatchers.Default) { DateFilterContext.now }
+            }
+            assertEquals(now, otherNow)
+        }
+    }
+
+    @Test fun `relative date is relative to frozen now`() {
+        val date = RelativeDate(-1f)
+        DateFilterContext.frozen {
+            assertEquals(DateFilterContext.now - 24 * 60 * 60 * 1000L, date.time)
+            assertEquals(date.time, date.date.time)
+        }
+    }
+
+    @Test fun `parses check date`() {
+        assertEquals("2020-05-01".toCheckDate()?.time, DateFilterContext.parseCheckDate("2020-05-01"))
+        assertNull(DateFilterContext.parseCheckDate("yes"))
+    }
+
+    @Test fun `parses check date within frozen`() {
+        DateFilterContext.frozen {
+            assertEquals("2020-05-01".toCheckDate()?.time, DateFilterContext.parseCheckDate("2020-05-01"))
+            assertEquals("2020-05-01".toCheckDate()?.time, DateFilterContext.parseCheckDate("2020-05-01"))
+            assertNull(DateFilterContext.parseCheckDate("yes"))
+            assertNull(DateFilterContext.parseCheckDate("yes"))
+        }
+    }
+
+    @Test fun `filters match the same within frozen`() {
+        val filter = TagOlderThan("surface", RelativeDate(-100f))
+        val tags = mapOf("surface" to "asphalt", "surface:check_date" to dateDaysAgo(101f).toCheckDateString())
+        val newDate = dateDaysAgo(99f)
+
+        assertTrue(filter.matches(tags, newDate))
+        DateFilterContext.frozen {
+            assertTrue(filter.matches(tags, newDate))
+            assertTrue(filter.matches(tags, newDate))
+            assertFalse(filter.matches(mapOf("surface" to "asphalt"), newDate))
+        }
+    }
+}
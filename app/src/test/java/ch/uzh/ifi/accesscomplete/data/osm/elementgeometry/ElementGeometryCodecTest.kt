@@ -0,0 +1,118 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.util.KryoSerializer
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.OsmLatLon
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import kotlin.random.Random
+
+class ElementGeometryCodecTest {
+
+    @Test fun `encode and decode`() {
+        val parts = listOf(
+            listOf(p(47.1234567, 8.7654321), p(47.1234568, 8.7654329), p(47.2, 8.6)),
+            listOf(p(-33.9, 151.2), p(-34.0, 151.3))
+        )
+        assertEquals(parts, ElementGeometryCodec.decode(ElementGeometryCodec.encode(parts)))
+    }
+
+    @Test fun `encode and decode extreme coordinates`() {
+        val parts = listOf(listOf(p(-90.0, -180.0), p(90.0, 180.0), p(0.0, -180.0)))
+        assertEquals(parts, ElementGeometryCodec.decode(ElementGeometryCodec.encode(parts)))
+    }
+
+    @Test fun `encode and decode nothing`() {
+        assertEquals(listOf<List<LatLon>>(), ElementGeometryCodec.decode(ElementGeometryCodec.encode(listOf())))
+        val emptyPart = listOf(listOf<LatLon>())
+        assertEquals(emptyPart, ElementGeometryCodec.decode(ElementGeometryCodec.encode(emptyPart)))
+    }
+
+    @Test fun `decoded geometry can be serialized`() {
+        val parts = listOf(listOf(p(47.1234567, 8.7654321), p(47.2, 8.6)), listOf(p(-33.9, 151.2)))
+        val geometry = ElementPolylinesGeometry(ElementGeometryCodec.decode(ElementGeometryCodec.encode(parts)), p(47.2, 8.6))
+
+        val bytes = ByteArrayOutputStream()
+        ObjectOutputStream(bytes).use { it.writeObject(geometry) }
+        val deserialized = ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())).use { it.readObject() }
+
+        assertEquals(parts, (deserialized as ElementPolylinesGeometry).polylines)
+    }
+
+    @Test fun `decode bounds`() {
+        val parts = listOf(
+            listOf(p(1.0, 2.0), p(3.0, -4.0)),
+            listOf(p(-5.0, 6.0))
+        )
+        assertEquals(
+            BoundingBox(-5.0, -4.0, 3.0, 6.0),
+            ElementGeometryCodec.decodeBounds(ElementGeometryCodec.encode(parts))
+        )
+    }
+
+    @Test fun `decode bounds across 180th meridian`() {
+        val parts = listOf(listOf(p(1.0, 179.0), p(2.0, -178.0), p(0.0, 178.5)))
+        assertEquals(
+            BoundingBox(0.0, 178.5, 2.0, -178.0),
+            ElementGeometryCodec.decodeBounds(ElementGeometryCodec.encode(parts))
+        )
+    }
+
+    @Test fun `decoded geometry has bounds across 180th meridian`() {
+        val parts = listOf(listOf(p(1.0, 179.0), p(2.0, -178.0)))
+        val decoded = ElementGeometryCodec.decode(ElementGeometryCodec.encode(parts))
+        assertEquals(parts, decoded)
+        assertEquals(BoundingBox(1.0, 179.0, 2.0, -178.0), decoded.getBounds())
+    }
+
+    @Test fun `is much smaller than kryo serialization`() {
+        val random = Random(42)
+        var lat = 47.0
+        var lon = 8.0
+        val polyline = ArrayList<OsmLatLon>()
+        repeat(1000) {
+            lat += random.nextInt(-1000, 1000) / 1e7
+            lon += random.nextInt(-1000, 1000) / 1e7
+            polyline.add(p((lat * 1e7).toLong() / 1e7, (lon * 1e7).toLong() / 1e7))
+        }
+        val parts = arrayListOf(polyline)
+        val encoded = ElementGeometryCodec.encode(parts)
+        val kryo = KryoSerializer().toBytes(parts)
+
+        assertEquals(parts, ElementGeometryCodec.decode(encoded))
+        assertTrue(encoded.size * 3 < kryo.size)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun `packed list checks index`() {
+        ElementGeometryCodec.decode(ElementGeometryCodec.encode(listOf(listOf(p(1.0, 2.0)))))[0][1]
+    }
+}
+
+private fun p(lat: Double, lon: Double) = OsmLatLon(lat, lon)
@@ -140,6 +140,27 @@ class ElementGeometryCreatorTest {
         assertTrue(geom.polylines.containsAll(listOf(CCW_RING, listOf(P0, P1, P2))))
     }
 
+    @Test(timeout = 5000)
+    fun `create for multipolygon relation with outer composed of very many ways`() {
+        // a ring around a circle, split into ways given in random order and direction
+        val wayCount = 10000
+        val ringPositions = List(2 * wayCount) {
+            val angle = 2 * Math.PI * it / (2 * wayCount)
+            OsmLatLon(Math.sin(angle), Math.cos(angle))
+        }
+        val random = kotlin.random.Random(1)
+        val wayGeometries = (0 until wayCount).associate { i ->
+            val positions = listOf(ringPositions[2 * i], ringPositions[2 * i + 1], ringPositions[(2 * i + 2) % ringPositions.size])
+            i.toLong() to if (random.nextBoolean()) positions.asReversed() else positions
+        }
+        val members = wayGeometries.keys.shuffled(random).map { OsmRelationMember(it, "outer", Element.Type.WAY) }
+
+        val geom = ElementGeometryCreator().create(areaRelation(members), wayGeometries) as ElementPolygonsGeometry
+        val ring = geom.polygons.single()
+        assertEquals(2 * wayCount + 1, ring.size)
+        assertEquals(ringPositions.toSet(), ring.toSet())
+    }
+
     @Test fun `positions for way`() {
         val nodes = listOf<Node>(
             OsmNode(0, 1, P0, null, null, null),
@@ -0,0 +1,69 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.data.WhereSelectionBuilder
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.OsmLatLon
+import org.junit.Assert.*
+import org.junit.Test
+
+class ElementGeometryTilesTest {
+
+    @Test fun `neighbouring tiles in a row have consecutive keys`() {
+        val key = OsmLatLon(47.37, 8.54).toGeometryTileKey()
+        val tileWidth = 360.0 / (1 shl ElementGeometryTable.TILE_ZOOM)
+        assertEquals(key + 1, OsmLatLon(47.37, 8.54 + tileWidth).toGeometryTileKey())
+    }
+
+    @Test fun `tile key of positions at the poles and the 180th meridian`() {
+        val max = (1L shl ElementGeometryTable.TILE_ZOOM) - 1
+        assertEquals(0L, OsmLatLon(90.0, -180.0).toGeometryTileKey())
+        assertEquals((max shl ElementGeometryTable.TILE_ZOOM) or max, OsmLatLon(-90.0, 179.9999999).toGeometryTileKey())
+    }
+
+    @Test fun `geometry within small bounds uses tile ranges`() {
+        val bounds = BoundingBox(47.37, 8.54, 47.38, 8.55)
+        val builder = WhereSelectionBuilder().apply { addGeometryWithin(bounds) }
+
+        assertTrue(builder.where.startsWith("(tile BETWEEN ? AND ? OR "))
+        val args = builder.args
+        val minKey = OsmLatLon(bounds.minLatitude, bounds.minLongitude).toGeometryTileKey()
+        val maxKey = OsmLatLon(bounds.maxLatitude, bounds.maxLongitude).toGeometryTileKey()
+        // the last row is the southernmost one
+        assertEquals(minKey.toString(), args[args.size - 6])
+        assertEquals(maxKey, args[1].toLong())
+        assertEquals("47.37", args[args.size - 4])
+    }
+
+    @Test fun `geometry within large bounds uses no tile ranges`() {
+        val builder = WhereSelectionBuilder().apply { addGeometryWithin(BoundingBox(40.0, 0.0, 50.0, 10.0)) }
+        assertFalse(builder.where.contains("tile"))
+        assertEquals(4, builder.args.size)
+    }
+
+    @Test fun `geometry within bounds crossing the 180th meridian uses no tile ranges`() {
+        val builder = WhereSelectionBuilder().apply { addGeometryWithin(BoundingBox(0.0, 179.99, 0.01, -179.99)) }
+        assertFalse(builder.where.contains("tile"))
+    }
+}
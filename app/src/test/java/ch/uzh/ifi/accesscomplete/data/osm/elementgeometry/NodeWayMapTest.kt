@@ -26,6 +26,7 @@ import org.junit.Test
 
 
 import org.junit.Assert.*
+import kotlin.random.Random
 
 class NodeWayMapTest {
     @Test fun all() {
@@ -56,4 +57,72 @@ class NodeWayMapTest {
 
         assertFalse(map.hasNextNode())
     }
+
+    @Test fun `first way at node is the first given way that has not been removed`() {
+        val way1 = listOf(1L, 2L)
+        val way2 = listOf(3L, 1L)
+        val way3 = listOf(1L, 4L)
+
+        val map = NodeWayMap(listOf(way1, way2, way3))
+        assertSame(way1, map.getFirstWayAtNode(1L))
+        map.removeWay(way1)
+        assertSame(way2, map.getFirstWayAtNode(1L))
+        map.removeWay(way3)
+        assertSame(way2, map.getFirstWayAtNode(1L))
+        map.removeWay(way2)
+        assertNull(map.getFirstWayAtNode(1L))
+        assertNull(map.getFirstWayAtNode(5L))
+    }
+
+    @Test fun `behaves like a map that removes ways from the lists of ways at each node`() {
+        val random = Random(42)
+        repeat(200) {
+            val ways = List(random.nextInt(1, 30)) {
+                List(random.nextInt(2, 5)) { random.nextLong(0, 15) }
+            }
+            val map = NodeWayMap(ways)
+            val expected = ReferenceNodeWayMap(ways)
+
+            while (expected.hasNextNode()) {
+                assertTrue(map.hasNextNode())
+                assertEquals(expected.getNextNode(), map.getNextNode())
+                val node = if (random.nextBoolean()) expected.getNextNode() else random.nextLong(0, 15)
+                val expectedWays = expected.getWaysAtNode(node)
+                assertEquals(expectedWays?.size, map.getWaysAtNode(node)?.size)
+                assertSame(expectedWays?.first(), map.getFirstWayAtNode(node))
+
+                val way = expectedWays?.random(random) ?: continue
+                expected.removeWay(way)
+                map.removeWay(way)
+            }
+            assertFalse(map.hasNextNode())
+        }
+    }
+}
+
+/** The straightforward implementation: removing a way walks through all the lists of ways */
+private class ReferenceNodeWayMap<T>(ways: List<List<T>>) {
+    private val wayEndpoints = LinkedHashMap<T, MutableList<List<T>>>()
+
+    init {
+        for (way in ways) {
+            wayEndpoints.getOrPut(way.first(), { ArrayList() }).add(way)
+            wayEndpoints.getOrPut(way.last(), { ArrayList() }).add(way)
+        }
+    }
+
+    fun hasNextNode(): Boolean = wayEndpoints.isNotEmpty()
+
+    fun getNextNode(): T = wayEndpoints.keys.iterator().next()
+
+    fun getWaysAtNode(node: T): List<List<T>>? = wayEndpoints[node]
+
+    fun removeWay(way: List<T>) {
+        val it = wayEndpoints.values.iterator()
+        while (it.hasNext()) {
+            val waysPerNode = it.next()
+            waysPerNode.removeAll { it === way }
+            if (waysPerNode.isEmpty()) it.remove()
+        }
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.elementgeometry
+
+import ch.uzh.ifi.accesscomplete.util.measuredLength
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.LatLon
+import de.westnordost.osmapi.map.data.OsmLatLon
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+class PackedPolylinesTest {
+
+    private val parts = listOf(
+        listOf(p(1.0, 2.0), p(3.0, -4.0)),
+        listOf(p(-5.0, 6.0)),
+        listOf()
+    )
+
+    @Test fun `is equal to the list it was created from`() {
+        val packed = PackedPolylines.of(parts)
+        assertEquals(parts, packed)
+        assertEquals(packed, parts)
+        assertEquals(parts.hashCode(), packed.hashCode())
+        assertEquals(PackedPolylines.of(parts), packed)
+    }
+
+    @Test fun `gives access to coordinates`() {
+        val packed = PackedPolylines.of(parts)
+        assertEquals(3, packed.size)
+        assertEquals(2, packed.getPointCount(0))
+        assertEquals(1, packed.getPointCount(1))
+        assertEquals(0, packed.getPointCount(2))
+        assertEquals(3.0, packed.getLatitude(0, 1), 0.0)
+        assertEquals(-4.0, packed.getLongitude(0, 1), 0.0)
+        assertEquals(-5.0, packed.getLatitude(1, 0), 0.0)
+        assertEquals(6.0, packed.getLongitude(1, 0), 0.0)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun `part checks index`() {
+        PackedPolylines.of(parts)[1][1]
+    }
+
+    @Test fun `of returns packed polylines as is`() {
+        val packed = PackedPolylines.of(parts)
+        assertSame(packed, PackedPolylines.of(packed))
+    }
+
+    @Test fun bounds() {
+        assertEquals(BoundingBox(-5.0, -4.0, 3.0, 6.0), PackedPolylines.of(parts).getBounds())
+    }
+
+    @Test fun `bounds across 180th meridian`() {
+        val packed = PackedPolylines.of(listOf(listOf(p(0.0, 179.0), p(1.0, -179.0))))
+        val bounds = packed.getBounds()
+        assertEquals(BoundingBox(0.0, 179.0, 1.0, -179.0), bounds)
+        assertTrue(bounds.crosses180thMeridian())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `bounds of nothing`() {
+        PackedPolylines.of(listOf(listOf())).getBounds()
+    }
+
+    @Test fun `measured length is sum of lengths of parts`() {
+        val packed = PackedPolylines.of(parts)
+        assertEquals(parts.sumByDouble { it.measuredLength() }, packed.measuredLength(), 1e-6)
+    }
+
+    @Test fun `survives java serialization`() {
+        val packed = PackedPolylines.of(parts)
+        val bytes = ByteArrayOutputStream().use { bos ->
+            ObjectOutputStream(bos).use { it.writeObject(packed) }
+            bos.toByteArray()
+        }
+        val restored = ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() } as PackedPolylines
+        assertEquals(packed, restored)
+        assertEquals(packed.getBounds(), restored.getBounds())
+    }
+
+    @Test fun `geometry survives java serialization`() {
+        val geometry = ElementPolylinesGeometry(ElementGeometryCodec.decode(ElementGeometryCodec.encode(parts)), p(1.0, 2.0))
+        val bytes = ByteArrayOutputStream().use { bos ->
+            ObjectOutputStream(bos).use { it.writeObject(geometry) }
+            bos.toByteArray()
+        }
+        val restored = ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() }
+        assertEquals(geometry, restored)
+    }
+
+    private fun p(lat: Double, lon: Double): LatLon = OsmLatLon(lat, lon)
+}
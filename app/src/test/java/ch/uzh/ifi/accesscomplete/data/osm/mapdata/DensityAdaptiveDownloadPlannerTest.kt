@@ -0,0 +1,173 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensity
+import ch.uzh.ifi.accesscomplete.data.download.tiles.TileDensityDao
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.on
+import ch.uzh.ifi.accesscomplete.util.Tile
+import ch.uzh.ifi.accesscomplete.util.TilesRect
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmWay
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+class DensityAdaptiveDownloadPlannerTest {
+    private lateinit var tileDensityDao: TileDensityDao
+    private lateinit var planner: DensityAdaptiveDownloadPlanner
+
+    // contains the tiles 4,4 to 7,7 at zoom 4
+    private val bounds = Tile(1, 1).asBoundingBox(2)
+
+    @Before fun setUp() {
+        tileDensityDao = mock()
+        on(tileDensityDao.getAll(any())).thenReturn(emptyMap())
+        planner = DensityAdaptiveDownloadPlanner(
+            tileDensityDao,
+            zoom = 4,
+            maxElementsPerRequest = 100,
+            maxZoomOut = 2,
+            maxZoomIn = 1
+        )
+    }
+
+    @Test fun `plans area of unknown density in tiles of the given zoom`() {
+        val boxes = planner.plan(bounds)
+
+        assertEquals(16, boxes.size)
+        assertEquals(bounds.area(), boxes.sumByDouble { it.area() }, 1e-9)
+    }
+
+    @Test fun `plans tiles of unknown density in tiles of the given zoom next to sparse ones`() {
+        on(tileDensityDao.getAll(any())).thenReturn(
+            densities { 1 }.filterKeys { it != Tile(4, 4) }
+        )
+
+        val boxes = planner.plan(bounds)
+
+        // the parent of the unknown tile in four, the other three parents as one each
+        assertEquals(7, boxes.size)
+        assertEquals(bounds.area(), boxes.sumByDouble { it.area() }, 1e-9)
+    }
+
+    @Test fun `plans sparse area in one request`() {
+        on(tileDensityDao.getAll(any())).thenReturn(densities { 1 })
+
+        assertEquals(listOf(bounds), planner.plan(bounds))
+    }
+
+    @Test fun `plans dense area in small tiles`() {
+        on(tileDensityDao.getAll(any())).thenReturn(densities { if (it == Tile(4, 4)) 400 else 1 })
+
+        val boxes = planner.plan(bounds)
+
+        // the dense tile in four, the other three tiles of its parent and the other three parents
+        assertEquals(10, boxes.size)
+        assertEquals(bounds.area(), boxes.sumByDouble { it.area() }, 1e-9)
+        val denseTileArea = Tile(4, 4).asBoundingBox(4).area()
+        assertEquals(4, boxes.count { it.area() < denseTileArea })
+    }
+
+    @Test fun `does not plan tiles smaller than allowed`() {
+        on(tileDensityDao.getAll(any())).thenReturn(densities { if (it == Tile(4, 4)) 100000 else 1 })
+
+        assertEquals(10, planner.plan(bounds).size)
+    }
+
+    @Test fun `plans only within bounds`() {
+        val smallBounds = BoundingBox(
+            bounds.minLatitude, bounds.minLongitude,
+            bounds.maxLatitude, (bounds.minLongitude + bounds.maxLongitude) / 2
+        )
+
+        val boxes = planner.plan(smallBounds)
+
+        assertEquals(smallBounds.area(), boxes.sumByDouble { it.area() }, 1e-9)
+    }
+
+    @Test fun `records density of downloaded tiles`() {
+        val tileBounds = Tile(4, 4).asBoundingBox(4)
+        val inTile = OsmLatLon(
+            (tileBounds.minLatitude + tileBounds.maxLatitude) / 2,
+            (tileBounds.minLongitude + tileBounds.maxLongitude) / 2
+        )
+        val outsideTile = OsmLatLon(inTile.latitude, inTile.longitude + 360.0 / 16)
+        val recorder = planner.createRecorder(TilesRect(4, 4, 4, 4).asBoundingBox(4))!!
+        recorder.handle(OsmNode(1, 1, inTile, null))
+        recorder.handle(OsmNode(2, 1, inTile, null))
+        recorder.handle(OsmNode(3, 1, outsideTile, null))
+        recorder.handle(OsmWay(1, 1, mutableListOf(1L, 3L), null))
+        recorder.handle(OsmWay(2, 1, mutableListOf(3L, 1L), null))
+        verify(tileDensityDao, never()).putAll(any())
+
+        recorder.onComplete()
+
+        verify(tileDensityDao).putAll(mapOf(Tile(4, 4) to TileDensity(2, 1)))
+    }
+
+    @Test fun `records density of tile downloaded in several parts`() {
+        val tileBounds = Tile(4, 4).asBoundingBox(4)
+        val parts = tileBounds.splitIntoFour()
+        parts.forEachIndexed { i, part ->
+            val center = OsmLatLon(
+                (part.minLatitude + part.maxLatitude) / 2,
+                (part.minLongitude + part.maxLongitude) / 2
+            )
+            val recorder = planner.createRecorder(part)!!
+            recorder.handle(OsmNode(i + 1L, 1, center, null))
+            // a way going through all parts is returned for each part, but counted once
+            recorder.handle(OsmWay(1, 1, mutableListOf(1L, 2L, 3L, 4L), null))
+            recorder.onComplete()
+            if (i < parts.lastIndex) verify(tileDensityDao, never()).putAll(any())
+        }
+
+        verify(tileDensityDao).putAll(mapOf(Tile(4, 4) to TileDensity(4, 1)))
+    }
+
+    @Test fun `does not record density of failed download`() {
+        val tileBounds = Tile(4, 4).asBoundingBox(4)
+        val center = OsmLatLon(
+            (tileBounds.minLatitude + tileBounds.maxLatitude) / 2,
+            (tileBounds.minLongitude + tileBounds.maxLongitude) / 2
+        )
+        planner.createRecorder(tileBounds)!!.handle(OsmNode(1, 1, center, null))
+
+        val recorder = planner.createRecorder(tileBounds)!!
+        recorder.handle(OsmNode(1, 1, center, null))
+        recorder.onComplete()
+
+        verify(tileDensityDao).putAll(mapOf(Tile(4, 4) to TileDensity(1, 0)))
+    }
+
+    private fun densities(elementCount: (Tile) -> Int): Map<Tile, TileDensity> =
+        TilesRect(4, 4, 7, 7).asTileSequence().associateWith { TileDensity(elementCount(it), 0) }
+}
+
+private fun BoundingBox.area() = (maxLatitude - minLatitude) * (maxLongitude - minLongitude)
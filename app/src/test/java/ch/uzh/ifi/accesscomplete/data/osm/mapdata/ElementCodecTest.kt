@@ -0,0 +1,127 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.on
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmRelationMember
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mockito.verify
+
+class ElementCodecTest {
+
+    private lateinit var dictionary: TagDictionary
+    private lateinit var strings: MutableList<String>
+    private lateinit var codec: ElementCodec
+
+    @Before fun setUp() {
+        strings = mutableListOf()
+        dictionary = mock()
+        on(dictionary.getId(any())).thenAnswer {
+            val string = it.arguments[0] as String
+            val id = strings.indexOf(string)
+            if (id != -1) id else { strings.add(string); strings.size - 1 }
+        }
+        on(dictionary.getString(anyInt())).thenAnswer { strings[it.arguments[0] as Int] }
+        codec = ElementCodec(dictionary)
+    }
+
+    @Test fun `encode and decode tags`() {
+        val tags = mapOf(
+            "highway" to "footway",
+            "footway" to "sidewalk",
+            "name" to "Ümlautstraße",
+            "name:ja" to "日本語",
+            "addr:housenumber" to "12a",
+            "surface" to "",
+            "description" to "x".repeat(1000)
+        )
+        assertEquals(tags, codec.decodeTags(codec.encodeTags(tags)))
+    }
+
+    @Test fun `encode and decode no tags`() {
+        assertEquals(mapOf<String, String>(), codec.decodeTags(codec.encodeTags(mapOf())))
+    }
+
+    @Test fun `keys and common values are in the dictionary, free text is not`() {
+        codec.encodeTags(mapOf(
+            "highway" to "footway",
+            "name" to "Bahnhofstrasse",
+            "name:de" to "Bahnhofstraße",
+            "addr:street" to "Bahnhofstrasse",
+            "note" to "cool",
+            "notes" to "short",
+            "surface" to "very long value that is certainly not used by many other elements"
+        ))
+        assertEquals(
+            setOf("highway", "footway", "name", "name:de", "addr:street", "note", "notes", "short", "surface"),
+            strings.toSet()
+        )
+    }
+
+    @Test fun `repeated strings are stored only once`() {
+        val tags = mapOf("highway" to "footway", "footway" to "highway")
+        assertTrue(codec.encodeTags(tags).size < 10)
+        assertEquals(2, strings.size)
+    }
+
+    @Test fun `encode and decode node ids`() {
+        val nodeIds = listOf(1L, 8000000000L, 7999999999L, -5L, 0L, Long.MAX_VALUE, 1L)
+        assertEquals(nodeIds, codec.decodeNodeIds(codec.encodeNodeIds(nodeIds)))
+    }
+
+    @Test fun `consecutive node ids take little space`() {
+        val nodeIds = (8000000000L until 8000000100L).toList()
+        assertTrue(codec.encodeNodeIds(nodeIds).size < 120)
+    }
+
+    @Test fun `encode and decode members`() {
+        val members = listOf(
+            OsmRelationMember(123456789L, "outer", Element.Type.WAY),
+            OsmRelationMember(123456788L, "inner", Element.Type.WAY),
+            OsmRelationMember(5L, "", Element.Type.NODE),
+            OsmRelationMember(9876L, "subarea", Element.Type.RELATION)
+        )
+        assertEquals(members, codec.decodeMembers(codec.encodeMembers(members)))
+    }
+
+    @Test fun `put dictionary entries of elements`() {
+        codec.putDictionaryEntries(listOf(
+            OsmNode(1, 1, OsmLatLon(0.0, 0.0), mapOf("highway" to "crossing", "name" to "Abc")),
+            OsmRelation(2, 1, listOf(OsmRelationMember(1, "stop", Element.Type.NODE)), null)
+        ))
+        verify(dictionary).persist(setOf("highway", "crossing", "name", "stop"))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `decoding unknown version fails`() {
+        codec.decodeTags(byteArrayOf(99, 0))
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChangesBuilder
+import ch.uzh.ifi.accesscomplete.data.osm.osmquest.OsmFilterQuestType
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.quests.AbstractQuestAnswerFragment
+import ch.uzh.ifi.osmapi.map.LightweightOsmMapDataFactory
+import ch.uzh.ifi.osmapi.map.MutableMapData
+import com.sun.net.httpserver.HttpServer
+import de.westnordost.osmapi.OsmConnection
+import de.westnordost.osmapi.map.data.BoundingBox
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class OverpassMapDataSourceTest {
+    private lateinit var server: HttpServer
+    private lateinit var fallback: MapDataSource
+    private lateinit var source: OverpassMapDataSource
+
+    private var responseCode = 200
+    private var response = ""
+    private val queries = ConcurrentLinkedQueue<String>()
+
+    private val bbox = BoundingBox(47.0, 8.0, 47.01, 8.01)
+
+    @Before fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/api/interpreter") { exchange ->
+            val body = exchange.requestBody.reader().readText()
+            queries.add(URLDecoder.decode(body.substringAfter("data="), "UTF-8"))
+            val bytes = response.toByteArray()
+            exchange.sendResponseHeaders(responseCode, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+            exchange.close()
+        }
+        server.start()
+        val overpass = OsmConnection("http://localhost:${server.address.port}/api/", "test")
+        fallback = mock()
+        source = OverpassMapDataSource(overpass, LightweightOsmMapDataFactory(), fallback)
+    }
+
+    @After fun tearDown() {
+        server.stop(0)
+    }
+
+    @Test fun `queries elements of all quest types from overpass`() {
+        response = """<?xml version="1.0" encoding="UTF-8"?>
+            <osm version="0.6">
+              <node id="1" version="1" timestamp="2020-01-01T00:00:00Z" lat="47.001" lon="8.001"/>
+              <node id="2" version="1" timestamp="2020-01-01T00:00:00Z" lat="47.002" lon="8.002"/>
+              <way id="3" version="2" timestamp="2020-01-01T00:00:00Z">
+                <nd ref="1"/><nd ref="2"/>
+                <tag k="highway" v="footway"/>
+              </way>
+            </osm>"""
+        val mapData = MutableMapData()
+
+        source.download(bbox, listOf(
+            TestQuestType("ways with highway = footway"),
+            TestQuestType("nodes with kerb")
+        ), mapData)
+
+        assertEquals(1, queries.size)
+        val query = queries.first()
+        assertTrue(query.startsWith("[timeout:180][maxsize:536870912][bbox:47.0000000,8.0000000,47.0100000,8.0100000];"))
+        assertTrue(query.contains("way[highway = footway]"))
+        assertTrue(query.contains("node[kerb]"))
+        assertTrue(query.contains("out meta;"))
+
+        assertEquals(2, mapData.nodes.size)
+        assertEquals(listOf(1L, 2L), mapData.getWay(3)!!.nodeIds)
+        verify(fallback, never()).download(any(), any(), any())
+    }
+
+    @Test fun `query unions the results of all quest types and recurses down`() {
+        val query = source.createQuery(bbox, listOf(
+            TestQuestType("ways with highway = footway"),
+            TestQuestType("nodes with kerb")
+        ))!!
+
+        assertEquals("""
+            [timeout:180][maxsize:536870912][bbox:47.0000000,8.0000000,47.0100000,8.0100000];
+            way[highway = footway];
+            (._;) -> .q0;
+            node[kerb];
+            (._;) -> .q1;
+            (.q0; .q1;);
+            (._; >;);
+            out meta;
+            """.trimIndent() + "\n", query)
+    }
+
+    @Test fun `falls back if a quest type requires the surrounding data`() {
+        val questTypes = listOf(
+            TestQuestType("ways with highway = footway"),
+            TestQuestType("nodes with kerb", requiresSurroundingData = true)
+        )
+        val mapData = MutableMapData()
+
+        source.download(bbox, questTypes, mapData)
+
+        assertTrue(queries.isEmpty())
+        verify(fallback).download(bbox, questTypes, mapData)
+    }
+
+    @Test fun `falls back if the filter of a quest type can not be expressed in overpass QL`() {
+        val questTypes = listOf(TestQuestType("nodes with !~foo"))
+
+        assertNull(source.createQuery(bbox, questTypes))
+    }
+
+    @Test fun `falls back if overpass is not available`() {
+        responseCode = 503
+        response = "Service unavailable"
+        val questTypes = listOf(TestQuestType("nodes with kerb"))
+        val mapData = MutableMapData()
+
+        source.download(bbox, questTypes, mapData)
+
+        assertEquals(1, queries.size)
+        verify(fallback).download(bbox, questTypes, mapData)
+    }
+
+    @Test fun `falls back if overpass is overloaded`() {
+        responseCode = 429
+        response = "Too many requests"
+        val questTypes = listOf(TestQuestType("nodes with kerb"))
+        val mapData = MutableMapData()
+
+        source.download(bbox, questTypes, mapData)
+
+        verify(fallback).download(bbox, questTypes, mapData)
+    }
+
+    @Test fun `falls back if overpass reports a runtime error`() {
+        response = """<?xml version="1.0" encoding="UTF-8"?>
+            <osm version="0.6">
+              <node id="1" version="1" timestamp="2020-01-01T00:00:00Z" lat="47.001" lon="8.001">
+                <tag k="kerb" v="lowered"/>
+              </node>
+              <remark> runtime error: Query timed out in "query" at line 3 after 181 seconds. </remark>
+            </osm>"""
+        val questTypes = listOf(TestQuestType("nodes with kerb"))
+        val mapData = MutableMapData()
+
+        source.download(bbox, questTypes, mapData)
+
+        verify(fallback).download(bbox, questTypes, mapData)
+    }
+
+    @Test fun `falls back if the response is incomplete`() {
+        response = """<?xml version="1.0" encoding="UTF-8"?>
+            <osm version="0.6">
+              <node id="1" version="1" timestamp="2020-01-01T00:00:00Z" lat="47.001" lon="8.001">
+                <tag k="kerb" v="lowered"/>
+              </node>"""
+        val questTypes = listOf(TestQuestType("nodes with kerb"))
+        val mapData = MutableMapData()
+
+        source.download(bbox, questTypes, mapData)
+
+        verify(fallback).download(bbox, questTypes, mapData)
+    }
+}
+
+private class TestQuestType(
+    override val elementFilter: String,
+    override val requiresSurroundingData: Boolean = false
+) : OsmFilterQuestType<String>() {
+
+    override val icon = 0
+    override val commitMessage = ""
+    override fun getTitle(tags: Map<String, String>) = 0
+    override fun createForm() = object : AbstractQuestAnswerFragment<String>() {}
+    override fun applyAnswerTo(answer: String, changes: StringMapChangesBuilder) {}
+}
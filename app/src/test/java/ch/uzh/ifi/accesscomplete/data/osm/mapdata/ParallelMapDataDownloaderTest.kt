@@ -0,0 +1,265 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.mapdata
+
+import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.osmapi.map.LightweightOsmMapDataFactory
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import de.westnordost.osmapi.OsmConnection
+import de.westnordost.osmapi.common.errors.OsmConnectionException
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
+import de.westnordost.osmapi.map.handler.MapDataHandler
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelMapDataDownloaderTest {
+    private lateinit var server: HttpServer
+    private lateinit var mapDataApi: MapDataApi
+
+    /** Returns the HTTP status code and the OSM XML to respond with for the given bbox */
+    private var respond: (BoundingBox) -> Pair<Int, String> = { 200 to osm() }
+    private val requests = ConcurrentLinkedQueue<BoundingBox>()
+    private val concurrentRequests = AtomicInteger(0)
+    private val maxConcurrentRequests = AtomicInteger(0)
+
+    @Before fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/api/0.6/map") { exchange -> handleMapRequest(exchange) }
+        server.executor = Executors.newCachedThreadPool()
+        server.start()
+        val url = "http://localhost:${server.address.port}/api/0.6/"
+        mapDataApi = MapDataApi(OsmConnection(url, "test"), LightweightOsmMapDataFactory())
+    }
+
+    @After fun tearDown() {
+        server.stop(0)
+    }
+
+    @Test fun `passes on the data of all planned bounding boxes`() {
+        respond = { bbox ->
+            if (bbox.minLongitude < 0.5) 200 to osm(node(1, 0.25, 0.25))
+            else 200 to osm(node(2, 0.75, 0.75))
+        }
+        val handler = RecordingMapDataHandler()
+
+        downloader(splitInTwo).download(bbox, handler)
+
+        assertEquals(2, requests.size)
+        assertEquals(setOf(1L, 2L), handler.nodes.map { it.id }.toSet())
+    }
+
+    @Test fun `passes on elements contained in several responses only once`() {
+        respond = { bbox ->
+            val ownNode = if (bbox.minLongitude < 0.5) node(1, 0.25, 0.5) else node(3, 0.75, 0.5)
+            200 to osm(
+                ownNode,
+                node(2, 0.5, 0.5),
+                way(10, 1, 2, 3),
+                relation(20, 10)
+            )
+        }
+        val handler = RecordingMapDataHandler()
+
+        downloader(splitInTwo).download(bbox, handler)
+
+        assertEquals(listOf(1L, 2L, 3L), handler.nodes.map { it.id }.sorted())
+        assertEquals(listOf(10L), handler.ways.map { it.id })
+        assertEquals(listOf(20L), handler.relations.map { it.id })
+    }
+
+    @Test fun `passes on nodes of a response before its ways`() {
+        respond = { 200 to osm(node(1, 0.25, 0.25), node(2, 0.75, 0.75), way(10, 1, 2)) }
+        val handler = RecordingMapDataHandler()
+
+        downloader(splitInTwo).download(bbox, handler)
+
+        val wayIndex = handler.elements.indexOfFirst { it is Way }
+        assertTrue(handler.elements.take(wayIndex).all { it is Node })
+    }
+
+    @Test fun `records all data of each completely downloaded response`() {
+        val failures = AtomicInteger(1)
+        respond = { bbox ->
+            if (bbox.minLongitude >= 0.5 && failures.getAndDecrement() > 0) 503 to "Service unavailable"
+            else 200 to osm(node(1, 0.5, 0.5), way(10, 1))
+        }
+        val recorders = ConcurrentLinkedQueue<RecordingDownloadRecorder>()
+        val planner = object : MapDataDownloadPlanner by splitInTwo {
+            override fun createRecorder(bounds: BoundingBox) =
+                RecordingDownloadRecorder().also { recorders.add(it) }
+        }
+        val handler = RecordingMapDataHandler()
+
+        downloader(planner, maxRetries = 1).download(bbox, handler)
+
+        assertEquals(listOf(1L), handler.nodes.map { it.id })
+        // the failed try is not completed, the two successful ones contain the node passed on once
+        assertEquals(3, recorders.size)
+        val completed = recorders.filter { it.isComplete }
+        assertEquals(2, completed.size)
+        for (recorder in completed) {
+            assertEquals(listOf(1L), recorder.nodes.map { it.id })
+            assertEquals(listOf(10L), recorder.ways.map { it.id })
+        }
+    }
+
+    @Test fun `splits up bounding box that is too big`() {
+        respond = { bbox ->
+            if (bbox.maxLatitude - bbox.minLatitude > 0.5) 400 to "Too many nodes"
+            else 200 to osm(node((bbox.minLatitude * 4 + bbox.minLongitude * 2).toLong() + 1, bbox.minLatitude, bbox.minLongitude))
+        }
+        val handler = RecordingMapDataHandler()
+
+        downloader(singleRequest).download(bbox, handler)
+
+        assertEquals(5, requests.size)
+        assertEquals(4, handler.nodes.size)
+    }
+
+    @Test fun `retries failed request`() {
+        val failures = AtomicInteger(1)
+        respond = { bbox ->
+            if (bbox.minLongitude >= 0.5 && failures.getAndDecrement() > 0) 503 to "Service unavailable"
+            else 200 to osm(node(if (bbox.minLongitude < 0.5) 1 else 2, 0.5, bbox.minLongitude))
+        }
+        val handler = RecordingMapDataHandler()
+
+        downloader(splitInTwo, maxRetries = 1).download(bbox, handler)
+
+        // only the failed request is retried
+        assertEquals(3, requests.size)
+        assertEquals(setOf(1L, 2L), handler.nodes.map { it.id }.toSet())
+    }
+
+    @Test(expected = OsmConnectionException::class)
+    fun `gives up after too many retries`() {
+        respond = { 503 to "Service unavailable" }
+
+        downloader(singleRequest, maxRetries = 2).download(bbox, RecordingMapDataHandler())
+    }
+
+    @Test fun `does not do more requests at the same time than allowed`() {
+        respond = {
+            Thread.sleep(50)
+            200 to osm()
+        }
+        downloader(TileGridDownloadPlanner(4), parallelism = 2).download(BoundingBox(0.0, 0.0, 40.0, 40.0), RecordingMapDataHandler())
+
+        assertTrue(requests.size > 2)
+        assertTrue(maxConcurrentRequests.get() <= 2)
+    }
+
+    private fun downloader(planner: MapDataDownloadPlanner, parallelism: Int = 4, maxRetries: Int = 0) =
+        ParallelMapDataDownloader(mapDataApi, planner, parallelism, maxRetries)
+
+    private fun handleMapRequest(exchange: HttpExchange) {
+        val concurrent = concurrentRequests.incrementAndGet()
+        maxConcurrentRequests.accumulateAndGet(concurrent) { a, b -> maxOf(a, b) }
+        try {
+            val bbox = parseBBox(exchange.requestURI.query)
+            requests.add(bbox)
+            val (code, body) = respond(bbox)
+            val bytes = body.toByteArray()
+            exchange.sendResponseHeaders(code, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        } finally {
+            concurrentRequests.decrementAndGet()
+            exchange.close()
+        }
+    }
+}
+
+private val bbox = BoundingBox(0.0, 0.0, 1.0, 1.0)
+
+private val singleRequest = object : MapDataDownloadPlanner {
+    override fun plan(bounds: BoundingBox) = listOf(bounds)
+}
+
+private val splitInTwo = object : MapDataDownloadPlanner {
+    override fun plan(bounds: BoundingBox): List<BoundingBox> {
+        val centerLon = (bounds.minLongitude + bounds.maxLongitude) / 2
+        return listOf(
+            BoundingBox(bounds.minLatitude, bounds.minLongitude, bounds.maxLatitude, centerLon),
+            BoundingBox(bounds.minLatitude, centerLon, bounds.maxLatitude, bounds.maxLongitude)
+        )
+    }
+}
+
+/** query is "bbox=left,bottom,right,top" */
+private fun parseBBox(query: String): BoundingBox {
+    val (left, bottom, right, top) = query.substringAfter("bbox=").split(",").map { it.toDouble() }
+    return BoundingBox(bottom, left, top, right)
+}
+
+private const val META = """version="1" changeset="1" timestamp="2020-01-01T00:00:00Z" user="test" uid="1""""
+
+private fun osm(vararg elements: String) =
+    """<?xml version="1.0" encoding="UTF-8"?>
+    <osm version="0.6">${elements.joinToString("")}</osm>"""
+
+private fun node(id: Long, lat: Double, lon: Double) =
+    """<node id="$id" $META lat="$lat" lon="$lon"/>"""
+
+private fun way(id: Long, vararg nodeIds: Long) =
+    """<way id="$id" $META>${nodeIds.joinToString("") { """<nd ref="$it"/>""" }}</way>"""
+
+private fun relation(id: Long, wayId: Long) =
+    """<relation id="$id" $META><member type="way" ref="$wayId" role=""/></relation>"""
+
+private class RecordingMapDataHandler : MapDataHandler {
+    val elements = ArrayList<Element>()
+    val nodes get() = elements.filterIsInstance<Node>()
+    val ways get() = elements.filterIsInstance<Way>()
+    val relations get() = elements.filterIsInstance<Relation>()
+
+    override fun handle(bounds: BoundingBox) {}
+    override fun handle(node: Node) { elements.add(node) }
+    override fun handle(way: Way) { elements.add(way) }
+    override fun handle(relation: Relation) { elements.add(relation) }
+}
+
+private class RecordingDownloadRecorder : DownloadRecorder {
+    private val handler = RecordingMapDataHandler()
+    val nodes get() = handler.nodes
+    val ways get() = handler.ways
+    var isComplete = false
+        private set
+
+    override fun handle(bounds: BoundingBox) {}
+    override fun handle(node: Node) { handler.handle(node) }
+    override fun handle(way: Way) { handler.handle(way) }
+    override fun handle(relation: Relation) { handler.handle(relation) }
+    override fun onComplete() { isComplete = true }
+}
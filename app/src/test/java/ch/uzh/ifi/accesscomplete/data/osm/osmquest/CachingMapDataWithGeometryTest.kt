@@ -0,0 +1,127 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
+import ch.uzh.ifi.accesscomplete.eq
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.on
+import ch.uzh.ifi.osmapi.map.MutableMapData
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmWay
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.verifyNoMoreInteractions
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class CachingMapDataWithGeometryTest {
+
+    private lateinit var elementGeometryCreator: ElementGeometryCreator
+    private lateinit var mapData: CachingMapDataWithGeometry
+
+    private val p0 = OsmLatLon(0.0, 0.0)
+    private val p1 = OsmLatLon(0.0, 1.0)
+
+    @Before fun setUp() {
+        elementGeometryCreator = mock()
+        on(elementGeometryCreator.create(any<Element>(), any(), eq(true)))
+            .thenReturn(ElementPolylinesGeometry(listOf(listOf(p0, p1)), p0))
+        mapData = CachingMapDataWithGeometry(elementGeometryCreator, MutableMapData())
+        mapData.handle(OsmNode(1, 1, p0, null))
+        mapData.handle(OsmNode(2, 1, p1, null))
+    }
+
+    @Test fun `returns null for unknown element`() {
+        assertNull(mapData.getWayGeometry(1))
+    }
+
+    @Test fun `creates geometry only once when requested concurrently`() {
+        val way = OsmWay(1, 1, listOf(1, 2), null)
+        mapData.handle(way)
+        on(elementGeometryCreator.create(any<Element>(), any(), eq(true))).thenAnswer {
+            // make it likely that several threads create the same geometry at the same time
+            Thread.sleep(50)
+            ElementPolylinesGeometry(listOf(listOf(p0, p1)), p0)
+        }
+
+        val start = CountDownLatch(1)
+        val threads = List(8) {
+            thread {
+                start.await()
+                mapData.getWayGeometry(1)
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+
+        verify(elementGeometryCreator, times(1)).create(eq<Element>(way), any(), eq(true))
+    }
+
+    @Test fun `geometry of other element can be requested while creating geometry`() {
+        val relation1 = OsmRelation(1, 1, mutableListOf(), null)
+        val relation2 = OsmRelation(2, 1, mutableListOf(), null)
+        mapData.handle(relation1)
+        mapData.handle(relation2)
+        val geometry = ElementPolylinesGeometry(listOf(listOf(p0, p1)), p0)
+        on(elementGeometryCreator.create(eq<Element>(relation1), any(), eq(true))).thenAnswer {
+            // i.e. relation 2 is a member of relation 1
+            mapData.getRelationGeometry(2)
+        }
+        on(elementGeometryCreator.create(eq<Element>(relation2), any(), eq(true))).thenReturn(geometry)
+
+        assertEquals(geometry, mapData.getRelationGeometry(1))
+        assertEquals(geometry, mapData.getRelationGeometry(2))
+        verify(elementGeometryCreator, times(1)).create(eq<Element>(relation2), any(), eq(true))
+    }
+
+    @Test fun `creates geometries of all given elements once`() {
+        val ways = (1L..500L).map { OsmWay(it, 1, listOf(1, 2), null) }
+        ways.forEach { mapData.handle(it) }
+        val node = mapData.getNode(1)!!
+        on(elementGeometryCreator.create(node)).thenReturn(ElementPointGeometry(p0))
+
+        mapData.createGeometries(ways + ways.take(100) + node)
+
+        for (way in ways) {
+            verify(elementGeometryCreator).create(eq<Element>(way), any(), eq(true))
+        }
+        verify(elementGeometryCreator).create(node)
+        verifyNoMoreInteractions(elementGeometryCreator)
+
+        // afterwards, it is just a lookup
+        for (way in ways) {
+            assertEquals(ElementPolylinesGeometry(listOf(listOf(p0, p1)), p0), mapData.getWayGeometry(way.id))
+        }
+        verifyNoMoreInteractions(elementGeometryCreator)
+    }
+}
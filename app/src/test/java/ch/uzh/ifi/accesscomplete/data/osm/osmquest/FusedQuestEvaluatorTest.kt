@@ -0,0 +1,249 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.data.elementfilter.ElementFilterExpression
+import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChangesBuilder
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.quests.AbstractQuestAnswerFragment
+import ch.uzh.ifi.osmapi.map.MutableMapData
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmWay
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+class FusedQuestEvaluatorTest {
+
+    @Test fun `finds applicable quest types of element`() {
+        val kerbQuest = TestQuestType("nodes with barrier = kerb and !kerb")
+        val crossingQuest = TestQuestType("nodes with highway = crossing and !tactile_paving")
+        val evaluator = FusedQuestEvaluator(listOf(kerbQuest, crossingQuest))
+
+        assertEquals(listOf(kerbQuest), evaluator.applicableTo(node(mapOf("barrier" to "kerb"))))
+        assertEquals(listOf(crossingQuest), evaluator.applicableTo(node(mapOf("highway" to "crossing"))))
+        assertEquals(emptyList<OsmElementQuestType<*>>(), evaluator.applicableTo(node(mapOf("highway" to "crossing", "tactile_paving" to "no"))))
+        assertEquals(emptyList<OsmElementQuestType<*>>(), evaluator.applicableTo(node(null)))
+    }
+
+    @Test fun `checks element only against quest types whose required keys it has`() {
+        val kerbQuest = TestQuestType("nodes with barrier = kerb and !kerb")
+        val evaluator = FusedQuestEvaluator(listOf(kerbQuest))
+
+        evaluator.applicableTo(node(mapOf("highway" to "crossing")))
+        evaluator.applicableTo(node(null))
+
+        assertEquals(0, kerbQuest.evaluationCount.get())
+    }
+
+    @Test fun `checks element only against quest types of its element type`() {
+        val wayQuest = TestQuestType("ways with !surface")
+        val evaluator = FusedQuestEvaluator(listOf(wayQuest))
+
+        evaluator.applicableTo(node(null))
+
+        assertEquals(0, wayQuest.evaluationCount.get())
+    }
+
+    @Test fun `checks element against quest types without required keys`() {
+        val questType = TestQuestType("nodes with !kerb")
+        val evaluator = FusedQuestEvaluator(listOf(questType))
+
+        assertEquals(listOf(questType), evaluator.applicableTo(node(mapOf("barrier" to "kerb"))))
+    }
+
+    @Test fun `checks element against quest types without download filter`() {
+        val questType = object : TestQuestType("nodes") {
+            override val downloadFilter: ElementFilterExpression? get() = null
+        }
+        val evaluator = FusedQuestEvaluator(listOf(questType))
+
+        assertEquals(listOf(questType), evaluator.applicableTo(node(null)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `does not accept quest types that require the surrounding data`() {
+        FusedQuestEvaluator(listOf(object : TestQuestType("nodes") {
+            override val requiresSurroundingData = true
+        }))
+    }
+
+    /* Compares the number of filter evaluations with evaluating each quest type on its own on a
+     * synthetic city tile with a typical mix of untagged nodes, street furniture, streets, footways
+     * and buildings */
+    @Test fun `finds same quests as evaluating each quest type with much fewer filter evaluations`() {
+        val questTypes = listOf(
+            TestQuestType("nodes with barrier = kerb and !kerb"),
+            TestQuestType("nodes with kerb and !kerb:height"),
+            TestQuestType("nodes with highway = crossing and !tactile_paving"),
+            TestQuestType("nodes with highway = traffic_signals and crossing = traffic_signals and !button_operated"),
+            TestQuestType("nodes with amenity = bench and !backrest"),
+            TestQuestType("nodes, ways with amenity = toilets and !wheelchair"),
+            TestQuestType("ways with highway ~ footway|path and !surface"),
+            TestQuestType("ways with highway ~ footway|path and !width"),
+            TestQuestType("ways with highway ~ footway|path|pedestrian and !smoothness"),
+            TestQuestType("ways with highway ~ residential|tertiary|secondary and !sidewalk"),
+            TestQuestType("ways with highway ~ residential|tertiary|secondary and !maxspeed"),
+            TestQuestType("ways with building and !building:levels"),
+            TestQuestType("ways with building and !roof:shape"),
+            TestQuestType("ways with leisure = playground and !wheelchair"),
+            TestQuestType("relations with type = multipolygon and building and !building:levels")
+        )
+        val mapData = createCityTile()
+
+        val expected = questTypes.associateWith { questType ->
+            questType.getApplicableElements(mapData).map { it.type to it.id }.toSet()
+        }
+        val evaluationsOfEachQuestType = questTypes.sumBy { questType ->
+            Element.Type.values().sumBy { type ->
+                if (questType.filter.includesElementType(type)) mapData.count { it.type == type } else 0
+            }
+        }
+
+        val actual = ConcurrentHashMap<OsmElementQuestType<*>, MutableSet<Pair<Element.Type, Long>>>()
+        FusedQuestEvaluator(questTypes).evaluate(mapData, 1000) { questType, element ->
+            actual.getOrPut(questType) { ConcurrentHashMap.newKeySet() }.add(element.type to element.id)
+        }
+        val fusedEvaluations = questTypes.sumBy { it.evaluationCount.get() }
+
+        for (questType in questTypes) {
+            assertEquals(expected[questType], actual[questType].orEmpty())
+        }
+        assertTrue(expected.values.all { it.isNotEmpty() })
+        assertTrue(
+            "$fusedEvaluations filter evaluations instead of $evaluationsOfEachQuestType",
+            fusedEvaluations * 20 < evaluationsOfEachQuestType
+        )
+    }
+
+    @Test fun `with tag index finds same quests and does not look at untagged elements`() {
+        val questTypes = listOf(
+            TestQuestType("nodes with barrier = kerb and !kerb"),
+            TestQuestType("nodes, ways with amenity = toilets and !wheelchair"),
+            TestQuestType("ways with building and !building:levels")
+        )
+        val mapData = createCityTile()
+        val expected = questTypes.associateWith { questType ->
+            questType.getApplicableElements(mapData).map { it.type to it.id }.toSet()
+        }
+        mapData.buildTagIndex()
+        questTypes.forEach { it.evaluationCount.set(0) }
+
+        val actual = ConcurrentHashMap<OsmElementQuestType<*>, MutableSet<Pair<Element.Type, Long>>>()
+        FusedQuestEvaluator(questTypes).evaluate(mapData, 1000) { questType, element ->
+            actual.getOrPut(questType) { ConcurrentHashMap.newKeySet() }.add(element.type to element.id)
+        }
+
+        for (questType in questTypes) {
+            assertEquals(expected[questType], actual[questType].orEmpty())
+        }
+        val evaluatedElementsCount = questTypes.sumBy { it.evaluationCount.get() }
+        val taggedElementsCount = mapData.count { !it.tags.isNullOrEmpty() }
+        assertTrue(evaluatedElementsCount < taggedElementsCount)
+    }
+
+    @Test fun `with tag index still finds quests without required keys`() {
+        val questType = TestQuestType("nodes with !name")
+        val mapData = createCityTile()
+        val expected = questType.getApplicableElements(mapData).map { it.id }.toSet()
+        mapData.buildTagIndex()
+
+        val actual = ConcurrentHashMap.newKeySet<Long>()
+        FusedQuestEvaluator(listOf(questType)).evaluate(mapData, 1000) { _, element ->
+            actual.add(element.id)
+        }
+        assertEquals(expected, actual)
+        assertTrue(expected.size > 10000)
+    }
+
+    private fun createCityTile(): CachingMapDataWithGeometry {
+        val random = Random(1)
+        val mapData = MutableMapData()
+        var nodeId = 0L
+        // most nodes are untagged nodes of ways
+        repeat(20000) {
+            val tags = when (random.nextInt(100)) {
+                0 -> mapOf("barrier" to "kerb")
+                1 -> mapOf("barrier" to "kerb", "kerb" to "lowered")
+                2 -> mapOf("highway" to "crossing")
+                3 -> mapOf("highway" to "crossing", "tactile_paving" to "yes")
+                4 -> mapOf("highway" to "traffic_signals", "crossing" to "traffic_signals")
+                5 -> mapOf("amenity" to "bench")
+                6 -> mapOf("amenity" to "toilets")
+                7 -> mapOf("entrance" to "yes")
+                8 -> mapOf("shop" to "bakery", "name" to "Beck")
+                else -> null
+            }
+            mapData.handle(OsmNode(++nodeId, 1, OsmLatLon(random.nextDouble(), random.nextDouble()), tags))
+        }
+        var wayId = 0L
+        repeat(4000) {
+            val tags = when (random.nextInt(20)) {
+                0, 1 -> mapOf("highway" to "footway")
+                2 -> mapOf("highway" to "path", "surface" to "gravel")
+                3 -> mapOf("highway" to "residential")
+                4 -> mapOf("highway" to "tertiary", "sidewalk" to "both")
+                5 -> mapOf("leisure" to "playground")
+                6 -> mapOf("amenity" to "toilets", "building" to "yes")
+                7, 8 -> mapOf("landuse" to "residential")
+                else -> mapOf("building" to "yes")
+            }
+            val nodeIds = MutableList(5) { 1L + random.nextInt(nodeId.toInt()) }
+            mapData.handle(OsmWay(++wayId, 1, nodeIds, tags))
+        }
+        repeat(50) {
+            mapData.handle(OsmRelation(it + 1L, 1, mutableListOf(), mapOf("type" to "multipolygon", "building" to "yes")))
+        }
+        return CachingMapDataWithGeometry(mock(), mapData)
+    }
+}
+
+private fun FusedQuestEvaluator.applicableTo(element: Element): List<OsmElementQuestType<*>> {
+    val result = ArrayList<OsmElementQuestType<*>>()
+    evaluate(element) { result.add(it) }
+    return result
+}
+
+private fun node(tags: Map<String, String>?) = OsmNode(1, 1, OsmLatLon(0.0, 0.0), tags)
+
+private open class TestQuestType(override val elementFilter: String) : OsmFilterQuestType<String>() {
+
+    val evaluationCount = AtomicInteger(0)
+
+    override val icon = 0
+    override val commitMessage = ""
+    override fun getTitle(tags: Map<String, String>) = 0
+    override fun createForm() = object : AbstractQuestAnswerFragment<String>() {}
+    override fun applyAnswerTo(answer: String, changes: StringMapChangesBuilder) {}
+
+    override fun isApplicableTo(element: Element): Boolean {
+        evaluationCount.incrementAndGet()
+        return super.isApplicableTo(element)
+    }
+}
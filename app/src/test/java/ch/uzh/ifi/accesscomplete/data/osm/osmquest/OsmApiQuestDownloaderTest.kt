@@ -28,12 +28,15 @@ import de.westnordost.osmapi.map.data.BoundingBox
 import de.westnordost.osmapi.map.data.Element
 import de.westnordost.osmapi.map.data.OsmLatLon
 import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.handler.MapDataHandler
 import ch.uzh.ifi.accesscomplete.any
 import ch.uzh.ifi.accesscomplete.data.MapDataApi
 import ch.uzh.ifi.accesscomplete.data.osm.changes.StringMapChangesBuilder
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.MapDataDownloadPlanner
 import ch.uzh.ifi.accesscomplete.data.osm.mapdata.MergedElementDao
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ParallelMapDataDownloader
 import ch.uzh.ifi.accesscomplete.data.osmnotes.NotePositionsSource
 import ch.uzh.ifi.accesscomplete.data.quest.AllCountries
 import ch.uzh.ifi.accesscomplete.data.quest.Countries
@@ -43,6 +46,9 @@ import ch.uzh.ifi.accesscomplete.quests.AbstractQuestAnswerFragment
 import org.junit.Assert.assertEquals
 import org.junit.Before
 import org.junit.Test
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.FutureTask
@@ -63,7 +69,7 @@ class OsmApiQuestDownloaderTest {
     @Before fun setUp() {
         elementDb = mock()
         osmQuestController = mock()
-        on(osmQuestController.replaceInBBox(any(), any(), any())).thenReturn(OsmQuestController.UpdateResult(0,0))
+        on(osmQuestController.replaceInBBox(any(), any(), any(), any())).thenReturn(OsmQuestController.UpdateResult(0,0))
         countryBoundaries = mock()
         mapDataApi = mock()
         mapDataWithGeometry = mock()
@@ -72,9 +78,14 @@ class OsmApiQuestDownloaderTest {
         val countryBoundariesFuture = FutureTask { countryBoundaries }
         countryBoundariesFuture.run()
         val mapDataProvider = Provider { mapDataWithGeometry }
+        val singleRequestPlanner = object : MapDataDownloadPlanner {
+            override fun plan(bounds: BoundingBox) = listOf(bounds)
+        }
+        val mapDataDownloader = ParallelMapDataDownloader(mapDataApi, singleRequestPlanner)
+        val relationGeometriesCreator = RelationGeometriesCreator(mapDataApi, elementGeometryCreator)
         downloader = OsmApiQuestDownloader(
-            elementDb, osmQuestController, countryBoundariesFuture, notePositionsSource, mapDataApi,
-            mapDataProvider, elementGeometryCreator)
+            elementDb, osmQuestController, countryBoundariesFuture, notePositionsSource,
+            mapDataDownloader, mapDataProvider, relationGeometriesCreator)
     }
 
     @Test fun `creates quest for element`() {
@@ -83,8 +94,8 @@ class OsmApiQuestDownloaderTest {
         val geom = ElementPointGeometry(pos)
         val questType = TestMapDataQuestType(listOf(node))
 
-        on(mapDataWithGeometry.getNodeGeometry(5)).thenReturn(geom)
-        on(osmQuestController.replaceInBBox(any(), any(), any())).thenAnswer {
+        on(mapDataWithGeometry.getGeometry(Element.Type.NODE, 5)).thenReturn(geom)
+        on(osmQuestController.replaceInBBox(any(), any(), any(), any())).thenAnswer {
             val createdQuests = it.arguments[0] as ConcurrentLinkedQueue<OsmQuest>
             assertEquals(1, createdQuests.size)
             val quest = createdQuests.first()
@@ -92,6 +103,9 @@ class OsmApiQuestDownloaderTest {
             assertEquals(Element.Type.NODE, quest.elementType)
             assertEquals(geom, quest.geometry)
             assertEquals(questType, quest.osmElementQuestType)
+            // elements are only persisted within the transaction of the quests
+            verify(elementDb, never()).putAll(any())
+            (it.arguments[3] as () -> Unit).invoke()
             OsmQuestController.UpdateResult(1,0)
         }
 
@@ -99,7 +113,61 @@ class OsmApiQuestDownloaderTest {
 
         verify(elementDb).putAll(any())
         verify(elementDb).deleteUnreferenced()
-        verify(osmQuestController).replaceInBBox(any(), any(), any())
+        verify(osmQuestController).replaceInBBox(any(), any(), any(), any())
+    }
+
+    @Test fun `creates quest for element while downloading`() {
+        val pos = OsmLatLon(1.0, 1.0)
+        val node = OsmNode(5, 0, pos, null)
+        val geom = ElementPointGeometry(pos)
+        val questType = TestElementQuestType(applicableTo = node)
+
+        doAnswer {
+            val handler = it.arguments[1] as MapDataHandler
+            handler.handle(node)
+            // same element contained twice in the response does not result in two quests
+            handler.handle(node)
+        }.on(mapDataApi).getMap(any(), any())
+        on(mapDataWithGeometry.getNode(5)).thenReturn(null)
+        on(mapDataWithGeometry.getNodeGeometry(5)).thenReturn(geom)
+        on(osmQuestController.replaceInBBox(any(), any(), any(), any())).thenAnswer {
+            val createdQuests = it.arguments[0] as ConcurrentLinkedQueue<OsmQuest>
+            assertEquals(1, createdQuests.size)
+            val quest = createdQuests.first()
+            assertEquals(5, quest.elementId)
+            assertEquals(Element.Type.NODE, quest.elementType)
+            assertEquals(geom, quest.geometry)
+            assertEquals(questType, quest.osmElementQuestType)
+            OsmQuestController.UpdateResult(1,0)
+        }
+
+        downloader.download(listOf(questType), bbox)
+
+        verify(mapDataWithGeometry, times(1)).handle(node)
+        verify(osmQuestController).replaceInBBox(any(), any(), any(), any())
+    }
+
+    @Test fun `evaluates quest types in one pass after download if streaming is disabled`() {
+        val pos = OsmLatLon(1.0, 1.0)
+        val node = OsmNode(5, 0, pos, null)
+        val questType = TestElementQuestType(applicableTo = node)
+
+        doAnswer {
+            (it.arguments[1] as MapDataHandler).handle(node)
+        }.on(mapDataApi).getMap(any(), any())
+        on(mapDataWithGeometry.nodes).thenReturn(listOf(node))
+        on(mapDataWithGeometry.getGeometry(Element.Type.NODE, 5)).thenReturn(ElementPointGeometry(pos))
+        on(osmQuestController.replaceInBBox(any(), any(), any(), any())).thenAnswer {
+            val createdQuests = it.arguments[0] as ConcurrentLinkedQueue<OsmQuest>
+            assertEquals(1, createdQuests.size)
+            OsmQuestController.UpdateResult(1,0)
+        }
+
+        downloader.isStreamingEvaluationEnabled = false
+        downloader.download(listOf(questType), bbox)
+
+        assertEquals(0, questType.getApplicableElementsCallCount)
+        verify(osmQuestController).replaceInBBox(any(), any(), any(), any())
     }
 }
 
@@ -115,3 +183,20 @@ private class TestMapDataQuestType(private val list: List<Element>) : OsmElement
     override fun applyAnswerTo(answer: String, changes: StringMapChangesBuilder) {}
     override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> = list
 }
+
+private class TestElementQuestType(private val applicableTo: Element) : OsmElementQuestType<String> {
+
+    var getApplicableElementsCallCount = 0
+
+    override val icon = 0
+    override val commitMessage = ""
+    override val requiresSurroundingData = false
+    override fun getTitle(tags: Map<String, String>) = 0
+    override fun createForm() = object : AbstractQuestAnswerFragment<String>() {}
+    override fun isApplicableTo(element: Element) = element == applicableTo
+    override fun applyAnswerTo(answer: String, changes: StringMapChangesBuilder) {}
+    override fun getApplicableElements(mapData: MapDataWithGeometry): Iterable<Element> {
+        getApplicableElementsCallCount++
+        return listOf(applicableTo)
+    }
+}
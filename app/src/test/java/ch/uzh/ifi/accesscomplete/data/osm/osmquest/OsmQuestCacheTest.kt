@@ -0,0 +1,199 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
+import ch.uzh.ifi.accesscomplete.data.osm.mapdata.ElementKey
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus
+import ch.uzh.ifi.accesscomplete.data.quest.QuestStatus.*
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.util.enclosingTile
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.Date
+
+class OsmQuestCacheTest {
+
+    private lateinit var cache: OsmQuestCache
+    private var loadCount = 0
+
+    @Before fun setUp() {
+        cache = OsmQuestCache()
+        loadCount = 0
+    }
+
+    @Test fun `get loads quest only once`() {
+        val quest = createQuest(1)
+        assertEquals(quest, cache.get(1) { load(quest) })
+        assertEquals(quest, cache.get(1) { load(quest) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `get does not remember quest that changed while loading`() {
+        val quest = createQuest(1)
+        cache.get(1) {
+            cache.onRemoved(1, NEW)
+            load(quest)
+        }
+        assertNull(cache.get(1) { load(null) })
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `removed quest is not returned`() {
+        cache.get(1) { load(createQuest(1)) }
+        cache.onRemoved(1, NEW)
+        assertNull(cache.get(1) { load(null) })
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `get all for element loads only once`() {
+        val quests = listOf(createQuest(1), createQuest(2))
+        assertEquals(quests.toSet(), cache.getAllForElement(ELEMENT) { load(quests) }.toSet())
+        assertEquals(quests.toSet(), cache.getAllForElement(ELEMENT) { load(quests) }.toSet())
+        assertEquals(quests[1], cache.get(2) { load(null) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `get all for element includes added quest`() {
+        val quest = createQuest(1)
+        cache.getAllForElement(ELEMENT) { load(listOf(quest)) }
+        val addedQuest = createQuest(2)
+        cache.onUpdated(listOf(addedQuest), listOf(), listOf())
+        assertEquals(setOf(quest, addedQuest), cache.getAllForElement(ELEMENT) { load(listOf()) }.toSet())
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `get all for element loads again after geometry changed`() {
+        cache.getAllForElement(ELEMENT) { load(listOf(createQuest(1))) }
+        cache.onGeometryChanged(ELEMENT, POS)
+        cache.getAllForElement(ELEMENT) { load(listOf(createQuest(1))) }
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `get all new in tiles loads only once and excludes answered quests`() {
+        val quests = listOf(createQuest(1), createQuest(2))
+        cache.getAllNewInTiles(TILES) { load(quests) }
+
+        val answeredQuest = createQuest(2, ANSWERED)
+        cache.onChanged(answeredQuest, NEW)
+
+        assertEquals(listOf(quests[0]), cache.getAllNewInTiles(TILES) { load(listOf()) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `get all new in tiles loads again after quests were evicted`() {
+        cache = OsmQuestCache(maxQuestCount = 2)
+        val quests = listOf(createQuest(1), createQuest(2), createQuest(3))
+        cache.getAllNewInTiles(TILES) { load(quests) }
+        cache.getAllNewInTiles(TILES) { load(quests) }
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `get all new in tiles loads again after geometry changed`() {
+        cache.getAllNewInTiles(TILES) { load(listOf(createQuest(1))) }
+        cache.onGeometryChanged(ElementKey(Element.Type.WAY, 5), POS)
+        cache.getAllNewInTiles(TILES) { load(listOf(createQuest(1))) }
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `answered count is updated by changes`() {
+        assertEquals(3, cache.getAnsweredCount { load(3) })
+        cache.onChanged(createQuest(1, ANSWERED), NEW)
+        assertEquals(4, cache.getAnsweredCount { load(0) })
+        cache.onChanged(createQuest(1, NEW), ANSWERED)
+        cache.onRemoved(2, ANSWERED)
+        assertEquals(2, cache.getAnsweredCount { load(0) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `undoable count is updated by changes`() {
+        assertEquals(3, cache.getUndoableCount { load(3) })
+        cache.onChanged(createQuest(1, HIDDEN), NEW)
+        cache.onChanged(createQuest(2, CLOSED), ANSWERED)
+        assertEquals(4, cache.getUndoableCount { load(0) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `counts are loaded again after bulk update`() {
+        cache.getAnsweredCount { load(3) }
+        cache.onUpdated(listOf(), listOf(), listOf(1L))
+        assertEquals(5, cache.getAnsweredCount { load(5) })
+        assertEquals(2, loadCount)
+    }
+
+    @Test fun `last undoable is the last answered quest`() {
+        val quest = createQuest(1, ANSWERED)
+        cache.onChanged(quest, NEW)
+        assertEquals(quest, cache.getLastUndoable { load(null) })
+        assertEquals(0, loadCount)
+    }
+
+    @Test fun `last undoable is loaded again after it was undone`() {
+        cache.onChanged(createQuest(1, ANSWERED), NEW)
+        cache.onChanged(createQuest(1, NEW), ANSWERED)
+        val quest = createQuest(2, HIDDEN)
+        assertEquals(quest, cache.getLastUndoable { load(quest) })
+        assertEquals(quest, cache.getLastUndoable { load(null) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `quest is loaded again after its change failed`() {
+        cache.getAllForElement(ELEMENT) { load(listOf(createQuest(1))) }
+        cache.onChangeFailed(1)
+        cache.get(1) { load(createQuest(1)) }
+        cache.getAllForElement(ELEMENT) { load(listOf(createQuest(1))) }
+        assertEquals(3, loadCount)
+    }
+
+    @Test fun `last undoable is loaded again after its change failed`() {
+        cache.onChanged(createQuest(1, ANSWERED), NEW)
+        cache.onChangeFailed(1)
+        assertNull(cache.getLastUndoable { load(null) })
+        assertEquals(1, loadCount)
+    }
+
+    @Test fun `clear forgets everything`() {
+        cache.get(1) { load(createQuest(1)) }
+        cache.getAnsweredCount { load(1) }
+        cache.clear()
+        cache.get(1) { load(createQuest(1)) }
+        cache.getAnsweredCount { load(1) }
+        assertEquals(4, loadCount)
+    }
+
+    private fun <T> load(result: T): T {
+        loadCount++
+        return result
+    }
+
+    private fun createQuest(id: Long, status: QuestStatus = NEW) =
+        OsmQuest(id, mock(), ELEMENT.elementType, ELEMENT.elementId, status, null, null, Date(), ElementPointGeometry(POS))
+
+    companion object {
+        private val POS = OsmLatLon(47.37, 8.54)
+        private val ELEMENT = ElementKey(Element.Type.NODE, 1)
+        private val TILES = POS.enclosingTile(OsmQuestCache.TILE_ZOOM).toTilesRect()
+    }
+}
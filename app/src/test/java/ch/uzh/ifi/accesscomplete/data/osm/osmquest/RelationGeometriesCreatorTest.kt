@@ -0,0 +1,143 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.data.osm.osmquest
+
+import ch.uzh.ifi.accesscomplete.any
+import ch.uzh.ifi.accesscomplete.data.MapDataApi
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementGeometryCreator
+import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPointGeometry
+import ch.uzh.ifi.accesscomplete.eq
+import ch.uzh.ifi.accesscomplete.mock
+import ch.uzh.ifi.accesscomplete.on
+import ch.uzh.ifi.osmapi.map.MapData
+import ch.uzh.ifi.osmapi.map.MapDataWithGeometry
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.OsmLatLon
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmRelationMember
+import de.westnordost.osmapi.map.data.OsmWay
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.handler.MapDataHandler
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.anyLong
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.util.concurrent.atomic.AtomicInteger
+
+class RelationGeometriesCreatorTest {
+    private lateinit var mapDataApi: MapDataApi
+    private lateinit var elementGeometryCreator: ElementGeometryCreator
+    private lateinit var mapData: MapDataWithGeometry
+
+    private val pos = OsmLatLon(1.0, 2.0)
+    private val geometry = ElementPointGeometry(pos)
+
+    @Before fun setUp() {
+        mapDataApi = mock()
+        elementGeometryCreator = mock()
+        mapData = mock()
+    }
+
+    @Test fun `takes geometry of complete relation from map data`() {
+        val relation = relation(1, wayId = 10)
+        on(mapData.getRelation(1)).thenReturn(relation)
+        on(mapData.getWay(10)).thenReturn(OsmWay(10, 1, mutableListOf(100L), null))
+        on(mapData.getNodePosition(100)).thenReturn(pos)
+        on(mapData.getRelationGeometry(1)).thenReturn(geometry)
+
+        val result = RelationGeometriesCreator(mapDataApi, elementGeometryCreator).create(listOf(1L), mapData)
+
+        assertEquals(mapOf(1L to geometry), result)
+        verify(mapDataApi, never()).getRelationComplete(anyLong(), any())
+    }
+
+    @Test fun `downloads incomplete relation once`() {
+        val relation = relation(2, wayId = 20)
+        on(mapData.getRelation(2)).thenReturn(relation)
+        respondWithCompleteRelation()
+        on(elementGeometryCreator.create(eq(relation), any<MapData>(), eq(false))).thenReturn(geometry)
+
+        val result = RelationGeometriesCreator(mapDataApi, elementGeometryCreator).create(listOf(2L, 2L), mapData)
+
+        assertEquals(mapOf(2L to geometry), result)
+        verify(mapDataApi, times(1)).getRelationComplete(eq(2L), any())
+    }
+
+    @Test fun `creates geometry of incomplete relations from the data of all downloaded relations`() {
+        val relation2 = relation(2, wayId = 20)
+        val relation3 = relation(3, wayId = 30)
+        on(mapData.getRelation(2)).thenReturn(relation2)
+        on(mapData.getRelation(3)).thenReturn(relation3)
+        respondWithCompleteRelation()
+        on(elementGeometryCreator.create(any<Element>(), any<MapData>(), eq(false))).thenAnswer {
+            val data = it.arguments[1] as MapData
+            assertTrue(data.getWay(20) != null && data.getWay(30) != null)
+            geometry
+        }
+
+        val result = RelationGeometriesCreator(mapDataApi, elementGeometryCreator).create(listOf(2L, 3L), mapData)
+
+        assertEquals(mapOf(2L to geometry, 3L to geometry), result)
+    }
+
+    @Test fun `downloads not more relations at the same time than allowed`() {
+        val ids = (2L..9L).toList()
+        for (id in ids) {
+            on(mapData.getRelation(id)).thenReturn(relation(id, wayId = id * 10))
+        }
+        val concurrent = AtomicInteger(0)
+        val maxConcurrent = AtomicInteger(0)
+        doAnswer {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet()) { a, b -> maxOf(a, b) }
+            Thread.sleep(20)
+            concurrent.decrementAndGet()
+            null
+        }.on(mapDataApi).getRelationComplete(anyLong(), any())
+
+        RelationGeometriesCreator(mapDataApi, elementGeometryCreator, 2).create(ids, mapData)
+
+        verify(mapDataApi, times(ids.size)).getRelationComplete(anyLong(), any())
+        assertTrue(maxConcurrent.get() <= 2)
+    }
+
+    /** the complete relation consists of the relation, its member way and a node of that way */
+    private fun respondWithCompleteRelation() {
+        doAnswer {
+            val id = it.arguments[0] as Long
+            val handler = it.arguments[1] as MapDataHandler
+            handler.handle(OsmNode(id * 100, 1, pos, null))
+            handler.handle(OsmWay(id * 10, 1, mutableListOf(id * 100), null))
+            handler.handle(relation(id, wayId = id * 10))
+            null
+        }.on(mapDataApi).getRelationComplete(anyLong(), any())
+    }
+}
+
+private fun relation(id: Long, wayId: Long): Relation =
+    OsmRelation(id, 1, mutableListOf(OsmRelationMember(wayId, "outer", Element.Type.WAY)), null)
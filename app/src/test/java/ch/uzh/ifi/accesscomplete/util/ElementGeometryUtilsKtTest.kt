@@ -22,11 +22,17 @@
 
 package ch.uzh.ifi.accesscomplete.util
 
+import de.westnordost.osmapi.map.data.LatLon
 import de.westnordost.osmapi.map.data.OsmLatLon
 import ch.uzh.ifi.accesscomplete.data.osm.elementgeometry.ElementPolylinesGeometry
+import ch.uzh.ifi.accesscomplete.ktx.forEachLine
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 
 import org.junit.Test
+import kotlin.math.abs
+import kotlin.random.Random
 
 class ElementGeometryUtilsKtTest {
 
@@ -46,4 +52,59 @@ class ElementGeometryUtilsKtTest {
 
         assertTrue(street19801348.isNearAndAligned(10.0, 25.0, listOf(sidewalk406543797)))
     }
+
+    @Test fun `not near and aligned to nothing`() {
+        val street = ElementPolylinesGeometry(listOf(listOf(
+            OsmLatLon(50.0751820, 19.8861837),
+            OsmLatLon(50.0751033, 19.8865969)
+        )), OsmLatLon(50.0751820, 19.8861837))
+
+        assertFalse(street.isNearAndAligned(10.0, 25.0, listOf()))
+    }
+
+    @Test fun `near and aligned is the same as checking each pair of segments`() {
+        val random = Random(42)
+        val origin = OsmLatLon(47.0, 8.0)
+        val footways = (0 until 300).map { createRandomGeometry(random, origin) }
+        val footwaySegments = footways.toLineSegmentRaster()
+        repeat(300) {
+            val road = createRandomGeometry(random, origin)
+            val maxDistance = random.nextDouble(2.0, 30.0)
+            assertEquals(
+                isNearAndAlignedBruteForce(road, maxDistance, 25.0, footways),
+                road.isNearAndAligned(maxDistance, 25.0, footwaySegments)
+            )
+        }
+    }
+
+    private fun createRandomGeometry(random: Random, origin: LatLon): ElementPolylinesGeometry {
+        var p = origin.translate(random.nextDouble(0.0, 1000.0), random.nextDouble(0.0, 360.0))
+        val polyline = mutableListOf(p)
+        repeat(random.nextInt(1, 5)) {
+            p = p.translate(random.nextDouble(5.0, 100.0), random.nextDouble(0.0, 360.0))
+            polyline.add(p)
+        }
+        return ElementPolylinesGeometry(listOf(polyline), polyline.first())
+    }
+
+    private fun isNearAndAlignedBruteForce(
+        geometry: ElementPolylinesGeometry,
+        maxDistance: Double,
+        maxAngle: Double,
+        others: List<ElementPolylinesGeometry>
+    ): Boolean {
+        var result = false
+        geometry.polylines.single().forEachLine { first, second ->
+            for (other in others) {
+                other.polylines.single().forEachLine { otherFirst, otherSecond ->
+                    val bearingDiff = abs((first.initialBearingTo(second) - otherFirst.initialBearingTo(otherSecond)).normalizeDegrees(-180.0))
+                    val alignmentDiff = if (bearingDiff > 90) 180 - bearingDiff else bearingDiff
+                    if (alignmentDiff <= maxAngle && first.distanceToArc(otherFirst, otherSecond) <= maxDistance) {
+                        result = true
+                    }
+                }
+            }
+        }
+        return result
+    }
 }
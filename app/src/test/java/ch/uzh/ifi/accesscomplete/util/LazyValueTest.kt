@@ -0,0 +1,48 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LazyValueTest {
+
+    @Test fun `computes value only on first access`() {
+        var calls = 0
+        val lazyValue = LazyValue { ++calls }
+        assertEquals(0, calls)
+        assertEquals(1, lazyValue.value)
+        assertEquals(1, lazyValue.value)
+        assertEquals(1, calls)
+    }
+
+    @Test fun `equal if values are equal`() {
+        assertEquals(LazyValue { listOf(1, 2) }, LazyValue.of(listOf(1, 2)))
+        assertEquals(LazyValue { listOf(1, 2) }.hashCode(), LazyValue.of(listOf(1, 2)).hashCode())
+        assertNotEquals(LazyValue { listOf(1, 2) }, LazyValue.of(listOf(2, 1)))
+    }
+
+    @Test fun `null value`() {
+        assertEquals(LazyValue { null }, LazyValue.of(null))
+        assertEquals(0, LazyValue.of(null).hashCode())
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.uzh.ifi.accesscomplete.util
+
+import de.westnordost.osmapi.map.data.BoundingBox
+import de.westnordost.osmapi.map.data.OsmLatLon
+import org.junit.Assert.*
+import org.junit.Test
+
+class LineSegmentRasterTest {
+
+    @Test fun `finds near and aligned segment`() {
+        val raster = LineSegmentRaster(BoundingBox(0.0, 0.0, 1.0, 1.0), 0.1)
+        val start = OsmLatLon(0.5, 0.5)
+        raster.insert(listOf(start, start.translate(100.0, 90.0)))
+
+        val position = start.translate(10.0, 0.0)
+        assertTrue(raster.isAnyNearAndAligned(position, 90.0, 15.0, 10.0))
+        // opposite direction counts as aligned too
+        assertTrue(raster.isAnyNearAndAligned(position, 270.0, 15.0, 10.0))
+        // too far
+        assertFalse(raster.isAnyNearAndAligned(position, 90.0, 5.0, 10.0))
+        // not aligned
+        assertFalse(raster.isAnyNearAndAligned(position, 45.0, 15.0, 10.0))
+    }
+
+    @Test fun `finds segment spanning several cells`() {
+        val raster = LineSegmentRaster(BoundingBox(0.0, 0.0, 1.0, 1.0), 0.1)
+        raster.insert(OsmLatLon(0.05, 0.05), OsmLatLon(0.05, 0.95))
+        assertEquals(1, raster.size)
+
+        val position = OsmLatLon(0.05, 0.5)
+        assertTrue(raster.isAnyNearAndAligned(position, 90.0, 1.0, 1.0))
+    }
+
+    @Test fun `finds segment outside of bounds`() {
+        val raster = LineSegmentRaster(BoundingBox(0.0, 0.0, 1.0, 1.0), 0.1)
+        raster.insert(OsmLatLon(2.0, 2.0), OsmLatLon(2.0, 2.001))
+
+        val position = OsmLatLon(2.0, 2.0005)
+        assertTrue(raster.isAnyNearAndAligned(position, 90.0, 1.0, 1.0))
+        assertTrue(raster.getAll(BoundingBox(-1.0, -1.0, 0.5, 0.5)).none())
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.accesscomplete.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LongIntHashMapTest {
+
+    @Test fun `get returns default value if key is not contained`() {
+        val map = LongIntHashMap()
+        assertEquals(-1, map.get(5))
+        assertEquals(3, map.get(5, 3))
+        assertFalse(map.containsKey(5))
+    }
+
+    @Test fun `put and get`() {
+        val map = LongIntHashMap()
+        map.put(5, 1)
+        map.put(-5, 2)
+        map.put(0, 3)
+        assertEquals(1, map.get(5))
+        assertEquals(2, map.get(-5))
+        assertEquals(3, map.get(0))
+        assertTrue(map.containsKey(-5))
+        assertEquals(3, map.size)
+    }
+
+    @Test fun `put replaces value`() {
+        val map = LongIntHashMap()
+        map.put(5, 1)
+        map.put(5, 2)
+        assertEquals(2, map.get(5))
+        assertEquals(1, map.size)
+    }
+
+    @Test fun `grows beyond initial capacity`() {
+        val map = LongIntHashMap(4)
+        for (i in 0 until 10000) {
+            map.put(i * 31L, i)
+        }
+        assertEquals(10000, map.size)
+        for (i in 0 until 10000) {
+            assertEquals(i, map.get(i * 31L))
+        }
+        assertFalse(map.containsKey(1))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `does not accept min value as key`() {
+        LongIntHashMap().put(Long.MIN_VALUE, 1)
+    }
+}
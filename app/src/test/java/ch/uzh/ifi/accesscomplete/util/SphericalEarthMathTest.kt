@@ -20,6 +20,8 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+@file:Suppress("NonAsciiCharacters")
+
 package ch.uzh.ifi.accesscomplete.util
 
 import de.westnordost.osmapi.map.data.BoundingBox
@@ -29,9 +31,8 @@ import de.westnordost.osmapi.map.data.LatLon
 import de.westnordost.osmapi.map.data.OsmLatLon
 
 import org.junit.Assert.*
-import kotlin.math.PI
-import kotlin.math.roundToInt
-import kotlin.math.sqrt
+import kotlin.math.*
+import kotlin.random.Random
 
 class SphericalEarthMathTest {
 
@@ -712,11 +713,103 @@ class SphericalEarthMathTest {
         assertTrue(square.measuredArea() > 0)
     }
 
+    /* ++++++++++++++++++++ test approximation for points close to each other ++++++++++++++++++++ */
+
+    @Test fun `distance of close points is approximated well`() {
+        forRandomClosePoints { one, two, _ ->
+            assertEquals(exactDistance(one, two), one.distanceTo(two), 0.001)
+        }
+    }
+
+    @Test fun `initial bearing of close points is approximated well`() {
+        forRandomClosePoints { one, two, _ ->
+            if (exactDistance(one, two) < 0.01) return@forRandomClosePoints
+            val diff = (exactInitialBearing(one, two) - one.initialBearingTo(two)).normalizeDegrees(-180.0)
+            assertEquals(0.0, diff, 0.000001)
+        }
+    }
+
+    @Test fun `distance to arc of close points is approximated well`() {
+        forRandomClosePoints { one, two, three ->
+            assertEquals(exactDistanceToArc(three, one, two), three.distanceToArc(one, two), 0.05)
+        }
+    }
+
+    @Test fun `distances do not jump at the limit of the approximation`() {
+        // ~0.0057° is where the approximation starts
+        val one = p(8.0, 47.0)
+        for (i in 550..600) {
+            val two = p(8.0 + i * 0.00001, 47.0 + i * 0.00001)
+            assertEquals(exactDistance(one, two), one.distanceTo(two), 0.001)
+        }
+    }
+
+    @Test fun `close points on opposite sides of the 180th meridian`() {
+        val one = p(179.99999, 0.0)
+        val two = p(-179.99999, 0.0)
+        assertEquals(exactDistance(one, two), one.distanceTo(two), 0.001)
+        assertEquals(90.0, one.initialBearingTo(two), 0.000001)
+    }
+
+    /** Calls [block] with random triples of points that are all close to each other, at all
+     *  latitudes */
+    private fun forRandomClosePoints(block: (LatLon, LatLon, LatLon) -> Unit) {
+        val random = Random(42)
+        // span in which the approximation is used, in degrees
+        val span = 1e-4 * 180 / PI
+        repeat(10000) {
+            val lat = random.nextDouble(-89.99, 89.99)
+            val lon = random.nextDouble(-179.0, 179.0)
+            block(
+                OsmLatLon(lat, lon),
+                OsmLatLon(lat + random.nextDouble(-span, span) / 2, lon + random.nextDouble(-span, span) / 2),
+                OsmLatLon(lat + random.nextDouble(-span, span) / 2, lon + random.nextDouble(-span, span) / 2)
+            )
+        }
+    }
+
     companion object {
         private val HH = p(10.0, 53.5)
     }
 }
 
+/* The exact formulas on a sphere, to compare the approximations in SphericalEarthMath with */
+
+private fun exactDistance(one: LatLon, two: LatLon): Double =
+    exactAngularDistance(one.φ, one.λ, two.φ, two.λ) * EARTH_RADIUS
+
+private fun exactInitialBearing(one: LatLon, two: LatLon): Double =
+    exactInitialBearing(one.φ, one.λ, two.φ, two.λ).toDegrees().normalizeDegrees()
+
+private fun exactDistanceToArc(point: LatLon, start: LatLon, end: LatLon): Double {
+    val θ12 = exactInitialBearing(start.φ, start.λ, end.φ, end.λ)
+    val θ13 = exactInitialBearing(start.φ, start.λ, point.φ, point.λ)
+    val δ13 = exactAngularDistance(start.φ, start.λ, point.φ, point.λ)
+    val δ12 = exactAngularDistance(start.φ, start.λ, end.φ, end.λ)
+    val δxt = asin(sin(δ13) * sin(θ13 - θ12))
+    val δat = acos(cos(δ13) / abs(cos(δxt))) * sign(cos(θ12 - θ13))
+    val δ = when {
+        δat < 0 -> δ13
+        δat > δ12 -> exactAngularDistance(end.φ, end.λ, point.φ, point.λ)
+        else -> δxt
+    }
+    return abs(δ) * EARTH_RADIUS
+}
+
+private fun exactAngularDistance(φ1: Double, λ1: Double, φ2: Double, λ2: Double): Double {
+    val a = sin((φ2 - φ1) / 2).pow(2) + cos(φ1) * cos(φ2) * sin((λ2 - λ1) / 2).pow(2)
+    return 2 * atan2(sqrt(a), sqrt(1 - a))
+}
+
+private fun exactInitialBearing(φ1: Double, λ1: Double, φ2: Double, λ2: Double): Double {
+    val Δλ = λ2 - λ1
+    return atan2(sin(Δλ) * cos(φ2), cos(φ1) * sin(φ2) - sin(φ1) * cos(φ2) * cos(Δλ))
+}
+
+private val LatLon.φ get() = latitude * PI / 180
+private val LatLon.λ get() = longitude * PI / 180
+private fun Double.toDegrees() = this * 180 / PI
+
 private fun p(x: Double, y: Double) = OsmLatLon(y, normalizeLongitude(x))
 private val LatLon.x get() = longitude
 private val LatLon.y get() = latitude
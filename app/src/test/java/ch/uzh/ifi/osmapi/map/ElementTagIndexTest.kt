@@ -0,0 +1,88 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.osmapi.map
+
+import de.westnordost.osmapi.map.data.Element
+import de.westnordost.osmapi.map.data.Node
+import de.westnordost.osmapi.map.data.OsmNode
+import de.westnordost.osmapi.map.data.OsmRelation
+import de.westnordost.osmapi.map.data.OsmWay
+import de.westnordost.osmapi.map.data.Relation
+import de.westnordost.osmapi.map.data.Way
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ElementTagIndexTest {
+
+    private val mapData = MutableMapData().apply { addAll(listOf(
+        OsmNode(1, 1, 0.0, 0.0, mapOf("highway" to "crossing")),
+        OsmNode(2, 1, 0.0, 0.0, mapOf("highway" to "traffic_signals", "crossing" to "traffic_signals")),
+        OsmNode(3, 1, 0.0, 0.0, null),
+        OsmWay(1, 1, listOf(1L, 2L), mapOf("highway" to "crossing")),
+        OsmRelation(1, 1, listOf(), mapOf("type" to "route"))
+    )) }
+
+    @Test fun `get elements with key`() {
+        val index = ElementTagIndex(mapData)
+        assertEquals(listOf(1L, 2L), index.getElements(Element.Type.NODE, "highway").map { it.id }.sorted())
+        assertEquals(listOf(2L), index.getElements(Element.Type.NODE, "crossing").map { it.id })
+        assertEquals(listOf(1L), index.getElements(Element.Type.WAY, "highway").map { it.id })
+        assertEquals(listOf(1L), index.getElements(Element.Type.RELATION, "type").map { it.id })
+    }
+
+    @Test fun `get elements with tag`() {
+        val index = ElementTagIndex(mapData)
+        assertEquals(listOf(1L), index.getElements(Element.Type.NODE, "highway", "crossing").map { it.id })
+        assertEquals(listOf(2L), index.getElements(Element.Type.NODE, "highway", "traffic_signals").map { it.id })
+        assertEquals(listOf(1L), index.getElements(Element.Type.WAY, "highway", "crossing").map { it.id })
+    }
+
+    @Test fun `get no elements with unknown key or tag`() {
+        val index = ElementTagIndex(mapData)
+        assertTrue(index.getElements(Element.Type.NODE, "amenity").isEmpty())
+        assertTrue(index.getElements(Element.Type.NODE, "highway", "footway").isEmpty())
+        assertTrue(index.getElements(Element.Type.WAY, "crossing", "traffic_signals").isEmpty())
+    }
+
+    @Test fun `does not reflect elements added later`() {
+        val index = ElementTagIndex(mapData)
+        mapData.handle(OsmNode(4, 1, 0.0, 0.0, mapOf("highway" to "crossing")))
+        assertEquals(listOf(1L), index.getElements(Element.Type.NODE, "highway", "crossing").map { it.id })
+    }
+
+    @Test fun `get elements with key of packed map data`() {
+        val packedMapData = PackedMapData()
+        mapData.forEach { element ->
+            when (element) {
+                is Node -> packedMapData.handle(element)
+                is Way -> packedMapData.handle(element)
+                is Relation -> packedMapData.handle(element)
+            }
+        }
+        val index = ElementTagIndex(packedMapData)
+        assertEquals(listOf(1L, 2L), index.getElements(Element.Type.NODE, "highway").map { it.id }.sorted())
+        assertEquals(listOf(2L), index.getElements(Element.Type.NODE, "crossing").map { it.id })
+        assertEquals(listOf(1L), index.getElements(Element.Type.WAY, "highway").map { it.id })
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * AccessComplete, an easy to use editor of accessibility related
+ * OpenStreetMap data for Android.  This program is a fork of
+ * StreetComplete (https://github.com/westnordost/StreetComplete).
+ *
+ * Copyright (C) 2016-2020 Tobias Zwick and contributors (StreetComplete authors)
+ * Copyright (C) 2020 Sven Stoll (AccessComplete author)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.uzh.ifi.osmapi.map
+
+import de.westnordost.osmapi.map.data.*
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Date
+
+class PackedMapDataTest {
+
+    @Test fun `stores untagged node`() {
+        val data = PackedMapData()
+        val date = Date(123456789)
+        data.handle(OsmNode(1, 2, 47.1234567, -122.7654321, null, null, date))
+
+        val node = data.getNode(1)!!
+        assertEquals(1, node.id)
+        assertEquals(2, node.version)
+        assertEquals(47.1234567, node.position.latitude, 0.0)
+        assertEquals(-122.7654321, node.position.longitude, 0.0)
+        assertEquals(date, node.dateEdited)
+        assertTrue(node.tags.isNullOrEmpty())
+        assertEquals(OsmLatLon(47.1234567, -122.7654321), data.getNodePosition(1))
+    }
+
+    @Test fun `keeps tagged node as is`() {
+        val data = PackedMapData()
+        val node = OsmNode(1, 1, OsmLatLon(1.0, 2.0), mapOf("a" to "b"))
+        data.handle(node)
+        assertSame(node, data.getNode(1))
+    }
+
+    @Test fun `tagged node sequence contains only tagged nodes`() {
+        val data = PackedMapData()
+        val node = OsmNode(2, 1, OsmLatLon(1.0, 2.0), mapOf("a" to "b"))
+        data.handle(OsmNode(1, 1, OsmLatLon(1.0, 2.0), null))
+        data.handle(node)
+        data.handle(OsmNode(3, 1, OsmLatLon(1.0, 2.0), mapOf()))
+        assertEquals(listOf(node), data.taggedNodeSequence.toList())
+    }
+
+    @Test fun `returns null for unknown elements`() {
+        val data = PackedMapData()
+        assertNull(data.getNode(1))
+        assertNull(data.getNodePosition(1))
+        assertNull(data.getWay(1))
+        assertNull(data.getRelation(1))
+    }
+
+    @Test fun `stores way`() {
+        val data = PackedMapData()
+        data.handle(OsmWay(1, 1, mutableListOf(10L, 11L, 12L), mapOf("a" to "b")))
+        data.handle(OsmWay(2, 3, mutableListOf(12L, 13L), null))
+
+        val way = data.getWay(1)!!
+        assertEquals(listOf(10L, 11L, 12L), way.nodeIds)
+        assertEquals(mapOf("a" to "b"), way.tags)
+        assertEquals(listOf(12L, 13L), data.getWay(2)!!.nodeIds)
+        assertEquals(3, data.getWay(2)!!.version)
+    }
+
+    @Test fun `stores copy of node ids of way`() {
+        val data = PackedMapData()
+        val nodeIds = mutableListOf(10L, 11L)
+        data.handle(OsmWay(1, 1, nodeIds, null))
+        nodeIds.add(12L)
+
+        assertEquals(listOf(10L, 11L), data.getWay(1)!!.nodeIds)
+    }
+
+    @Test fun `stores relation`() {
+        val data = PackedMapData()
+        val relation = OsmRelation(1, 1, mutableListOf(), null)
+        data.handle(relation)
+        assertSame(relation, data.getRelation(1))
+    }
+
+    @Test fun `replaces elements with same id`() {
+        val data = PackedMapData()
+        data.handle(OsmNode(1, 1, OsmLatLon(1.0, 2.0), null))
+        data.handle(OsmNode(1, 2, OsmLatLon(3.0, 4.0), null))
+        data.handle(OsmWay(1, 1, mutableListOf(1L, 2L), null))
+        data.handle(OsmWay(1, 2, mutableListOf(1L, 3L), null))
+
+        assertEquals(1, data.nodes.size)
+        assertEquals(OsmLatLon(3.0, 4.0), data.getNodePosition(1))
+        assertEquals(1, data.ways.size)
+        assertEquals(listOf(1L, 3L), data.getWay(1)!!.nodeIds)
+    }
+
+    @Test fun `iterates all elements`() {
+        val data = PackedMapData()
+        for (i in 1L..10000L) {
+            data.handle(OsmNode(i, 1, OsmLatLon(0.0, i / 1e5), if (i % 2 == 0L) mapOf("a" to "b") else null))
+        }
+        for (i in 1L..1000L) {
+            data.handle(OsmWay(i, 1, (i..i + 10).toMutableList(), null))
+        }
+        data.handle(OsmRelation(1, 1, mutableListOf(), null))
+
+        assertEquals(10000, data.nodes.size)
+        assertEquals((1L..10000L).toList(), data.nodes.map { it.id })
+        assertEquals(1000, data.ways.size)
+        assertEquals((5L..15L).toList(), data.getWay(5)!!.nodeIds)
+        assertEquals(11001, data.count())
+        assertTrue(data.isWayComplete(5))
+    }
+}